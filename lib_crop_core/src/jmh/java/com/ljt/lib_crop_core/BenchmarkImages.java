@@ -0,0 +1,81 @@
+package com.ljt.lib_crop_core;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * 基准测试用的图片和JPEG编码器
+ *
+ * @author lijintao <br/>
+ */
+final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * 生成4:3的图片，渐变叠加噪声，编码体积接近照片
+     *
+     * @param megapixels 百万像素数
+     * @return
+     */
+    static ArgbRaster create(int megapixels) {
+        final long pixels = megapixels * 1000000L;
+        final int height = (int) Math.round(Math.sqrt(pixels * 3 / 4.0));
+        final int width = (int) (pixels / height);
+        ArgbRaster raster = new ArgbRaster(width, height);
+        final int[] p = raster.getPixels();
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            final int g = y * 255 / height;
+            for (int x = 0, index = y * width; x < width; x++, index++) {
+                final int noise = random.nextInt(32);
+                p[index] = 0xff000000 | ((x * 255 / width) << 16) | (Math.min(255, g + noise) << 8)
+                        | ((x ^ y) & 0xff);
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * ImageIO的JPEG编码，像素数组直接作为BufferedImage的数据，不复制
+     */
+    static final class JpegCodec implements RasterEncoder.Codec {
+
+        private static final DirectColorModel RGB = new DirectColorModel(24, 0xff0000, 0xff00, 0xff);
+
+        @Override
+        public void encode(ArgbRaster raster, int quality, OutputStream out) throws IOException {
+            final int width = raster.getWidth();
+            final int height = raster.getHeight();
+            DataBufferInt buffer = new DataBufferInt(raster.getPixels(), width * height);
+            WritableRaster pixels = Raster.createPackedRaster(buffer, width, height, width,
+                    RGB.getMasks(), null);
+            BufferedImage image = new BufferedImage(RGB, pixels, false, null);
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            ImageOutputStream stream = ImageIO.createImageOutputStream(out);
+            try {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality / 100f);
+                writer.setOutput(stream);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.ljt.lib_crop_core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageUtil.compressToMaxBytes(bitmap, maxBytes)的质量查找，编码使用ImageIO
+ * <p>
+ * 编码本身的耗时与设备上的libjpeg不同，用于比较查找过程的编码次数和分配
+ *
+ * @author lijintao <br/>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+public class EncodeBenchmark {
+
+    @Param({"1", "12", "24", "48"})
+    public int megapixels;
+
+    // 上限为原图像素数的1/8字节，各尺寸下需要的压缩程度相近
+    private int mMaxBytes;
+
+    private ArgbRaster mSource;
+
+    private RasterEncoder mEncoder;
+
+    @Setup
+    public void setUp() {
+        mSource = BenchmarkImages.create(megapixels);
+        mMaxBytes = megapixels * 1000000 / 8;
+        mEncoder = new RasterEncoder(new BenchmarkImages.JpegCodec());
+    }
+
+    @Benchmark
+    public int bitmap2Bytes() throws IOException {
+        mEncoder.encode(mSource, mMaxBytes);
+        return mEncoder.getSize();
+    }
+
+    @Benchmark
+    public int bitmap2BytesNewEncoder() throws IOException {
+        RasterEncoder encoder = new RasterEncoder(new BenchmarkImages.JpegCodec());
+        encoder.encode(mSource, mMaxBytes);
+        return encoder.getSize();
+    }
+}
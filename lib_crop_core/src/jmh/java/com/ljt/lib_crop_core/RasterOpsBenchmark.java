@@ -0,0 +1,128 @@
+package com.ljt.lib_crop_core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageUtil中剪裁、缩放、旋转、遮罩和混合对应的像素运算
+ * <p>
+ * 使用-prof gc运行时，gc.alloc.rate.norm即每次操作分配的字节数
+ *
+ * @author lijintao <br/>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RasterOpsBenchmark {
+
+    // 导出和头像常用的输出尺寸
+    private static final int TARGET_SIZE = 1080;
+
+    private static final int AVATAR_SIZE = 256;
+
+    @Param({"1", "12", "24", "48"})
+    public int megapixels;
+
+    private ArgbRaster mSource;
+
+    private ArgbRaster mLogo;
+
+    private final Downscaler mAreaAverage = new Downscaler(Downscaler.Kernel.BOX);
+
+    private final Downscaler mLanczos3 = new Downscaler(Downscaler.Kernel.LANCZOS3);
+
+    private final Downscaler mLanczos3SingleThread = new Downscaler(Downscaler.Kernel.LANCZOS3).setParallelism(1);
+
+    @Setup
+    public void setUp() {
+        mSource = BenchmarkImages.create(megapixels);
+        mLogo = RasterOps.circle(BenchmarkImages.create(1));
+    }
+
+    @Benchmark
+    public ArgbRaster cropBitmap() {
+        final int w = mSource.getWidth();
+        final int h = mSource.getHeight();
+        return RasterOps.crop(mSource, w / 4, h / 4, w / 2, h / 2);
+    }
+
+    @Benchmark
+    public ArgbRaster centerCropBitmap() {
+        return RasterOps.centerCrop(mSource);
+    }
+
+    @Benchmark
+    public ArgbRaster centerCropScaled() {
+        return RasterOps.centerCrop(mSource, TARGET_SIZE, TARGET_SIZE, true);
+    }
+
+    @Benchmark
+    public ArgbRaster zoomBitmap() {
+        return RasterOps.scale(mSource, TARGET_SIZE, TARGET_SIZE * mSource.getHeight() / mSource.getWidth(),
+                false);
+    }
+
+    @Benchmark
+    public ArgbRaster zoomImage() {
+        return RasterOps.scale(mSource, TARGET_SIZE, TARGET_SIZE * mSource.getHeight() / mSource.getWidth(),
+                true);
+    }
+
+    @Benchmark
+    public ArgbRaster downscaleAreaAverage() {
+        return mAreaAverage.scale(mSource, TARGET_SIZE, TARGET_SIZE * mSource.getHeight() / mSource.getWidth());
+    }
+
+    @Benchmark
+    public ArgbRaster downscaleLanczos3() {
+        return mLanczos3.scale(mSource, TARGET_SIZE, TARGET_SIZE * mSource.getHeight() / mSource.getWidth());
+    }
+
+    @Benchmark
+    public ArgbRaster downscaleLanczos3SingleThread() {
+        return mLanczos3SingleThread.scale(mSource, TARGET_SIZE,
+                TARGET_SIZE * mSource.getHeight() / mSource.getWidth());
+    }
+
+    @Benchmark
+    public ArgbRaster rotate90() {
+        return RasterOps.rotate(mSource, 90);
+    }
+
+    @Benchmark
+    public ArgbRaster rotateArbitrary() {
+        return RasterOps.rotate(mSource, 15);
+    }
+
+    @Benchmark
+    public ArgbRaster roundedCorner() {
+        return RasterOps.roundCorner(mSource, mSource.getWidth() / 20f);
+    }
+
+    @Benchmark
+    public ArgbRaster roundedAvatar() {
+        ArgbRaster avatar = RasterOps.centerCrop(mSource, AVATAR_SIZE, AVATAR_SIZE, true);
+        RasterOps.maskEllipse(avatar);
+        return avatar;
+    }
+
+    @Benchmark
+    public ArgbRaster circle() {
+        return RasterOps.circle(mSource);
+    }
+
+    @Benchmark
+    public ArgbRaster mixBitmap() {
+        final int w = mSource.getWidth();
+        final int h = mSource.getHeight();
+        return RasterOps.mix(mLogo, w / 5, w / 5, mSource, w, h);
+    }
+}
@@ -0,0 +1,72 @@
+package com.ljt.lib_crop_core;
+
+/**
+ * 按行存储的ARGB像素，每个像素一个int，格式与Bitmap.getPixels()一致(非预乘)
+ *
+ * @author lijintao <br/>
+ */
+public final class ArgbRaster {
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final int[] mPixels;
+
+    public ArgbRaster(int width, int height) {
+        this(width, height, new int[checkSize(width, height)]);
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param pixels 像素数组，直接使用不复制，长度不能小于width * height
+     */
+    public ArgbRaster(int width, int height, int[] pixels) {
+        if (pixels == null || pixels.length < checkSize(width, height)) {
+            throw new IllegalArgumentException("pixels too small for " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    private static int checkSize(int width, int height) {
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        return width * height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 像素数组，第y行第x列在y * getWidth() + x
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return mPixels[y * mWidth + x];
+    }
+
+    public void setPixel(int x, int y, int color) {
+        mPixels[y * mWidth + x] = color;
+    }
+
+    /**
+     * @return 像素的副本
+     */
+    public ArgbRaster copy() {
+        int[] pixels = new int[mWidth * mHeight];
+        System.arraycopy(mPixels, 0, pixels, 0, pixels.length);
+        return new ArgbRaster(mWidth, mHeight, pixels);
+    }
+}
@@ -0,0 +1,343 @@
+package com.ljt.lib_crop_core;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 高质量缩小，使用面积平均(BOX)或Lanczos-3卷积核
+ * <p>
+ * 水平和垂直方向分开计算，每个输出行、列的采样范围和权重只计算一次。输出按行分为若干条带，
+ * 每个条带只读取自己需要的原图行，先水平缩小到条带缓冲区再垂直合成，不需要整张图的中间结果；
+ * 条带在ForkJoinPool中并行处理。插值在预乘透明度后进行，透明边缘不会渗出颜色。
+ *
+ * @author lijintao <br/>
+ */
+public class Downscaler {
+
+    /**
+     * 卷积核
+     */
+    public enum Kernel {
+        /**
+         * 面积平均，每个输出像素为其覆盖的原图区域的平均值
+         */
+        BOX,
+        /**
+         * Lanczos-3，比面积平均更锐利，边缘可能有轻微振铃
+         */
+        LANCZOS3
+    }
+
+    /**
+     * 按行读取原图，用于直接从Bitmap等不便复制为int[]的像素源读取
+     */
+    public interface RowReader {
+        /**
+         * 读取第y行从left开始的width个像素，可能被多个线程同时调用
+         *
+         * @param y
+         * @param left
+         * @param width
+         * @param row   长度不小于width
+         */
+        void read(int y, int left, int width, int[] row);
+    }
+
+    // 每个条带的最少行数，条带太小时重叠的原图行占比过高
+    private static final int MIN_STRIP_ROWS = 8;
+
+    // 每个线程分到的条带数，用于平衡各条带耗时的差异
+    private static final int STRIPS_PER_THREAD = 4;
+
+    private final Kernel mKernel;
+
+    private int mParallelism = Runtime.getRuntime().availableProcessors();
+
+    public Downscaler(Kernel kernel) {
+        mKernel = kernel;
+    }
+
+    /**
+     * @param parallelism 最多同时处理的条带数，不大于1时在调用线程上处理，不使用ForkJoinPool；默认为CPU核数
+     * @return
+     */
+    public Downscaler setParallelism(int parallelism) {
+        mParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param src
+     * @param width
+     * @param height
+     * @return 缩放到指定宽高的结果
+     */
+    public ArgbRaster scale(ArgbRaster src, int width, int height) {
+        ArgbRaster dst = new ArgbRaster(width, height);
+        scale(new RasterReader(src), 0, 0, src.getWidth(), src.getHeight(), src.getWidth(), src.getHeight(), dst);
+        return dst;
+    }
+
+    /**
+     * 把原图中的区域缩放到dst，区域可以不是整数像素
+     *
+     * @param reader       原图
+     * @param srcLeft      区域在原图中的位置
+     * @param srcTop
+     * @param srcWidth     区域的宽高
+     * @param srcHeight
+     * @param sourceWidth  原图的宽高，超出原图的采样点被忽略
+     * @param sourceHeight
+     * @param dst          输出，整张覆盖
+     */
+    public void scale(RowReader reader, float srcLeft, float srcTop, float srcWidth, float srcHeight,
+                      int sourceWidth, int sourceHeight, ArgbRaster dst) {
+        final Weights columns = Weights.compute(mKernel, srcLeft, srcWidth, sourceWidth, dst.getWidth());
+        final Weights rows = Weights.compute(mKernel, srcTop, srcHeight, sourceHeight, dst.getHeight());
+        final Job job = new Job(reader, columns, rows, dst);
+        final int height = dst.getHeight();
+        final int strips = mParallelism <= 1 ? 1
+                : Math.max(1, Math.min(height / MIN_STRIP_ROWS, mParallelism * STRIPS_PER_THREAD));
+        if (strips == 1) {
+            job.run(0, height);
+        } else {
+            // 单独的类中引用ForkJoinPool，只在并行时加载
+            Parallel.invoke(job, strips);
+        }
+    }
+
+    /**
+     * 一个方向上每个输出像素的采样范围和权重
+     */
+    private static final class Weights {
+        // 第i个输出像素的第一个采样点
+        final int[] mStart;
+        // 第i个输出像素的采样点数
+        final int[] mCount;
+        // 第i个输出像素的权重从i * mStride开始
+        final float[] mWeights;
+        final int mStride;
+        // 所有输出像素的采样范围的并集
+        final int mMin;
+        final int mMax;
+
+        private Weights(int[] start, int[] count, float[] weights, int stride, int min, int max) {
+            mStart = start;
+            mCount = count;
+            mWeights = weights;
+            mStride = stride;
+            mMin = min;
+            mMax = max;
+        }
+
+        static Weights compute(Kernel kernel, float offset, float length, int limit, int outLength) {
+            final float scale = length / outLength;
+            // 放大时卷积核保持原图上的宽度
+            final float filterScale = Math.max(scale, 1);
+            final float support = kernel == Kernel.LANCZOS3 ? 3 * filterScale : filterScale / 2;
+            final int stride = (int) Math.ceil(support * 2) + 2;
+            final int[] starts = new int[outLength];
+            final int[] counts = new int[outLength];
+            final float[] weights = new float[outLength * stride];
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < outLength; i++) {
+                final float center = offset + (i + 0.5f) * scale;
+                final int first = Math.max(0, (int) Math.floor(center - support));
+                final int last = Math.min(limit - 1, (int) Math.ceil(center + support) - 1);
+                final int base = i * stride;
+                float sum = 0;
+                int count = 0;
+                for (int j = first; j <= last && count < stride; j++, count++) {
+                    float weight;
+                    if (kernel == Kernel.LANCZOS3) {
+                        weight = lanczos3((j + 0.5f - center) / filterScale);
+                    } else {
+                        // 原图像素[j, j + 1)与采样窗口的重叠长度
+                        weight = Math.max(0, Math.min(j + 1, center + support) - Math.max(j, center - support));
+                    }
+                    weights[base + count] = weight;
+                    sum += weight;
+                }
+                if (count == 0 || sum == 0) {
+                    // 区域在原图之外或权重全为0，取最近的像素
+                    starts[i] = Math.max(0, Math.min(limit - 1, (int) center));
+                    counts[i] = 1;
+                    weights[base] = 1;
+                } else {
+                    starts[i] = first;
+                    counts[i] = count;
+                    for (int k = 0; k < count; k++) {
+                        weights[base + k] /= sum;
+                    }
+                }
+                min = Math.min(min, starts[i]);
+                max = Math.max(max, starts[i] + counts[i]);
+            }
+            return new Weights(starts, counts, weights, stride, min, max);
+        }
+
+        private static float lanczos3(float x) {
+            if (x == 0) {
+                return 1;
+            }
+            if (x <= -3 || x >= 3) {
+                return 0;
+            }
+            final double px = Math.PI * x;
+            return (float) (3 * Math.sin(px) * Math.sin(px / 3) / (px * px));
+        }
+    }
+
+    /**
+     * 一次缩放，按输出行的范围处理
+     */
+    private static final class Job {
+        private final RowReader mReader;
+        private final Weights mColumns;
+        private final Weights mRows;
+        private final ArgbRaster mDst;
+
+        Job(RowReader reader, Weights columns, Weights rows, ArgbRaster dst) {
+            mReader = reader;
+            mColumns = columns;
+            mRows = rows;
+            mDst = dst;
+        }
+
+        /**
+         * 处理输出的[from, to)行
+         */
+        void run(int from, int to) {
+            final Weights rows = mRows;
+            final Weights columns = mColumns;
+            int first = Integer.MAX_VALUE;
+            int last = Integer.MIN_VALUE;
+            for (int y = from; y < to; y++) {
+                first = Math.min(first, rows.mStart[y]);
+                last = Math.max(last, rows.mStart[y] + rows.mCount[y]);
+            }
+            final int width = mDst.getWidth();
+            final int left = columns.mMin;
+            final int[] row = new int[columns.mMax - left];
+            // 水平缩小后的条带，每个像素4个分量：A和预乘的R、G、B
+            final float[] strip = new float[(last - first) * width * 4];
+            for (int y = first; y < last; y++) {
+                mReader.read(y, left, row.length, row);
+                int out = (y - first) * width * 4;
+                for (int x = 0; x < width; x++, out += 4) {
+                    final int start = columns.mStart[x] - left;
+                    final int count = columns.mCount[x];
+                    final int base = x * columns.mStride;
+                    float a = 0;
+                    float r = 0;
+                    float g = 0;
+                    float b = 0;
+                    for (int k = 0; k < count; k++) {
+                        final int color = row[start + k];
+                        final float wa = columns.mWeights[base + k] * (color >>> 24);
+                        a += wa;
+                        r += wa * ((color >> 16) & 0xff);
+                        g += wa * ((color >> 8) & 0xff);
+                        b += wa * (color & 0xff);
+                    }
+                    strip[out] = a;
+                    strip[out + 1] = r;
+                    strip[out + 2] = g;
+                    strip[out + 3] = b;
+                }
+            }
+            final int[] pixels = mDst.getPixels();
+            for (int y = from; y < to; y++) {
+                final int start = rows.mStart[y] - first;
+                final int count = rows.mCount[y];
+                final int base = y * rows.mStride;
+                int index = y * width;
+                for (int x = 0; x < width; x++, index++) {
+                    float a = 0;
+                    float r = 0;
+                    float g = 0;
+                    float b = 0;
+                    int in = (start * width + x) * 4;
+                    for (int k = 0; k < count; k++, in += width * 4) {
+                        final float weight = rows.mWeights[base + k];
+                        a += weight * strip[in];
+                        r += weight * strip[in + 1];
+                        g += weight * strip[in + 2];
+                        b += weight * strip[in + 3];
+                    }
+                    pixels[index] = pack(a, r, g, b);
+                }
+            }
+        }
+
+        private static int pack(float a, float r, float g, float b) {
+            if (a <= 0.5f) {
+                return 0;
+            }
+            // Lanczos的负权重可能使结果超出范围
+            final int alpha = Math.min(255, Math.round(a));
+            final float inverse = 1 / a;
+            return (alpha << 24) | (clamp(r * inverse) << 16) | (clamp(g * inverse) << 8) | clamp(b * inverse);
+        }
+
+        private static int clamp(float value) {
+            final int v = Math.round(value);
+            return v < 0 ? 0 : (v > 255 ? 255 : v);
+        }
+    }
+
+    private static final class RasterReader implements RowReader {
+        private final ArgbRaster mRaster;
+
+        RasterReader(ArgbRaster raster) {
+            mRaster = raster;
+        }
+
+        @Override
+        public void read(int y, int left, int width, int[] row) {
+            System.arraycopy(mRaster.getPixels(), y * mRaster.getWidth() + left, row, 0, width);
+        }
+    }
+
+    /**
+     * 条带的并行处理，所有Downscaler共用一个按CPU核数创建的ForkJoinPool
+     */
+    private static final class Parallel {
+        private static final ForkJoinPool sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        static void invoke(Job job, int strips) {
+            sPool.invoke(new StripTask(job, strips, 0, strips));
+        }
+    }
+
+    /**
+     * 处理第[from, to)个条带，多于一个时一分为二
+     */
+    private static final class StripTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job mJob;
+        private final int mStrips;
+        private final int mFrom;
+        private final int mTo;
+
+        StripTask(Job job, int strips, int from, int to) {
+            mJob = job;
+            mStrips = strips;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom == 1) {
+                final int height = mJob.mDst.getHeight();
+                mJob.run((int) ((long) height * mFrom / mStrips), (int) ((long) height * mTo / mStrips));
+                return;
+            }
+            final int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new StripTask(mJob, mStrips, mFrom, middle), new StripTask(mJob, mStrips, middle, mTo));
+        }
+    }
+}
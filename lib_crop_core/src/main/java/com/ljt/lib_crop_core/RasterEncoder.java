@@ -0,0 +1,306 @@
+package com.ljt.lib_crop_core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 按字节数上限压缩像素，与BitmapEncoder(ImageUtil.compressToMaxBytes(bitmap, maxBytes)使用)的查找过程相同
+ * <p>
+ * 先在缩小的探测图上二分查找质量，按像素数估算原图的大小，再在估算值附近对原图做少量编码；
+ * 最低质量仍超过上限时降低分辨率重试。编码器由调用方提供，例如在JVM上使用ImageIO。
+ * 非线程安全。
+ * <p>
+ * 只用于基准测试和单元测试，BitmapEncoder不委托给这里：Bitmap需要整张复制为int[]才能编码。
+ * 两者的查找过程需要同步修改。
+ *
+ * @author lijintao <br/>
+ */
+public class RasterEncoder {
+
+    /**
+     * 按质量编码像素
+     */
+    public interface Codec {
+        /**
+         * @param raster
+         * @param quality 0~100
+         * @param out
+         * @throws IOException
+         */
+        void encode(ArgbRaster raster, int quality, OutputStream out) throws IOException;
+    }
+
+    // 探测图的最大像素数
+    private static final int PROBE_PIXELS = 256 * 256;
+
+    // 在原图上查找质量时，以估算值为中心的查找范围
+    private static final int SEARCH_WINDOW = 8;
+
+    // 降低分辨率时在估算比例上再留出的余量
+    private static final float SCALE_MARGIN = 0.9f;
+
+    // 分辨率下限，小于该边长时不再缩小
+    private static final int MIN_DIMENSION = 16;
+
+    private final Codec mCodec;
+
+    private int mMinQuality = 10;
+
+    private int mMaxQuality = 100;
+
+    private boolean mAllowDownscale = true;
+
+    // 当前结果和尝试中的编码，交换使用
+    private ExposedByteArrayOutputStream mResult = new ExposedByteArrayOutputStream();
+    private ExposedByteArrayOutputStream mScratch = new ExposedByteArrayOutputStream();
+
+    private int mQuality = -1;
+
+    // mScratch中编码使用的质量，为空时为-1
+    private int mScratchQuality = -1;
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private int mEncodeCount;
+
+    public RasterEncoder(Codec codec) {
+        mCodec = codec;
+    }
+
+    /**
+     * @param minQuality 允许的最低质量
+     * @param maxQuality 允许的最高质量
+     * @return
+     */
+    public RasterEncoder setQualityRange(int minQuality, int maxQuality) {
+        mMinQuality = Math.max(0, Math.min(minQuality, 100));
+        mMaxQuality = Math.max(mMinQuality, Math.min(maxQuality, 100));
+        return this;
+    }
+
+    /**
+     * @param allowDownscale 最低质量仍超过上限时是否降低分辨率，默认允许
+     * @return
+     */
+    public RasterEncoder setAllowDownscale(boolean allowDownscale) {
+        mAllowDownscale = allowDownscale;
+        return this;
+    }
+
+    /**
+     * 以不超过maxBytes的最高质量压缩
+     *
+     * @param raster
+     * @param maxBytes 字节数上限，不大于0时按最高质量压缩
+     * @return 是否满足了上限；不满足时结果为能得到的最小编码
+     * @throws IOException 编码失败
+     */
+    public boolean encode(ArgbRaster raster, int maxBytes) throws IOException {
+        mResult.reset();
+        mQuality = -1;
+        mEncodeCount = 0;
+        mWidth = raster.getWidth();
+        mHeight = raster.getHeight();
+        if (maxBytes <= 0) {
+            compress(raster, mMaxQuality, mScratch);
+            acceptScratch(mMaxQuality);
+            return true;
+        }
+        if (encodeWithQuality(raster, maxBytes)) {
+            return true;
+        }
+        if (!mAllowDownscale) {
+            return false;
+        }
+        while (true) {
+            // 体积与像素数大致成正比，按最低质量的结果估算需要的比例
+            float scale = (float) Math.sqrt((double) maxBytes / mResult.size()) * SCALE_MARGIN;
+            int width = Math.round(mWidth * scale);
+            int height = Math.round(mHeight * scale);
+            if (Math.min(width, height) < MIN_DIMENSION) {
+                return false;
+            }
+            ArgbRaster scaled = RasterOps.scale(raster, width, height, true);
+            mWidth = width;
+            mHeight = height;
+            if (encodeWithQuality(scaled, maxBytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 在质量范围内查找不超过上限的最高质量，结果写入mResult
+     *
+     * @return 最低质量也超过上限时返回false，此时mResult为最低质量的编码
+     */
+    private boolean encodeWithQuality(ArgbRaster raster, int maxBytes) throws IOException {
+        mQuality = -1;
+        if (mMinQuality == mMaxQuality) {
+            compress(raster, mMaxQuality, mScratch);
+            acceptScratch(mMaxQuality);
+            return mResult.size() <= maxBytes;
+        }
+
+        // 先按估算值编码，再根据结果只在估算值一侧的小范围内查找
+        int estimate = estimateQuality(raster, maxBytes);
+        int low;
+        int high;
+        compress(raster, estimate, mScratch);
+        final boolean fits = mScratch.size() <= maxBytes;
+        if (fits) {
+            acceptScratch(estimate);
+            low = estimate + 1;
+            high = Math.min(mMaxQuality, estimate + SEARCH_WINDOW);
+        } else {
+            low = Math.max(mMinQuality, estimate - SEARCH_WINDOW);
+            high = estimate - 1;
+        }
+        searchQuality(raster, maxBytes, low, high);
+        if (fits && mQuality == high && high < mMaxQuality) {
+            // 估算偏低(如原图不大于探测图时取中间值)，窗口的上端仍满足上限，继续向上查找
+            searchQuality(raster, maxBytes, high + 1, mMaxQuality);
+        } else if (mQuality < 0 && low > mMinQuality) {
+            // 估算偏高，窗口内没有满足上限的质量
+            searchQuality(raster, maxBytes, mMinQuality, low - 1);
+        }
+        if (mQuality >= 0) {
+            return true;
+        }
+        // 最低质量也不满足，保留最低质量的结果，用于估算需要缩小的比例
+        if (mScratchQuality != mMinQuality) {
+            compress(raster, mMinQuality, mScratch);
+        }
+        acceptScratch(mMinQuality);
+        return false;
+    }
+
+    /**
+     * 在[low, high]中二分查找满足上限的最高质量，找到时写入mResult
+     */
+    private void searchQuality(ArgbRaster raster, int maxBytes, int low, int high) throws IOException {
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            compress(raster, quality, mScratch);
+            if (mScratch.size() <= maxBytes) {
+                acceptScratch(quality);
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+    }
+
+    /**
+     * 在缩小的探测图上二分查找质量，按像素数把探测图的体积换算为原图的体积
+     *
+     * @return 估算的质量，原图不大于探测图时返回质量范围的中间值
+     */
+    private int estimateQuality(ArgbRaster raster, int maxBytes) throws IOException {
+        final long pixels = (long) raster.getWidth() * raster.getHeight();
+        if (pixels <= PROBE_PIXELS) {
+            return (mMinQuality + mMaxQuality) >>> 1;
+        }
+        float scale = (float) Math.sqrt((double) PROBE_PIXELS / pixels);
+        ArgbRaster probe = RasterOps.scale(raster, Math.max(1, Math.round(raster.getWidth() * scale)),
+                Math.max(1, Math.round(raster.getHeight() * scale)), true);
+        final double ratio = (double) pixels / ((long) probe.getWidth() * probe.getHeight());
+        int low = mMinQuality;
+        int high = mMaxQuality;
+        int best = mMinQuality;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            compress(probe, quality, mScratch);
+            if (mScratch.size() * ratio <= maxBytes) {
+                best = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        mScratch.reset();
+        mScratchQuality = -1;
+        return best;
+    }
+
+    private void compress(ArgbRaster raster, int quality, ExposedByteArrayOutputStream out) throws IOException {
+        out.reset();
+        mCodec.encode(raster, quality, out);
+        if (out == mScratch) {
+            mScratchQuality = quality;
+        }
+        mEncodeCount++;
+    }
+
+    /**
+     * 将mScratch中的编码作为结果，原来的结果缓冲区用于下一次尝试
+     */
+    private void acceptScratch(int quality) {
+        ExposedByteArrayOutputStream result = mResult;
+        mResult = mScratch;
+        mScratch = result;
+        mScratch.reset();
+        mScratchQuality = -1;
+        mQuality = quality;
+    }
+
+    /**
+     * @return 编码结果所在的缓冲区，有效长度为getSize()；下一次编码时会被覆盖
+     */
+    public byte[] getBuffer() {
+        return mResult.getBuffer();
+    }
+
+    public int getSize() {
+        return mResult.size();
+    }
+
+    /**
+     * @return 编码结果的副本
+     */
+    public byte[] toByteArray() {
+        return mResult.toByteArray();
+    }
+
+    /**
+     * @return 编码结果使用的质量
+     */
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * @return 编码结果的宽度，降低分辨率后小于原图
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 上一次encode调用中的编码次数，包括探测图
+     */
+    public int getEncodeCount() {
+        return mEncodeCount;
+    }
+
+    /**
+     * 可以直接访问内部数组的ByteArrayOutputStream，reset后保留已分配的容量
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        ExposedByteArrayOutputStream() {
+            super(64 * 1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.ljt.lib_crop_core;
+
+/**
+ * ARGB像素上的基本运算，与ImageUtil中对Bitmap的剪裁、缩放、旋转、遮罩和混合对应
+ * <p>
+ * 只依赖int[]，可以在普通JVM上做基准测试。缩放的过滤方式与Bitmap绘制时的FILTER_BITMAP_FLAG相同，为双线性插值；
+ * 插值在非预乘的像素上进行。所有方法都不修改输入，mask开头的方法除外。
+ * <p>
+ * 只用于基准测试和单元测试，应用中的剪裁、缩放等仍由ImageUtil在Bitmap上完成；修改ImageUtil的算法时需要同步修改这里。
+ *
+ * @author lijintao <br/>
+ */
+public final class RasterOps {
+
+    private RasterOps() {
+    }
+
+    /**
+     * 剪裁，超出原图的部分被忽略
+     *
+     * @param src
+     * @param left
+     * @param top
+     * @param width
+     * @param height
+     * @return 剪裁区域为空时返回null
+     */
+    public static ArgbRaster crop(ArgbRaster src, int left, int top, int width, int height) {
+        final int right = Math.min(src.getWidth(), left + width);
+        final int bottom = Math.min(src.getHeight(), top + height);
+        left = Math.max(0, left);
+        top = Math.max(0, top);
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+        final int outWidth = right - left;
+        final int outHeight = bottom - top;
+        final int[] srcPixels = src.getPixels();
+        final int[] pixels = new int[outWidth * outHeight];
+        for (int y = 0; y < outHeight; y++) {
+            System.arraycopy(srcPixels, (top + y) * src.getWidth() + left, pixels, y * outWidth, outWidth);
+        }
+        return new ArgbRaster(outWidth, outHeight, pixels);
+    }
+
+    /**
+     * 居中剪裁为正方形
+     *
+     * @param src
+     * @return 已经是正方形时返回原图
+     */
+    public static ArgbRaster centerCrop(ArgbRaster src) {
+        final int w = src.getWidth();
+        final int h = src.getHeight();
+        if (w == h) {
+            return src;
+        }
+        return w > h ? crop(src, (w - h) / 2, 0, h, h) : crop(src, 0, (h - w) / 2, w, w);
+    }
+
+    /**
+     * 保持宽高比缩放至铺满指定宽高，居中裁掉多余部分，缩放和剪裁一次完成
+     *
+     * @param src
+     * @param width
+     * @param height
+     * @param filter 是否双线性插值
+     * @return
+     */
+    public static ArgbRaster centerCrop(ArgbRaster src, int width, int height, boolean filter) {
+        final float scale = Math.max((float) width / src.getWidth(), (float) height / src.getHeight());
+        final float srcWidth = width / scale;
+        final float srcHeight = height / scale;
+        ArgbRaster dst = new ArgbRaster(width, height);
+        sample(src, (src.getWidth() - srcWidth) / 2, (src.getHeight() - srcHeight) / 2, srcWidth, srcHeight,
+                dst, 0, 0, width, height, filter, false);
+        return dst;
+    }
+
+    /**
+     * 拉伸到指定宽高
+     *
+     * @param src
+     * @param width
+     * @param height
+     * @param filter 是否双线性插值，false时与createScaledBitmap(..., false)相同，为最近邻
+     * @return
+     */
+    public static ArgbRaster scale(ArgbRaster src, int width, int height, boolean filter) {
+        ArgbRaster dst = new ArgbRaster(width, height);
+        sample(src, 0, 0, src.getWidth(), src.getHeight(), dst, 0, 0, width, height, filter, false);
+        return dst;
+    }
+
+    /**
+     * 顺时针旋转
+     *
+     * @param src
+     * @param degrees 90的倍数时只移动像素，否则双线性插值，输出为旋转后的外接矩形，四角透明
+     * @return
+     */
+    public static ArgbRaster rotate(ArgbRaster src, float degrees) {
+        float normalized = degrees % 360;
+        if (normalized < 0) {
+            normalized += 360;
+        }
+        if (normalized == 0) {
+            return src.copy();
+        }
+        if (normalized == 90 || normalized == 180 || normalized == 270) {
+            return rotateRightAngle(src, (int) normalized);
+        }
+        return rotateFiltered(src, normalized);
+    }
+
+    private static ArgbRaster rotateRightAngle(ArgbRaster src, int degrees) {
+        final int sw = src.getWidth();
+        final int sh = src.getHeight();
+        final int[] s = src.getPixels();
+        if (degrees == 180) {
+            final int[] d = new int[sw * sh];
+            for (int i = 0, j = d.length - 1; j >= 0; i++, j--) {
+                d[j] = s[i];
+            }
+            return new ArgbRaster(sw, sh, d);
+        }
+        // 按原图的行顺序读取，写入目标的列
+        final int[] d = new int[sw * sh];
+        for (int y = 0; y < sh; y++) {
+            final int row = y * sw;
+            if (degrees == 90) {
+                // 原图(x, y) -> 目标(sh - 1 - y, x)
+                final int column = sh - 1 - y;
+                for (int x = 0; x < sw; x++) {
+                    d[x * sh + column] = s[row + x];
+                }
+            } else {
+                // 原图(x, y) -> 目标(y, sw - 1 - x)
+                for (int x = 0; x < sw; x++) {
+                    d[(sw - 1 - x) * sh + y] = s[row + x];
+                }
+            }
+        }
+        return new ArgbRaster(sh, sw, d);
+    }
+
+    private static ArgbRaster rotateFiltered(ArgbRaster src, float degrees) {
+        final int sw = src.getWidth();
+        final int sh = src.getHeight();
+        final double radians = Math.toRadians(degrees);
+        final float cos = (float) Math.cos(radians);
+        final float sin = (float) Math.sin(radians);
+        final int width = Math.max(1, (int) Math.ceil(Math.abs(sw * cos) + Math.abs(sh * sin) - 0.001f));
+        final int height = Math.max(1, (int) Math.ceil(Math.abs(sw * sin) + Math.abs(sh * cos) - 0.001f));
+        final int[] s = src.getPixels();
+        final int[] d = new int[width * height];
+        final float halfWidth = width / 2f;
+        final float halfHeight = height / 2f;
+        final float srcCenterX = sw / 2f - 0.5f;
+        final float srcCenterY = sh / 2f - 0.5f;
+        for (int y = 0; y < height; y++) {
+            final float dy = y + 0.5f - halfHeight;
+            // 目标像素中心逆时针旋转回原图
+            float sx = (0.5f - halfWidth) * cos + dy * sin + srcCenterX;
+            float sy = -(0.5f - halfWidth) * sin + dy * cos + srcCenterY;
+            int index = y * width;
+            for (int x = 0; x < width; x++, index++, sx += cos, sy -= sin) {
+                if (sx <= -1 || sy <= -1 || sx >= sw || sy >= sh) {
+                    continue;
+                }
+                final int x0 = (int) Math.floor(sx);
+                final int y0 = (int) Math.floor(sy);
+                final int wx = (int) ((sx - x0) * 256);
+                final int wy = (int) ((sy - y0) * 256);
+                final int top = lerp(pixelOrClear(s, sw, sh, x0, y0), pixelOrClear(s, sw, sh, x0 + 1, y0), wx);
+                final int bottom = lerp(pixelOrClear(s, sw, sh, x0, y0 + 1),
+                        pixelOrClear(s, sw, sh, x0 + 1, y0 + 1), wx);
+                d[index] = lerp(top, bottom, wy);
+            }
+        }
+        return new ArgbRaster(width, height, d);
+    }
+
+    private static int pixelOrClear(int[] pixels, int width, int height, int x, int y) {
+        return x < 0 || y < 0 || x >= width || y >= height ? 0 : pixels[y * width + x];
+    }
+
+    /**
+     * @param src
+     * @param radius 圆角半径
+     * @return 圆角以外透明的副本
+     */
+    public static ArgbRaster roundCorner(ArgbRaster src, float radius) {
+        ArgbRaster dst = src.copy();
+        maskRoundRect(dst, radius);
+        return dst;
+    }
+
+    /**
+     * @param src
+     * @return 居中剪裁为正方形后，内切圆以外透明的副本
+     */
+    public static ArgbRaster circle(ArgbRaster src) {
+        ArgbRaster square = centerCrop(src);
+        ArgbRaster dst = square == src ? src.copy() : square;
+        maskEllipse(dst);
+        return dst;
+    }
+
+    /**
+     * 原地把圆角以外的像素变为透明，边缘抗锯齿；只访问四个角的像素
+     *
+     * @param raster
+     * @param radius 圆角半径，超过短边的一半时按短边的一半计算
+     */
+    public static void maskRoundRect(ArgbRaster raster, float radius) {
+        final int w = raster.getWidth();
+        final int h = raster.getHeight();
+        final float r = Math.min(radius, Math.min(w, h) / 2f);
+        if (r <= 0) {
+            return;
+        }
+        final int span = (int) Math.ceil(r);
+        final int[] pixels = raster.getPixels();
+        // 右侧和下方的起点不与左侧和上方重叠，避免同一像素遮罩两次
+        final int rightStart = Math.max(span, w - span);
+        final int bottomStart = Math.max(span, h - span);
+        for (int y = 0; y < h; y++) {
+            float dy;
+            if (y < span) {
+                dy = Math.max(0, r - (y + 0.5f));
+            } else if (y >= bottomStart) {
+                dy = Math.max(0, y + 0.5f - (h - r));
+            } else {
+                continue;
+            }
+            final int row = y * w;
+            for (int x = 0; x < span; x++) {
+                applyCoverage(pixels, row + x, cornerCoverage(Math.max(0, r - (x + 0.5f)), dy, r));
+            }
+            for (int x = rightStart; x < w; x++) {
+                applyCoverage(pixels, row + x, cornerCoverage(Math.max(0, x + 0.5f - (w - r)), dy, r));
+            }
+        }
+    }
+
+    private static float cornerCoverage(float dx, float dy, float r) {
+        if (dx == 0 && dy == 0) {
+            return 1;
+        }
+        return r - (float) Math.sqrt(dx * dx + dy * dy) + 0.5f;
+    }
+
+    /**
+     * 原地把内切椭圆(宽高相等时为圆形)以外的像素变为透明，边缘抗锯齿
+     *
+     * @param raster
+     */
+    public static void maskEllipse(ArgbRaster raster) {
+        final int w = raster.getWidth();
+        final int h = raster.getHeight();
+        final float rx = w / 2f;
+        final float ry = h / 2f;
+        final float minRadius = Math.min(rx, ry);
+        // 归一化距离小于inner的像素完全在内部，大于outer的完全在外部
+        final float inner = Math.max(0, 1 - 0.5f / minRadius);
+        final float outer = 1 + 0.5f / minRadius;
+        final int[] pixels = raster.getPixels();
+        for (int y = 0; y < h; y++) {
+            final float ny = (y + 0.5f - ry) / ry;
+            final float ny2 = ny * ny;
+            // 本行完全在内部的半宽和完全在外部的半宽
+            final float innerHalf = inner * inner > ny2 ? rx * (float) Math.sqrt(inner * inner - ny2) : -1;
+            final float outerHalf = outer * outer > ny2 ? rx * (float) Math.sqrt(outer * outer - ny2) : 0;
+            final int row = y * w;
+            for (int x = 0; x < w; x++) {
+                final float dx = Math.abs(x + 0.5f - rx);
+                if (dx <= innerHalf) {
+                    continue;
+                }
+                if (dx >= outerHalf) {
+                    pixels[row + x] &= 0x00ffffff;
+                    continue;
+                }
+                final float nx = dx / rx;
+                final float distance = (float) Math.sqrt(nx * nx + ny2);
+                applyCoverage(pixels, row + x, (1 - distance) * minRadius + 0.5f);
+            }
+        }
+    }
+
+    private static void applyCoverage(int[] pixels, int index, float coverage) {
+        if (coverage >= 1) {
+            return;
+        }
+        final int color = pixels[index];
+        if (coverage <= 0) {
+            pixels[index] = color & 0x00ffffff;
+            return;
+        }
+        final int alpha = Math.round((color >>> 24) * coverage);
+        pixels[index] = (alpha << 24) | (color & 0x00ffffff);
+    }
+
+    /**
+     * 与ImageUtil.mixBitmap相同：底图缩放到bottomWidth x bottomHeight，顶图缩放后居中绘制在上面，
+     * 两张图都在绘制时缩放，不产生缩放后的副本
+     *
+     * @param top
+     * @param topWidth
+     * @param topHeight
+     * @param bottom
+     * @param bottomWidth
+     * @param bottomHeight
+     * @return
+     */
+    public static ArgbRaster mix(ArgbRaster top, int topWidth, int topHeight, ArgbRaster bottom, int bottomWidth,
+                                 int bottomHeight) {
+        ArgbRaster dst = new ArgbRaster(bottomWidth, bottomHeight);
+        sample(bottom, 0, 0, bottom.getWidth(), bottom.getHeight(), dst, 0, 0, bottomWidth, bottomHeight,
+                true, false);
+        drawScaled(dst, top, (bottomWidth - topWidth) / 2, (bottomHeight - topHeight) / 2, topWidth, topHeight,
+                true);
+        return dst;
+    }
+
+    /**
+     * 把src缩放后按SRC_OVER绘制到dst上，超出dst的部分被忽略
+     *
+     * @param dst
+     * @param src
+     * @param left   在dst上的位置
+     * @param top
+     * @param width  绘制的宽度
+     * @param height 绘制的高度
+     * @param filter 是否双线性插值
+     */
+    public static void drawScaled(ArgbRaster dst, ArgbRaster src, int left, int top, int width, int height,
+                                  boolean filter) {
+        sample(src, 0, 0, src.getWidth(), src.getHeight(), dst, left, top, width, height, filter, true);
+    }
+
+    /**
+     * 把src中的区域缩放到dst中的区域，超出原图的采样点取边缘像素
+     *
+     * @param blend true时按SRC_OVER混合，false时直接覆盖
+     */
+    private static void sample(ArgbRaster src, float srcLeft, float srcTop, float srcWidth, float srcHeight,
+                               ArgbRaster dst, int dstLeft, int dstTop, int dstWidth, int dstHeight,
+                               boolean filter, boolean blend) {
+        final int startX = Math.max(0, dstLeft);
+        final int endX = Math.min(dst.getWidth(), dstLeft + dstWidth);
+        final int startY = Math.max(0, dstTop);
+        final int endY = Math.min(dst.getHeight(), dstTop + dstHeight);
+        if (endX <= startX || endY <= startY) {
+            return;
+        }
+        final int sw = src.getWidth();
+        final int sh = src.getHeight();
+        final float scaleX = srcWidth / dstWidth;
+        final float scaleY = srcHeight / dstHeight;
+        final int columns = endX - startX;
+        // 每一列对应的原图列和权重只计算一次
+        final int[] x0 = new int[columns];
+        final int[] x1 = filter ? new int[columns] : null;
+        final int[] wx = filter ? new int[columns] : null;
+        for (int i = 0; i < columns; i++) {
+            final float sx = srcLeft + (startX + i - dstLeft + 0.5f) * scaleX;
+            if (filter) {
+                final float fx = sx - 0.5f;
+                final int ix = (int) Math.floor(fx);
+                x0[i] = clamp(ix, sw);
+                x1[i] = clamp(ix + 1, sw);
+                wx[i] = (int) ((fx - ix) * 256);
+            } else {
+                x0[i] = clamp((int) Math.floor(sx), sw);
+            }
+        }
+        final int[] s = src.getPixels();
+        final int[] d = dst.getPixels();
+        final int dw = dst.getWidth();
+        for (int y = startY; y < endY; y++) {
+            final float sy = srcTop + (y - dstTop + 0.5f) * scaleY;
+            int index = y * dw + startX;
+            if (filter) {
+                final float fy = sy - 0.5f;
+                final int iy = (int) Math.floor(fy);
+                final int row0 = clamp(iy, sh) * sw;
+                final int row1 = clamp(iy + 1, sh) * sw;
+                final int wy = (int) ((fy - iy) * 256);
+                for (int i = 0; i < columns; i++, index++) {
+                    final int upper = lerp(s[row0 + x0[i]], s[row0 + x1[i]], wx[i]);
+                    final int lower = lerp(s[row1 + x0[i]], s[row1 + x1[i]], wx[i]);
+                    final int color = lerp(upper, lower, wy);
+                    d[index] = blend ? srcOver(d[index], color) : color;
+                }
+            } else {
+                final int row = clamp((int) Math.floor(sy), sh) * sw;
+                for (int i = 0; i < columns; i++, index++) {
+                    final int color = s[row + x0[i]];
+                    d[index] = blend ? srcOver(d[index], color) : color;
+                }
+            }
+        }
+    }
+
+    private static int clamp(int value, int size) {
+        return value < 0 ? 0 : (value >= size ? size - 1 : value);
+    }
+
+    /**
+     * 四个通道同时线性插值，A、G和R、B各占一个int的两个16位
+     *
+     * @param weight c1的权重，0~256
+     */
+    static int lerp(int c0, int c1, int weight) {
+        final int inverse = 256 - weight;
+        final int rb = (((c0 & 0x00ff00ff) * inverse + (c1 & 0x00ff00ff) * weight) >>> 8) & 0x00ff00ff;
+        final int ag = (((c0 >>> 8) & 0x00ff00ff) * inverse + ((c1 >>> 8) & 0x00ff00ff) * weight) & 0xff00ff00;
+        return ag | rb;
+    }
+
+    /**
+     * 非预乘像素的SRC_OVER
+     */
+    static int srcOver(int dst, int src) {
+        final int sa = src >>> 24;
+        if (sa == 255) {
+            return src;
+        }
+        if (sa == 0) {
+            return dst;
+        }
+        final int da = ((dst >>> 24) * (255 - sa) + 127) / 255;
+        final int oa = sa + da;
+        final int half = oa >> 1;
+        final int r = (((src >> 16) & 0xff) * sa + ((dst >> 16) & 0xff) * da + half) / oa;
+        final int g = (((src >> 8) & 0xff) * sa + ((dst >> 8) & 0xff) * da + half) / oa;
+        final int b = ((src & 0xff) * sa + (dst & 0xff) * da + half) / oa;
+        return (oa << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,107 @@
+package com.ljt.lib_crop_core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Downscaler的本地单元测试
+ */
+public class DownscalerTest {
+
+    @Test
+    public void boxAveragesBlocks() {
+        // 每个2x2块为同一灰度，缩小一半后每个像素等于对应块的值
+        int[] levels = {0, 64, 128, 255};
+        ArgbRaster src = new ArgbRaster(4, 4);
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                src.setPixel(x, y, gray(levels[(y / 2) * 2 + x / 2]));
+            }
+        }
+        ArgbRaster dst = new Downscaler(Downscaler.Kernel.BOX).scale(src, 2, 2);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(gray(levels[i]), dst.getPixels()[i]);
+        }
+    }
+
+    @Test
+    public void boxAveragesNeighbours() {
+        ArgbRaster src = new ArgbRaster(2, 1, new int[]{gray(100), gray(200)});
+        ArgbRaster dst = new Downscaler(Downscaler.Kernel.BOX).scale(src, 1, 1);
+        assertEquals(gray(150), dst.getPixel(0, 0));
+    }
+
+    @Test
+    public void solidColorUnchanged() {
+        for (Downscaler.Kernel kernel : Downscaler.Kernel.values()) {
+            ArgbRaster src = new ArgbRaster(37, 23);
+            Arrays.fill(src.getPixels(), 0xff336699);
+            ArgbRaster dst = new Downscaler(kernel).scale(src, 11, 7);
+            for (int pixel : dst.getPixels()) {
+                assertEquals(kernel.name(), 0xff336699, pixel);
+            }
+        }
+    }
+
+    @Test
+    public void transparentEdgeDoesNotBleed() {
+        // 透明像素的颜色不参与混合：透明的红色和不透明的蓝色合成半透明的蓝色
+        ArgbRaster src = new ArgbRaster(2, 1, new int[]{0x00ff0000, 0xff0000ff});
+        int pixel = new Downscaler(Downscaler.Kernel.BOX).scale(src, 1, 1).getPixel(0, 0);
+        assertEquals(128, pixel >>> 24, 1);
+        assertEquals(0, (pixel >> 16) & 0xff);
+        assertEquals(255, pixel & 0xff);
+    }
+
+    @Test
+    public void fullyTransparentStaysClear() {
+        ArgbRaster src = new ArgbRaster(8, 8);
+        Arrays.fill(src.getPixels(), 0x00abcdef);
+        ArgbRaster dst = new Downscaler(Downscaler.Kernel.LANCZOS3).scale(src, 3, 3);
+        for (int pixel : dst.getPixels()) {
+            assertEquals(0, pixel);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        ArgbRaster src = new ArgbRaster(300, 200);
+        int[] pixels = src.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            // 确定性的伪随机像素
+            pixels[i] = 0xff000000 | (int) ((i * 2654435761L) >>> 8 & 0xffffff);
+        }
+        for (Downscaler.Kernel kernel : Downscaler.Kernel.values()) {
+            ArgbRaster serial = new Downscaler(kernel).setParallelism(1).scale(src, 97, 61);
+            ArgbRaster parallel = new Downscaler(kernel).setParallelism(4).scale(src, 97, 61);
+            assertArrayEquals(kernel.name(), serial.getPixels(), parallel.getPixels());
+        }
+    }
+
+    @Test
+    public void regionFromRowReader() {
+        // 只缩放原图右半部分，读取的列不超出原图
+        final ArgbRaster src = new ArgbRaster(4, 2);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 4; x++) {
+                src.setPixel(x, y, x < 2 ? 0xffff0000 : 0xff0000ff);
+            }
+        }
+        ArgbRaster dst = new ArgbRaster(1, 1);
+        new Downscaler(Downscaler.Kernel.BOX).scale(new Downscaler.RowReader() {
+            @Override
+            public void read(int y, int left, int width, int[] row) {
+                System.arraycopy(src.getPixels(), y * src.getWidth() + left, row, 0, width);
+            }
+        }, 2, 0, 2, 2, src.getWidth(), src.getHeight(), dst);
+        assertEquals(0xff0000ff, dst.getPixel(0, 0));
+    }
+
+    private static int gray(int level) {
+        return 0xff000000 | (level << 16) | (level << 8) | level;
+    }
+}
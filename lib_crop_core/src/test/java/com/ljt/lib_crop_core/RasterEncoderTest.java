@@ -0,0 +1,116 @@
+package com.ljt.lib_crop_core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RasterEncoder的本地单元测试，编码器的输出大小与像素数和质量成正比，可以算出期望的结果
+ */
+public class RasterEncoderTest {
+
+    /**
+     * 输出pixels * quality / 100 + HEADER字节
+     */
+    private static final class LinearCodec implements RasterEncoder.Codec {
+        static final int HEADER = 10;
+
+        int mCount;
+
+        static int size(int pixels, int quality) {
+            return pixels * quality / 100 + HEADER;
+        }
+
+        @Override
+        public void encode(ArgbRaster raster, int quality, OutputStream out) throws IOException {
+            mCount++;
+            out.write(new byte[size(raster.getWidth() * raster.getHeight(), quality)]);
+        }
+    }
+
+    @Test
+    public void highestQualityWithinLimit() throws IOException {
+        LinearCodec codec = new LinearCodec();
+        RasterEncoder encoder = new RasterEncoder(codec);
+        assertTrue(encoder.encode(new ArgbRaster(100, 100), LinearCodec.size(10000, 57)));
+        assertEquals(57, encoder.getQuality());
+        assertEquals(LinearCodec.size(10000, 57), encoder.getSize());
+        assertEquals(100, encoder.getWidth());
+        assertEquals(100, encoder.getHeight());
+        assertEquals(codec.mCount, encoder.getEncodeCount());
+    }
+
+    @Test
+    public void probeEstimateNarrowsSearch() throws IOException {
+        LinearCodec codec = new LinearCodec();
+        RasterEncoder encoder = new RasterEncoder(codec);
+        // 大于探测图，先在探测图上查找，原图只编码估算值附近的几次
+        final int pixels = 1024 * 1024;
+        assertTrue(encoder.encode(new ArgbRaster(1024, 1024), LinearCodec.size(pixels, 73)));
+        assertEquals(73, encoder.getQuality());
+        assertTrue(encoder.getSize() <= LinearCodec.size(pixels, 73));
+        // 探测图二分7次，原图在估算值一侧的窗口内不超过4次
+        assertTrue(encoder.getEncodeCount() <= 12);
+    }
+
+    @Test
+    public void unlimited() throws IOException {
+        RasterEncoder encoder = new RasterEncoder(new LinearCodec()).setQualityRange(20, 90);
+        assertTrue(encoder.encode(new ArgbRaster(10, 10), 0));
+        assertEquals(90, encoder.getQuality());
+        assertEquals(1, encoder.getEncodeCount());
+    }
+
+    @Test
+    public void fixedQuality() throws IOException {
+        RasterEncoder encoder = new RasterEncoder(new LinearCodec()).setQualityRange(50, 50)
+                .setAllowDownscale(false);
+        assertFalse(encoder.encode(new ArgbRaster(100, 100), LinearCodec.size(10000, 49)));
+        assertEquals(50, encoder.getQuality());
+        assertTrue(encoder.encode(new ArgbRaster(100, 100), LinearCodec.size(10000, 50)));
+    }
+
+    @Test
+    public void minimumQualityWithoutDownscale() throws IOException {
+        RasterEncoder encoder = new RasterEncoder(new LinearCodec()).setAllowDownscale(false);
+        assertFalse(encoder.encode(new ArgbRaster(100, 100), 500));
+        // 保留最低质量的结果
+        assertEquals(10, encoder.getQuality());
+        assertEquals(LinearCodec.size(10000, 10), encoder.getSize());
+        assertEquals(100, encoder.getWidth());
+    }
+
+    @Test
+    public void downscaleWhenMinimumQualityTooLarge() throws IOException {
+        RasterEncoder encoder = new RasterEncoder(new LinearCodec());
+        assertTrue(encoder.encode(new ArgbRaster(200, 100), 500));
+        assertTrue(encoder.getSize() <= 500);
+        assertTrue(encoder.getWidth() < 200);
+        // 保持宽高比
+        assertEquals(encoder.getWidth() / 2f, encoder.getHeight(), 1);
+        assertEquals(encoder.getSize(), encoder.toByteArray().length);
+    }
+
+    @Test
+    public void tooSmallToDownscale() throws IOException {
+        RasterEncoder encoder = new RasterEncoder(new LinearCodec());
+        // 头部本身就超过上限，缩小到边长下限仍不满足
+        assertFalse(encoder.encode(new ArgbRaster(64, 64), LinearCodec.HEADER - 1));
+    }
+
+    @Test
+    public void reuseAcrossCalls() throws IOException {
+        RasterEncoder encoder = new RasterEncoder(new LinearCodec());
+        encoder.encode(new ArgbRaster(100, 100), LinearCodec.size(10000, 30));
+        assertEquals(30, encoder.getQuality());
+        encoder.encode(new ArgbRaster(50, 50), LinearCodec.size(2500, 80));
+        assertEquals(80, encoder.getQuality());
+        assertEquals(50, encoder.getWidth());
+        assertEquals(LinearCodec.size(2500, 80), encoder.getSize());
+    }
+}
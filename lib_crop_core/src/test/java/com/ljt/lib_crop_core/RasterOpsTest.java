@@ -0,0 +1,179 @@
+package com.ljt.lib_crop_core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RasterOps的本地单元测试
+ */
+public class RasterOpsTest {
+
+    private static final int RED = 0xffff0000;
+
+    private static final int BLUE = 0xff0000ff;
+
+    @Test
+    public void cropClipsToSource() {
+        ArgbRaster src = numbered(4, 3);
+        ArgbRaster crop = RasterOps.crop(src, 2, 1, 5, 5);
+        assertEquals(2, crop.getWidth());
+        assertEquals(2, crop.getHeight());
+        assertEquals(src.getPixel(2, 1), crop.getPixel(0, 0));
+        assertEquals(src.getPixel(3, 2), crop.getPixel(1, 1));
+    }
+
+    @Test
+    public void cropOutsideIsNull() {
+        assertNull(RasterOps.crop(numbered(4, 3), 4, 0, 2, 2));
+    }
+
+    @Test
+    public void centerCropSquare() {
+        ArgbRaster square = numbered(3, 3);
+        assertSame(square, RasterOps.centerCrop(square));
+        ArgbRaster src = numbered(5, 3);
+        ArgbRaster crop = RasterOps.centerCrop(src);
+        assertEquals(3, crop.getWidth());
+        assertEquals(3, crop.getHeight());
+        assertEquals(src.getPixel(1, 0), crop.getPixel(0, 0));
+    }
+
+    @Test
+    public void rotateRightAngles() {
+        ArgbRaster src = numbered(3, 2);
+        ArgbRaster r90 = RasterOps.rotate(src, 90);
+        ArgbRaster r180 = RasterOps.rotate(src, 180);
+        ArgbRaster r270 = RasterOps.rotate(src, -90);
+        assertEquals(2, r90.getWidth());
+        assertEquals(3, r90.getHeight());
+        assertEquals(3, r180.getWidth());
+        assertEquals(2, r270.getWidth());
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                final int color = src.getPixel(x, y);
+                // 顺时针90度：(x, y) -> (h - 1 - y, x)
+                assertEquals(color, r90.getPixel(1 - y, x));
+                assertEquals(color, r180.getPixel(2 - x, 1 - y));
+                assertEquals(color, r270.getPixel(y, 2 - x));
+            }
+        }
+    }
+
+    @Test
+    public void rotateFullTurnCopies() {
+        ArgbRaster src = numbered(3, 2);
+        ArgbRaster rotated = RasterOps.rotate(src, 360);
+        assertNotSame(src, rotated);
+        assertEquals(src.getPixel(2, 1), rotated.getPixel(2, 1));
+    }
+
+    @Test
+    public void rotateFilteredBounds() {
+        ArgbRaster rotated = RasterOps.rotate(solid(10, 10, RED), 45);
+        // 外接矩形边长为10 * sqrt(2)，四角透明，中心不变
+        assertEquals(15, rotated.getWidth());
+        assertEquals(15, rotated.getHeight());
+        assertEquals(0, rotated.getPixel(0, 0) >>> 24);
+        assertEquals(RED, rotated.getPixel(7, 7));
+    }
+
+    @Test
+    public void scaleNearest() {
+        ArgbRaster src = new ArgbRaster(2, 1, new int[]{RED, BLUE});
+        ArgbRaster scaled = RasterOps.scale(src, 4, 2, false);
+        assertEquals(RED, scaled.getPixel(0, 0));
+        assertEquals(RED, scaled.getPixel(1, 1));
+        assertEquals(BLUE, scaled.getPixel(2, 0));
+        assertEquals(BLUE, scaled.getPixel(3, 1));
+    }
+
+    @Test
+    public void scaleFilteredKeepsSolidColor() {
+        ArgbRaster scaled = RasterOps.scale(solid(7, 5, 0x80336699), 13, 3, true);
+        for (int pixel : scaled.getPixels()) {
+            assertEquals(0x80336699, pixel);
+        }
+    }
+
+    @Test
+    public void centerCropScaled() {
+        // 左半红右半蓝，居中裁成正方形后左右仍各占一半
+        ArgbRaster src = new ArgbRaster(4, 2, new int[]{RED, RED, BLUE, BLUE, RED, RED, BLUE, BLUE});
+        ArgbRaster crop = RasterOps.centerCrop(src, 2, 2, false);
+        assertEquals(RED, crop.getPixel(0, 0));
+        assertEquals(BLUE, crop.getPixel(1, 1));
+    }
+
+    @Test
+    public void roundCornerMasksCorners() {
+        ArgbRaster src = solid(20, 20, RED);
+        ArgbRaster round = RasterOps.roundCorner(src, 8);
+        assertEquals(0, round.getPixel(0, 0) >>> 24);
+        assertEquals(0, round.getPixel(19, 19) >>> 24);
+        assertEquals(RED, round.getPixel(10, 0));
+        assertEquals(RED, round.getPixel(10, 10));
+        // 不修改输入
+        assertEquals(RED, src.getPixel(0, 0));
+    }
+
+    @Test
+    public void circleMasksOutside() {
+        ArgbRaster circle = RasterOps.circle(solid(30, 20, BLUE));
+        assertEquals(20, circle.getWidth());
+        assertEquals(20, circle.getHeight());
+        assertEquals(0, circle.getPixel(0, 0) >>> 24);
+        assertEquals(0, circle.getPixel(19, 0) >>> 24);
+        assertEquals(BLUE, circle.getPixel(10, 10));
+        // 边缘抗锯齿，接近不透明
+        assertEquals(BLUE & 0xffffff, circle.getPixel(10, 0) & 0xffffff);
+        assertTrue((circle.getPixel(10, 0) >>> 24) > 200);
+    }
+
+    @Test
+    public void mixDrawsTopCentered() {
+        ArgbRaster mixed = RasterOps.mix(solid(2, 2, RED), 4, 4, solid(3, 3, BLUE), 8, 8);
+        assertEquals(8, mixed.getWidth());
+        assertEquals(BLUE, mixed.getPixel(0, 0));
+        assertEquals(BLUE, mixed.getPixel(7, 7));
+        assertEquals(RED, mixed.getPixel(2, 2));
+        assertEquals(RED, mixed.getPixel(5, 5));
+    }
+
+    @Test
+    public void lerpEnds() {
+        assertEquals(RED, RasterOps.lerp(RED, BLUE, 0));
+        assertEquals(BLUE, RasterOps.lerp(RED, BLUE, 256));
+        assertEquals(0xff7f007f, RasterOps.lerp(RED, BLUE, 128));
+    }
+
+    @Test
+    public void srcOverAlpha() {
+        assertEquals(RED, RasterOps.srcOver(BLUE, RED));
+        assertEquals(BLUE, RasterOps.srcOver(BLUE, 0x00ff0000));
+        int half = RasterOps.srcOver(BLUE, 0x80ff0000);
+        assertEquals(255, half >>> 24);
+        assertEquals(128, (half >> 16) & 0xff, 1);
+        assertEquals(127, half & 0xff, 1);
+    }
+
+    private static ArgbRaster numbered(int width, int height) {
+        ArgbRaster raster = new ArgbRaster(width, height);
+        for (int i = 0; i < width * height; i++) {
+            raster.getPixels()[i] = 0xff000000 | i;
+        }
+        return raster;
+    }
+
+    private static ArgbRaster solid(int width, int height, int color) {
+        ArgbRaster raster = new ArgbRaster(width, height);
+        Arrays.fill(raster.getPixels(), color);
+        return raster;
+    }
+}
@@ -0,0 +1,463 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按同一规格批量裁剪图片
+ * <p>
+ * 解码、裁剪缩放和编码写入在多个线程上并行执行。每个任务开始前按原图和目标尺寸估算需要的内存，
+ * 从内存预算中申请到足够的额度才开始解码，因此同时执行的任务数由剩余预算决定，而不是线程数；
+ * 同一个实例的所有批次共用一份预算。结果在主线程上按完成顺序逐个回调。
+ *
+ * @author lijintao <br/>
+ */
+public class BatchCropper {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BatchCropper";
+
+    // 内存额度以KB为单位计数
+    private static final int UNIT = 1024;
+
+    // BitmapFileWriter默认的写入缓冲区大小
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    // 默认预算占最大堆内存的比例
+    private static final int DEFAULT_BUDGET_DIVISOR = 4;
+
+    private int mTargetWidth = 512;
+
+    private int mTargetHeight = 512;
+
+    private ImageUtil.FitMode mFitMode = ImageUtil.FitMode.CENTER_CROP;
+
+    private Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+
+    private ImageUtil.ScaleFilter mScaleFilter = ImageUtil.ScaleFilter.BILINEAR;
+
+    private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+
+    private int mQuality = 90;
+
+    private boolean mSync;
+
+    private int mThreadCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private long mMemoryBudget = Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_DIVISOR;
+
+    private ThreadPoolExecutor mExecutor;
+
+    private Semaphore mBudget;
+
+    private int mBudgetPermits;
+
+    /**
+     * 批量裁剪的回调，全部在主线程执行
+     */
+    public interface Callback {
+
+        /**
+         * 一张图片裁剪并写入成功
+         *
+         * @param index   在输入列表中的位置
+         * @param srcPath 原图路径
+         * @param result  写入结果
+         */
+        void onItemSuccess(int index, String srcPath, BitmapFileWriter.Result result);
+
+        /**
+         * 一张图片处理失败，不影响其他图片
+         *
+         * @param index   在输入列表中的位置
+         * @param srcPath 原图路径
+         * @param error   失败原因，内存不足时为OutOfMemoryError
+         */
+        void onItemFailure(int index, String srcPath, Throwable error);
+
+        /**
+         * 每完成一张图片(无论成功失败)回调一次
+         *
+         * @param finished 已完成的数量
+         * @param total    总数
+         */
+        void onProgress(int finished, int total);
+
+        /**
+         * 所有图片处理完毕，或取消后剩余的任务全部退出
+         *
+         * @param succeeded 成功的数量
+         * @param failed    失败的数量
+         * @param cancelled 是否被取消
+         */
+        void onFinish(int succeeded, int failed, boolean cancelled);
+    }
+
+    /**
+     * 一个批次，用于取消
+     */
+    public static class Task {
+        private final AtomicBoolean mCancelled = new AtomicBoolean();
+
+        /**
+         * 取消尚未开始的图片，正在解码或写入的图片完成后不再回调结果
+         */
+        public void cancel() {
+            mCancelled.set(true);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled.get();
+        }
+    }
+
+    /**
+     * @param width  输出宽度
+     * @param height 输出高度
+     * @return
+     */
+    public BatchCropper setTargetSize(int width, int height) {
+        mTargetWidth = Math.max(1, width);
+        mTargetHeight = Math.max(1, height);
+        return this;
+    }
+
+    /**
+     * @param fitMode 缩放方式，默认CENTER_CROP
+     * @return
+     */
+    public BatchCropper setFitMode(ImageUtil.FitMode fitMode) {
+        mFitMode = fitMode;
+        return this;
+    }
+
+    /**
+     * @param config 解码使用的Bitmap.Config，默认ARGB_8888
+     * @return
+     */
+    public BatchCropper setConfig(Bitmap.Config config) {
+        mConfig = config;
+        return this;
+    }
+
+    /**
+     * @param filter 缩小使用的过滤方式，默认BILINEAR
+     * @return
+     */
+    public BatchCropper setScaleFilter(ImageUtil.ScaleFilter filter) {
+        mScaleFilter = filter;
+        return this;
+    }
+
+    /**
+     * @param format  输出格式，默认JPEG
+     * @param quality 压缩质量，默认90
+     * @return
+     */
+    public BatchCropper setFormat(Bitmap.CompressFormat format, int quality) {
+        mFormat = format;
+        mQuality = Math.max(0, Math.min(quality, 100));
+        return this;
+    }
+
+    /**
+     * @param sync 写入后是否同步到存储设备
+     * @return
+     * @see BitmapFileWriter#setSync(boolean)
+     */
+    public BatchCropper setSync(boolean sync) {
+        mSync = sync;
+        return this;
+    }
+
+    /**
+     * 需要在第一次start之前设置
+     *
+     * @param threadCount 线程数，默认为CPU核数
+     * @return
+     */
+    public BatchCropper setThreadCount(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+        return this;
+    }
+
+    /**
+     * 需要在第一次start之前设置
+     *
+     * @param bytes 同时执行的任务最多占用的内存，默认为最大堆内存的1/4
+     * @return
+     */
+    public BatchCropper setMemoryBudget(long bytes) {
+        mMemoryBudget = Math.max(UNIT, bytes);
+        return this;
+    }
+
+    /**
+     * 开始裁剪，输出文件名与原图相同，扩展名按输出格式替换；同一批次中重名时加上序号
+     *
+     * @param srcPaths 原图路径
+     * @param outDir   输出目录
+     * @param callback
+     * @return 用于取消的Task
+     */
+    public Task start(List<String> srcPaths, File outDir, Callback callback) {
+        final List<String> paths = new ArrayList<>(srcPaths);
+        List<File> outFiles = new ArrayList<>(paths.size());
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < paths.size(); i++) {
+            String name = getOutputName(paths.get(i));
+            if (!names.add(name)) {
+                name = i + "_" + name;
+                names.add(name);
+            }
+            outFiles.add(new File(outDir, name));
+        }
+        return start(paths, outFiles, callback);
+    }
+
+    /**
+     * 开始裁剪
+     *
+     * @param srcPaths 原图路径
+     * @param outFiles 与原图一一对应的输出文件
+     * @param callback
+     * @return 用于取消的Task
+     */
+    public Task start(List<String> srcPaths, List<File> outFiles, final Callback callback) {
+        if (srcPaths.size() != outFiles.size()) {
+            throw new IllegalArgumentException("srcPaths and outFiles size mismatch");
+        }
+        final Task task = new Task();
+        final Batch batch = new Batch(task, srcPaths.size(), callback);
+        if (batch.mTotal == 0) {
+            ImageLoader.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFinish(0, 0, false);
+                }
+            });
+            return task;
+        }
+        // 配置在提交时固定下来，之后修改只影响新的批次
+        final Spec spec = new Spec(this);
+        ThreadPoolExecutor executor = obtainExecutor();
+        for (int i = 0; i < srcPaths.size(); i++) {
+            final int index = i;
+            final String srcPath = srcPaths.get(i);
+            final File outFile = outFiles.get(i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(spec, batch, index, srcPath, outFile);
+                }
+            });
+        }
+        return task;
+    }
+
+    private void process(Spec spec, Batch batch, int index, String srcPath, File outFile) {
+        if (batch.mTask.isCancelled()) {
+            batch.skip();
+            return;
+        }
+        int permits = 0;
+        try {
+            permits = acquire(estimateCost(spec, srcPath));
+            if (batch.mTask.isCancelled()) {
+                batch.skip();
+                return;
+            }
+            Bitmap bitmap = ImageUtil.decodeFile(srcPath, spec.mWidth, spec.mHeight, spec.mFitMode, spec.mConfig,
+                    spec.mScaleFilter);
+            if (bitmap == null) {
+                throw new IOException("decode failed: " + srcPath);
+            }
+            BitmapFileWriter.Result result;
+            try {
+                result = new BitmapFileWriter().setSync(spec.mSync)
+                        .write(bitmap, spec.mFormat, spec.mQuality, outFile);
+            } finally {
+                ImageUtil.recycleBitmap(bitmap);
+            }
+            batch.success(index, srcPath, result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.skip();
+        } catch (IOException e) {
+            batch.failure(index, srcPath, e);
+        } catch (OutOfMemoryError e) {
+            batch.failure(index, srcPath, e);
+        } catch (RuntimeException e) {
+            batch.failure(index, srcPath, e);
+        } finally {
+            if (permits > 0) {
+                mBudget.release(permits);
+            }
+        }
+    }
+
+    /**
+     * 估算一个任务解码和编码期间占用的内存
+     * <p>
+     * CENTER_CROP只解码裁剪区域，降采样后区域最多约为目标尺寸的4倍；FIT_INSIDE由解码器直接缩放到目标尺寸。
+     * 之后还有一次变换产生的目标尺寸位图，以及编码缓冲区。高质量缩小时解码器不缩放，两种方式都按4倍估算，
+     * 另有目标尺寸的int[]像素。
+     *
+     * @return 字节数，原图无法读取时按目标尺寸估算
+     */
+    private static long estimateCost(Spec spec, String srcPath) {
+        final int bytesPerPixel = spec.mConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+        final long targetPixels = (long) spec.mWidth * spec.mHeight;
+        final boolean resample = spec.mScaleFilter != ImageUtil.ScaleFilter.BILINEAR;
+        long decodePixels = spec.mFitMode == ImageUtil.FitMode.CENTER_CROP || resample
+                ? targetPixels * 4 : targetPixels;
+        ImageHeader header = ImageHeader.probe(srcPath);
+        if (header != null && header.getWidth() > 0 && header.getHeight() > 0) {
+            decodePixels = Math.min(decodePixels, (long) header.getWidth() * header.getHeight());
+        }
+        return (decodePixels + targetPixels) * bytesPerPixel + (resample ? targetPixels * 4 : 0)
+                + WRITE_BUFFER_SIZE;
+    }
+
+    /**
+     * 从预算中申请额度，超过整个预算的任务按整个预算申请，只能单独执行
+     *
+     * @return 申请到的额度
+     */
+    private int acquire(long bytes) throws InterruptedException {
+        int permits = (int) Math.min(mBudgetPermits, Math.max(1, (bytes + UNIT - 1) / UNIT));
+        mBudget.acquire(permits);
+        return permits;
+    }
+
+    private synchronized ThreadPoolExecutor obtainExecutor() {
+        if (mExecutor == null) {
+            mBudgetPermits = (int) Math.min(Integer.MAX_VALUE, mMemoryBudget / UNIT);
+            // 公平模式，避免大图一直等不到足够的额度
+            mBudget = new Semaphore(mBudgetPermits, true);
+            mExecutor = ImageLoader.newExecutor("BatchCropper", mThreadCount);
+        }
+        return mExecutor;
+    }
+
+    private String getOutputName(String srcPath) {
+        String name = new File(srcPath).getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        switch (mFormat) {
+            case PNG:
+                return name + ".png";
+            case JPEG:
+                return name + ".jpg";
+            default:
+                return name + ".webp";
+        }
+    }
+
+    /**
+     * 提交时的配置快照
+     */
+    private static class Spec {
+        final int mWidth;
+        final int mHeight;
+        final ImageUtil.FitMode mFitMode;
+        final Bitmap.Config mConfig;
+        final ImageUtil.ScaleFilter mScaleFilter;
+        final Bitmap.CompressFormat mFormat;
+        final int mQuality;
+        final boolean mSync;
+
+        Spec(BatchCropper cropper) {
+            mWidth = cropper.mTargetWidth;
+            mHeight = cropper.mTargetHeight;
+            mFitMode = cropper.mFitMode;
+            mConfig = cropper.mConfig;
+            mScaleFilter = cropper.mScaleFilter;
+            mFormat = cropper.mFormat;
+            mQuality = cropper.mQuality;
+            mSync = cropper.mSync;
+        }
+    }
+
+    /**
+     * 一个批次的计数，结果转到主线程回调
+     * <p>
+     * 计数和是否完成的判断都在主线程的回调中进行：各线程的结果按post的顺序到达，进度不会倒退，onFinish总是最后一个
+     */
+    private static class Batch {
+        final Task mTask;
+        final int mTotal;
+        final Callback mCallback;
+        // 以下计数只在主线程访问
+        int mFinished;
+        int mSucceeded;
+        int mFailed;
+
+        Batch(Task task, int total, Callback callback) {
+            mTask = task;
+            mTotal = total;
+            mCallback = callback;
+        }
+
+        void success(final int index, final String srcPath, final BitmapFileWriter.Result result) {
+            if (mTask.isCancelled()) {
+                skip();
+                return;
+            }
+            ImageLoader.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    mSucceeded++;
+                    mFinished++;
+                    mCallback.onItemSuccess(index, srcPath, result);
+                    mCallback.onProgress(mFinished, mTotal);
+                    finishIfDone();
+                }
+            });
+        }
+
+        void failure(final int index, final String srcPath, final Throwable error) {
+            if (mTask.isCancelled()) {
+                skip();
+                return;
+            }
+            ImageLoader.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    mFailed++;
+                    mFinished++;
+                    mCallback.onItemFailure(index, srcPath, error);
+                    mCallback.onProgress(mFinished, mTotal);
+                    finishIfDone();
+                }
+            });
+        }
+
+        void skip() {
+            ImageLoader.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    mFinished++;
+                    finishIfDone();
+                }
+            });
+        }
+
+        private void finishIfDone() {
+            if (mFinished == mTotal) {
+                mCallback.onFinish(mSucceeded, mFailed, mTask.isCancelled());
+            }
+        }
+    }
+}
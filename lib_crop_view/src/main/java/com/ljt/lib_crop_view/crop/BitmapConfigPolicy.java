@@ -0,0 +1,110 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * 按用途选择解码使用的Bitmap.Config
+ * <p>
+ * 只用于显示的图片在Android 8.0以上使用HARDWARE：像素只保存在显存中，不占用Java堆和native堆，
+ * 绘制时也不需要再上传纹理，但不能读取像素、不能绘制到软件Canvas上；需要读取像素或导出的图片使用软件位图。
+ * RGB_565只用于低内存设备上不透明的图片。
+ *
+ * @author lijintao <br/>
+ * @see ImageUtil#setConfigPolicy(BitmapConfigPolicy)
+ */
+public class BitmapConfigPolicy {
+
+    /**
+     * 位图的用途
+     */
+    public enum Usage {
+        /**
+         * 只用于显示，不读取像素
+         */
+        DISPLAY,
+        /**
+         * 需要读取像素、剪裁、编码或绘制到软件Canvas上
+         */
+        EXPORT
+    }
+
+    private final boolean mLowRamDevice;
+
+    private boolean mHardwareEnabled = true;
+
+    /**
+     * 按ActivityManager.isLowRamDevice()判断是否为低内存设备
+     *
+     * @param context
+     */
+    public BitmapConfigPolicy(Context context) {
+        this(isLowRamDevice(context));
+    }
+
+    /**
+     * @param lowRamDevice 是否为低内存设备
+     */
+    public BitmapConfigPolicy(boolean lowRamDevice) {
+        mLowRamDevice = lowRamDevice;
+    }
+
+    private static boolean isLowRamDevice(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        ActivityManager am = (ActivityManager) context.getApplicationContext()
+                .getSystemService(Context.ACTIVITY_SERVICE);
+        return am != null && am.isLowRamDevice();
+    }
+
+    /**
+     * @param enabled 显示用的图片是否使用HARDWARE，默认使用
+     * @return
+     */
+    public BitmapConfigPolicy setHardwareEnabled(boolean enabled) {
+        mHardwareEnabled = enabled;
+        return this;
+    }
+
+    public boolean isLowRamDevice() {
+        return mLowRamDevice;
+    }
+
+    /**
+     * @param usage  用途
+     * @param opaque 图片是否确定不透明
+     * @return
+     */
+    public Bitmap.Config select(Usage usage, boolean opaque) {
+        if (usage == Usage.DISPLAY && mHardwareEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return Bitmap.Config.HARDWARE;
+        }
+        return opaque && mLowRamDevice ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * 为解码选择Bitmap.Config
+     * <p>
+     * 格式未知时，Android 7.0以上的解码器对带透明度的图片会忽略RGB_565，按不透明处理不会丢失透明度
+     *
+     * @param usage    用途
+     * @param mimeType 图片格式，可以为null
+     * @return
+     */
+    public Bitmap.Config selectForDecode(Usage usage, String mimeType) {
+        boolean opaque = mimeType != null ? ImageHeader.MIME_JPEG.equals(mimeType)
+                : Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+        return select(usage, opaque);
+    }
+
+    /**
+     * @param config
+     * @return 是否为HARDWARE，低版本上不会访问不存在的枚举值
+     */
+    public static boolean isHardware(Bitmap.Config config) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+}
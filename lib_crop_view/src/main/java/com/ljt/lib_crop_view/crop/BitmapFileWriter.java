@@ -0,0 +1,192 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 将图片原子地写入文件
+ * <p>
+ * 先写入同目录下的临时文件，完成后(可选sync)重命名为目标文件，写入中途失败或进程被杀时不会留下不完整的目标文件。
+ * 压缩结果经过大缓冲区写入，避免compress产生的大量小块write系统调用。
+ *
+ * @author lijintao <br/>
+ */
+public class BitmapFileWriter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BitmapFileWriter";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private int mBufferSize = DEFAULT_BUFFER_SIZE;
+
+    private boolean mSync;
+
+    /**
+     * 一次写入的结果
+     */
+    public static class Result {
+        private final File mFile;
+        private final long mBytes;
+        private final long mElapsedNanos;
+
+        Result(File file, long bytes, long elapsedNanos) {
+            mFile = file;
+            mBytes = bytes;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return 写入的字节数
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /**
+         * @return 编码和写入的总耗时，单位毫秒
+         */
+        public long getElapsedMillis() {
+            return mElapsedNanos / 1000000;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return mFile + "[bytes=" + mBytes + ",elapsed=" + getElapsedMillis() + "ms]";
+        }
+    }
+
+    /**
+     * @param bufferSize 写入缓冲区大小，默认64KB
+     * @return
+     */
+    public BitmapFileWriter setBufferSize(int bufferSize) {
+        mBufferSize = Math.max(1024, bufferSize);
+        return this;
+    }
+
+    /**
+     * @param sync 重命名前是否将数据同步到存储设备，默认不同步
+     * @return
+     */
+    public BitmapFileWriter setSync(boolean sync) {
+        mSync = sync;
+        return this;
+    }
+
+    /**
+     * 压缩图片并写入文件
+     *
+     * @param bitmap
+     * @param format
+     * @param quality
+     * @param file    目标文件，已存在时被替换
+     * @return
+     * @throws IOException 压缩或写入失败，目标文件保持不变
+     */
+    public Result write(Bitmap bitmap, Bitmap.CompressFormat format, int quality, File file) throws IOException {
+        final long start = System.nanoTime();
+        File tmp = createTempFile(file);
+        FileOutputStream fos = null;
+        boolean success = false;
+        try {
+            fos = new FileOutputStream(tmp);
+            OutputStream os = new BufferedOutputStream(fos, mBufferSize);
+            if (!bitmap.compress(format, quality, os)) {
+                throw new IOException("compress failed: " + file);
+            }
+            os.flush();
+            long bytes = fos.getChannel().size();
+            finish(fos, tmp, file);
+            fos = null;
+            success = true;
+            return new Result(file, bytes, System.nanoTime() - start);
+        } finally {
+            cleanup(fos, tmp, success);
+        }
+    }
+
+    /**
+     * 将已编码的数据直接写入文件通道，例如BitmapEncoder的缓冲区
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param file   目标文件，已存在时被替换
+     * @return
+     * @throws IOException 写入失败，目标文件保持不变
+     * @see BitmapEncoder#getBuffer()
+     */
+    public Result write(byte[] data, int offset, int length, File file) throws IOException {
+        final long start = System.nanoTime();
+        File tmp = createTempFile(file);
+        FileOutputStream fos = null;
+        boolean success = false;
+        try {
+            fos = new FileOutputStream(tmp);
+            FileChannel channel = fos.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            finish(fos, tmp, file);
+            fos = null;
+            success = true;
+            return new Result(file, length, System.nanoTime() - start);
+        } finally {
+            cleanup(fos, tmp, success);
+        }
+    }
+
+    /**
+     * 在目标文件所在目录创建临时文件，同时写入同一个目标文件时各自使用不同的临时文件；
+     * 与目标文件在同一文件系统内，重命名才是原子的
+     */
+    private static File createTempFile(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        // createTempFile要求前缀至少3个字符
+        String prefix = file.getName() + "___";
+        return File.createTempFile(prefix, TMP_SUFFIX, dir);
+    }
+
+    private void finish(FileOutputStream fos, File tmp, File file) throws IOException {
+        if (mSync) {
+            fos.getFD().sync();
+        }
+        fos.close();
+        // 同一文件系统内的rename是原子的，读取方只会看到旧文件或完整的新文件
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename failed: " + tmp + " -> " + file);
+        }
+    }
+
+    private static void cleanup(FileOutputStream fos, File tmp, boolean success) {
+        if (fos != null) {
+            try {
+                fos.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (!success) {
+            tmp.delete();
+        }
+    }
+}
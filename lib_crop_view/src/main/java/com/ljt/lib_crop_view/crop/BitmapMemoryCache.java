@@ -0,0 +1,226 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 已解码位图的内存缓存
+ * <p>
+ * 以原图标识(路径+修改时间，或URI、资源id)、采样率、Bitmap.Config和旋转角度作为key，按位图实际占用的字节数计算大小，
+ * 重新打开同一张图片时可以跳过解码、读取EXIF和旋转。缓存中的位图可能正在显示，被淘汰时不会回收。
+ *
+ * @author lijintao <br/>
+ */
+public class BitmapMemoryCache {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BitmapMemoryCache";
+
+    private final LruCache<Key, Bitmap> mCache;
+
+    // 缓存中的位图及其被引用的次数，用于判断位图能否被复用池回收
+    private final Map<Bitmap, Integer> mCachedBitmaps = new IdentityHashMap<Bitmap, Integer>();
+
+    private long mHitCount;
+
+    private long mMissCount;
+
+    /**
+     * @param maxBytes 缓存的最大字节数
+     */
+    public BitmapMemoryCache(int maxBytes) {
+        mCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return getBitmapBytes(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Key key, Bitmap oldValue, Bitmap newValue) {
+                release(oldValue);
+            }
+        };
+    }
+
+    /**
+     * @return 默认缓存大小，为应用最大可用内存的1/8
+     */
+    public static int getDefaultMaxBytes() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    public Bitmap get(Key key) {
+        if (key == null) {
+            return null;
+        }
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null && bitmap.isRecycled()) {
+            // 被调用方回收了
+            mCache.remove(key);
+            bitmap = null;
+        }
+        synchronized (this) {
+            if (bitmap != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+        }
+        return bitmap;
+    }
+
+    public void put(Key key, Bitmap bitmap) {
+        if (key == null || bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        synchronized (this) {
+            Integer count = mCachedBitmaps.get(bitmap);
+            mCachedBitmaps.put(bitmap, count == null ? 1 : count + 1);
+        }
+        mCache.put(key, bitmap);
+    }
+
+    public Bitmap remove(Key key) {
+        return mCache.remove(key);
+    }
+
+    /**
+     * @param bitmap
+     * @return 位图是否仍在缓存中
+     */
+    public synchronized boolean contains(Bitmap bitmap) {
+        return mCachedBitmaps.containsKey(bitmap);
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    public void trimToSize(int maxBytes) {
+        mCache.trimToSize(maxBytes);
+    }
+
+    public int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (int) (100 * mHitCount / accesses) : 0;
+        return "BitmapMemoryCache[size=" + size() + ",maxSize=" + maxSize() + ",hits=" + mHitCount
+                + ",misses=" + mMissCount + ",hitRate=" + hitPercent + "%]";
+    }
+
+    private synchronized void release(Bitmap bitmap) {
+        Integer count = mCachedBitmaps.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count <= 1) {
+            mCachedBitmaps.remove(bitmap);
+        } else {
+            mCachedBitmaps.put(bitmap, count - 1);
+        }
+    }
+
+    static int getBitmapBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * 缓存key
+     */
+    public static final class Key {
+        private final String mSource;
+        private final int mSampleSize;
+        private final Bitmap.Config mConfig;
+        private final int mOrientation;
+
+        /**
+         * @param source     原图标识
+         * @param sampleSize 解码时的采样率
+         * @param config     解码时的Bitmap.Config
+         * @param orientation 已应用到像素上的方向校正，取值同EXIF方向(见ImageHeader)，0表示未校正
+         */
+        public Key(String source, int sampleSize, Bitmap.Config config, int orientation) {
+            mSource = source;
+            mSampleSize = sampleSize;
+            mConfig = config;
+            mOrientation = orientation;
+        }
+
+        /**
+         * 以路径、修改时间和文件大小标识本地文件，文件被修改后不会命中旧的缓存
+         */
+        public static Key forFile(String filePath, int sampleSize, Bitmap.Config config, int orientation) {
+            return new Key(ImageUtil.getFileIdentity(filePath), sampleSize, config, orientation);
+        }
+
+        public static Key forUri(String uri, int sampleSize, Bitmap.Config config, int orientation) {
+            return new Key(uri, sampleSize, config, orientation);
+        }
+
+        /**
+         * 资源图片解码时会按屏幕密度缩放，key中包含densityDpi
+         */
+        public static Key forResource(Resources res, int resId, Bitmap.Config config) {
+            return new Key("res:" + resId + "@" + res.getDisplayMetrics().densityDpi, 1, config, 0);
+        }
+
+        public String getSource() {
+            return mSource;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mSampleSize == key.mSampleSize && mOrientation == key.mOrientation && mConfig == key.mConfig
+                    && mSource.equals(key.mSource);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mSource.hashCode();
+            result = 31 * result + mSampleSize;
+            result = 31 * result + (mConfig != null ? mConfig.hashCode() : 0);
+            result = 31 * result + mOrientation;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return mSource + "[sample=" + mSampleSize + ",config=" + mConfig + ",orientation=" + mOrientation + "]";
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bitmap复用池
+ * <p>
+ * 按占用字节数和Bitmap.Config分桶保存不再使用的位图，解码时作为BitmapFactory.Options.inBitmap，
+ * 变换时通过reconfigure()复用，减少频繁切换图片时的GC和native内存分配。超过字节上限时按最近最少使用淘汰。
+ * 复用任意尺寸的位图需要API 19，低版本上放入池中的位图会被直接回收。
+ *
+ * @author lijintao <br/>
+ */
+public class BitmapPool implements ZoomImageView.Recycler {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BitmapPool";
+
+    // 最多复用所需字节数4倍大小的位图，避免小图占用大块内存
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final Map<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> mBuckets =
+            new HashMap<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>>();
+
+    // 按放入顺序排列，最早放入的最先淘汰
+    private final LinkedHashSet<Bitmap> mLru = new LinkedHashSet<Bitmap>();
+
+    private long mMaxBytes;
+
+    private long mCurrentBytes;
+
+    /**
+     * @param maxBytes 池中位图占用的最大字节数
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    @Override
+    public void recycle(Bitmap b) {
+        put(b);
+    }
+
+    /**
+     * 将不再使用的位图放入池中，无法复用的位图会被直接回收
+     *
+     * @param bitmap
+     */
+    public synchronized void put(Bitmap bitmap) {
+        // 仍在内存缓存中的位图可能再次被使用，不能放入池中
+        if (bitmap == null || bitmap.isRecycled() || mLru.contains(bitmap) || ImageUtil.isBitmapCached(bitmap)) {
+            return;
+        }
+        if (!isReusable(bitmap)) {
+            bitmap.recycle();
+            return;
+        }
+        final int size = bitmap.getAllocationByteCount();
+        if (size > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = mBuckets.get(bitmap.getConfig());
+        if (sizes == null) {
+            sizes = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+            mBuckets.put(bitmap.getConfig(), sizes);
+        }
+        ArrayDeque<Bitmap> bucket = sizes.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            sizes.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mLru.add(bitmap);
+        mCurrentBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 取出一张指定尺寸的透明位图，没有可复用的位图时新建
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getDirty(width, height, config);
+        if (bitmap != null) {
+            bitmap.eraseColor(0);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * 取出一张可复用的位图并调整为指定尺寸，内容未清空，适合作为inBitmap或将被完全覆盖的场景
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return 没有可复用的位图时返回null
+     */
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        if (width <= 0 || height <= 0 || config == null) {
+            return null;
+        }
+        TreeMap<Integer, ArrayDeque<Bitmap>> sizes = mBuckets.get(config);
+        if (sizes == null) {
+            return null;
+        }
+        final int size = width * height * getBytesPerPixel(config);
+        Integer key = sizes.ceilingKey(size);
+        if (key == null || key > size * MAX_SIZE_MULTIPLE) {
+            return null;
+        }
+        ArrayDeque<Bitmap> bucket = sizes.get(key);
+        Bitmap bitmap = bucket.pollLast();
+        if (bucket.isEmpty()) {
+            sizes.remove(key);
+        }
+        mLru.remove(bitmap);
+        mCurrentBytes -= key;
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    /**
+     * 淘汰最早放入的位图，直到占用不超过指定字节数
+     *
+     * @param maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<Bitmap> iterator = mLru.iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+            TreeMap<Integer, ArrayDeque<Bitmap>> sizes = mBuckets.get(bitmap.getConfig());
+            final int size = bitmap.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = sizes.get(size);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                sizes.remove(size);
+            }
+            mCurrentBytes -= size;
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 修改字节上限，超出部分立即淘汰
+     *
+     * @param maxBytes
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    /**
+     * 回收池中所有位图
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @param bitmap
+     * @return 位图能否放入池中复用
+     */
+    public static boolean isReusable(Bitmap bitmap) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && bitmap.isMutable() && bitmap.getConfig() != null;
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+            return 8;
+        }
+        return 4;
+    }
+}
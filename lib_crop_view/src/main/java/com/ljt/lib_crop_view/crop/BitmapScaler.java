@@ -0,0 +1,95 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.os.Build;
+
+import com.ljt.lib_crop_core.ArgbRaster;
+import com.ljt.lib_crop_core.Downscaler;
+
+/**
+ * 用面积平均或Lanczos-3高质量缩小Bitmap
+ * <p>
+ * 原图通过getPixels按行读取，不复制整张图；输出按行分条带在多个核上并行计算，结果通过setPixels写入
+ * ImageUtil.createBitmap分配的位图。ForkJoinPool在Android 5.0才加入，低版本上在调用线程上计算。
+ *
+ * @author lijintao <br/>
+ * @see ImageUtil.ScaleFilter
+ */
+public class BitmapScaler {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BitmapScaler";
+
+    private BitmapScaler() {
+    }
+
+    /**
+     * @param source
+     * @param width
+     * @param height
+     * @param filter 不能为BILINEAR
+     * @return 内存不足时返回null
+     */
+    public static Bitmap scale(Bitmap source, int width, int height, ImageUtil.ScaleFilter filter) {
+        return scale(source, null, width, height, filter, null);
+    }
+
+    /**
+     * 把原图中的区域缩放到指定宽高
+     *
+     * @param source
+     * @param region 原图中的区域，可以不是整数像素；为null时为整张原图
+     * @param width
+     * @param height
+     * @param filter 不能为BILINEAR
+     * @param config 输出的Bitmap.Config，为null时与原图一致
+     * @return 内存不足时返回null
+     */
+    public static Bitmap scale(Bitmap source, RectF region, int width, int height, ImageUtil.ScaleFilter filter,
+                               Bitmap.Config config) {
+        if (source == null || width <= 0 || height <= 0) {
+            return null;
+        }
+        if (filter == ImageUtil.ScaleFilter.BILINEAR) {
+            throw new IllegalArgumentException("BILINEAR is drawn by Canvas, use BitmapTransform");
+        }
+        // 硬件位图不能读取像素
+        final Bitmap bitmap = ImageUtil.isHardware(source) ? source.copy(Bitmap.Config.ARGB_8888, false) : source;
+        if (bitmap == null) {
+            return null;
+        }
+        if (config == null || BitmapConfigPolicy.isHardware(config)) {
+            config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        }
+        Bitmap output = null;
+        try {
+            ArgbRaster raster = new ArgbRaster(width, height);
+            RectF area = region != null ? region : new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            Downscaler downscaler = new Downscaler(filter == ImageUtil.ScaleFilter.LANCZOS3
+                    ? Downscaler.Kernel.LANCZOS3 : Downscaler.Kernel.BOX);
+            downscaler.setParallelism(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                    ? Runtime.getRuntime().availableProcessors() : 1);
+            downscaler.scale(new Downscaler.RowReader() {
+                @Override
+                public void read(int y, int left, int count, int[] row) {
+                    bitmap.getPixels(row, 0, count, left, y, count, 1);
+                }
+            }, area.left, area.top, area.width(), area.height(), bitmap.getWidth(), bitmap.getHeight(), raster);
+            output = ImageUtil.createBitmap(width, height, config);
+            if (output != null) {
+                output.setPixels(raster.getPixels(), 0, width, 0, 0, width, height);
+                output.setHasAlpha(bitmap.hasAlpha());
+            }
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            ImageUtil.recycleBitmap(output);
+            output = null;
+        } finally {
+            if (bitmap != source) {
+                bitmap.recycle();
+            }
+        }
+        return output;
+    }
+}
@@ -0,0 +1,365 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+
+/**
+ * 把剪裁、旋转、镜像、缩放和遮罩合并为一次绘制
+ * <p>
+ * 所有几何变换合并到一个Matrix中，作为BitmapShader的局部矩阵，用遮罩的形状(矩形、圆形或圆角矩形)
+ * 直接绘制到唯一的目标位图上，中间不产生任何位图；目标位图经ImageUtil.createBitmap分配，设置了复用池时从池中取得。
+ * 变换顺序固定为：剪裁 → 旋转/镜像(按调用顺序) → 缩放 → 遮罩。
+ *
+ * <pre>
+ * Bitmap avatar = new BitmapTransform().crop(rect).rotate(90).centerCrop(200, 200).circle().apply(bitmap);
+ * </pre>
+ *
+ * @author lijintao <br/>
+ */
+public class BitmapTransform {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "BitmapTransform";
+
+    private enum Mask {
+        NONE, CIRCLE, ROUND_RECT
+    }
+
+    private enum ScaleMode {
+        NONE, STRETCH, CENTER_CROP
+    }
+
+    private Rect mCrop;
+
+    // 旋转和镜像，以剪裁区域的左上角为原点
+    private final Matrix mOrientMatrix = new Matrix();
+
+    private ScaleMode mScaleMode = ScaleMode.NONE;
+
+    private int mWidth;
+
+    private int mHeight;
+
+    private Mask mMask = Mask.NONE;
+
+    private float mRadius;
+
+    private Bitmap.Config mConfig;
+
+    private boolean mFilter = true;
+
+    private ImageUtil.ScaleFilter mScaleFilter = ImageUtil.ScaleFilter.BILINEAR;
+
+    /**
+     * @param rect 原图坐标下的剪裁区域，超出原图的部分被忽略
+     * @return
+     */
+    public BitmapTransform crop(Rect rect) {
+        mCrop = rect != null ? new Rect(rect) : null;
+        return this;
+    }
+
+    /**
+     * @param degrees 顺时针旋转的角度，不是90的倍数时四角透明
+     * @return
+     */
+    public BitmapTransform rotate(float degrees) {
+        mOrientMatrix.postRotate(degrees);
+        return this;
+    }
+
+    /**
+     * 水平镜像
+     *
+     * @return
+     */
+    public BitmapTransform flip() {
+        mOrientMatrix.postScale(-1, 1);
+        return this;
+    }
+
+    /**
+     * 拉伸到指定宽高
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public BitmapTransform scale(int width, int height) {
+        mScaleMode = ScaleMode.STRETCH;
+        mWidth = Math.max(1, width);
+        mHeight = Math.max(1, height);
+        return this;
+    }
+
+    /**
+     * 保持宽高比缩放至铺满指定宽高，居中裁掉多余部分
+     *
+     * @param width
+     * @param height
+     * @return
+     */
+    public BitmapTransform centerCrop(int width, int height) {
+        mScaleMode = ScaleMode.CENTER_CROP;
+        mWidth = Math.max(1, width);
+        mHeight = Math.max(1, height);
+        return this;
+    }
+
+    /**
+     * 内切椭圆(宽高相等时为圆形)以外透明
+     *
+     * @return
+     */
+    public BitmapTransform circle() {
+        mMask = Mask.CIRCLE;
+        return this;
+    }
+
+    /**
+     * @param radius 输出图片上的圆角半径
+     * @return
+     */
+    public BitmapTransform roundRect(float radius) {
+        mMask = Mask.ROUND_RECT;
+        mRadius = radius;
+        return this;
+    }
+
+    /**
+     * @param config 输出的Bitmap.Config，默认带遮罩或非直角旋转时为ARGB_8888，否则与原图一致
+     * @return
+     */
+    public BitmapTransform config(Bitmap.Config config) {
+        mConfig = config;
+        return this;
+    }
+
+    /**
+     * @param filter 缩放和旋转时是否过滤，默认过滤
+     * @return
+     */
+    public BitmapTransform filter(boolean filter) {
+        mFilter = filter;
+        return this;
+    }
+
+    /**
+     * 缩小时的过滤方式，默认BILINEAR
+     * <p>
+     * 其他方式只用于90度倍数的旋转：先用{@link BitmapScaler}在原图方向上缩小，再旋转、镜像和遮罩，多一张输出大小的中间位图
+     *
+     * @param filter
+     * @return
+     */
+    public BitmapTransform scaleFilter(ImageUtil.ScaleFilter filter) {
+        mScaleFilter = filter != null ? filter : ImageUtil.ScaleFilter.BILINEAR;
+        return this;
+    }
+
+    ImageUtil.ScaleFilter getScaleFilter() {
+        return mScaleFilter;
+    }
+
+    boolean hasMask() {
+        return mMask != Mask.NONE;
+    }
+
+    /**
+     * 计算从原图到输出图片的变换矩阵
+     *
+     * @param srcWidth  原图宽度
+     * @param srcHeight 原图高度
+     * @param outSize   输出图片的宽高，不为null时写入
+     * @return 剪裁区域为空时返回null
+     */
+    public Matrix buildMatrix(int srcWidth, int srcHeight, Rect outSize) {
+        Rect region = getRegion(srcWidth, srcHeight);
+        if (region == null) {
+            return null;
+        }
+        Matrix matrix = new Matrix();
+        matrix.setTranslate(-region.left, -region.top);
+        matrix.postConcat(mOrientMatrix);
+        // 旋转后的外接矩形移回原点
+        RectF bounds = new RectF(region);
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+        final float width = bounds.width();
+        final float height = bounds.height();
+        int outWidth;
+        int outHeight;
+        switch (mScaleMode) {
+            case STRETCH:
+                outWidth = mWidth;
+                outHeight = mHeight;
+                matrix.postScale(outWidth / width, outHeight / height);
+                break;
+            case CENTER_CROP:
+                outWidth = mWidth;
+                outHeight = mHeight;
+                float scale = Math.max(outWidth / width, outHeight / height);
+                matrix.postScale(scale, scale);
+                matrix.postTranslate((outWidth - width * scale) / 2, (outHeight - height * scale) / 2);
+                break;
+            default:
+                outWidth = Math.max(1, Math.round(width));
+                outHeight = Math.max(1, Math.round(height));
+                break;
+        }
+        if (outSize != null) {
+            outSize.set(0, 0, outWidth, outHeight);
+        }
+        return matrix;
+    }
+
+    /**
+     * 按设置的变换一次绘制出结果，原图不变
+     *
+     * @param source
+     * @return 原图为null、剪裁区域为空或内存不足时返回null
+     */
+    public Bitmap apply(Bitmap source) {
+        if (source == null) {
+            return null;
+        }
+        Rect outSize = new Rect();
+        Matrix matrix = buildMatrix(source.getWidth(), source.getHeight(), outSize);
+        if (matrix == null) {
+            return null;
+        }
+        final boolean rectStaysRect = matrix.rectStaysRect();
+        Bitmap.Config config = mConfig;
+        if (config == null) {
+            if (mMask != Mask.NONE || !rectStaysRect || ImageUtil.isHardware(source)
+                    || source.getConfig() == null) {
+                config = Bitmap.Config.ARGB_8888;
+            } else {
+                config = source.getConfig();
+            }
+        }
+        // 硬件位图不能绘制到软件Canvas上
+        Bitmap bitmap = ImageUtil.isHardware(source) ? source.copy(Bitmap.Config.ARGB_8888, false) : source;
+        if (bitmap == null) {
+            return null;
+        }
+        if (mScaleFilter != ImageUtil.ScaleFilter.BILINEAR && mFilter && rectStaysRect) {
+            Bitmap resampled = resample(bitmap, matrix, outSize, config);
+            if (resampled != null) {
+                if (bitmap != source) {
+                    bitmap.recycle();
+                }
+                if (mOrientMatrix.isIdentity() && mMask == Mask.NONE) {
+                    return resampled;
+                }
+                Bitmap output = withoutScale(outSize, config).apply(resampled);
+                ImageUtil.recycleBitmap(resampled);
+                return output;
+            }
+        }
+        Bitmap output = ImageUtil.createBitmap(outSize.width(), outSize.height(), config);
+        if (output != null) {
+            draw(bitmap, matrix, rectStaysRect, new Canvas(output), outSize);
+            output.setHasAlpha(mMask != Mask.NONE || !rectStaysRect || bitmap.hasAlpha());
+        }
+        if (bitmap != source) {
+            bitmap.recycle();
+        }
+        return output;
+    }
+
+    /**
+     * 在原图方向上把输出可见的原图区域缩小到输出大小
+     *
+     * @return 不是缩小或内存不足时返回null
+     */
+    private Bitmap resample(Bitmap bitmap, Matrix matrix, Rect outSize, Bitmap.Config config) {
+        Matrix inverse = new Matrix();
+        if (!matrix.invert(inverse)) {
+            return null;
+        }
+        RectF visible = new RectF(outSize);
+        inverse.mapRect(visible);
+        // 旋转90或270度时，原图方向上的宽高与输出互换
+        float[] values = new float[9];
+        matrix.getValues(values);
+        final boolean swap = values[Matrix.MSCALE_X] == 0;
+        final int width = swap ? outSize.height() : outSize.width();
+        final int height = swap ? outSize.width() : outSize.height();
+        if (visible.width() <= width && visible.height() <= height) {
+            return null;
+        }
+        return BitmapScaler.scale(bitmap, visible, width, height, mScaleFilter, config);
+    }
+
+    /**
+     * @return 去掉剪裁和缩放、保留旋转、镜像和遮罩的变换，输出为outSize
+     */
+    private BitmapTransform withoutScale(Rect outSize, Bitmap.Config config) {
+        BitmapTransform transform = new BitmapTransform();
+        transform.mOrientMatrix.set(mOrientMatrix);
+        transform.mMask = mMask;
+        transform.mRadius = mRadius;
+        transform.mConfig = config;
+        transform.mFilter = mFilter;
+        return transform.scale(outSize.width(), outSize.height());
+    }
+
+    private void draw(Bitmap bitmap, Matrix matrix, boolean rectStaysRect, Canvas canvas, Rect outSize) {
+        Paint paint = new Paint();
+        paint.setFilterBitmap(mFilter);
+        paint.setAntiAlias(true);
+        BitmapShader shader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+        RectF out = new RectF(outSize);
+        if (rectStaysRect) {
+            // 直角旋转时原图恰好覆盖输出区域，一次绘制遮罩形状即可
+            shader.setLocalMatrix(matrix);
+            paint.setShader(shader);
+            drawMask(canvas, out, paint);
+            return;
+        }
+        // 任意角度旋转时四角在原图之外，CLAMP会拉伸边缘像素：先按原图区域绘制，再用DST_IN套上遮罩
+        Rect region = getRegion(bitmap.getWidth(), bitmap.getHeight());
+        paint.setShader(shader);
+        canvas.save();
+        canvas.concat(matrix);
+        canvas.drawRect(new RectF(region), paint);
+        canvas.restore();
+        if (mMask != Mask.NONE) {
+            Paint maskPaint = new Paint();
+            maskPaint.setAntiAlias(true);
+            maskPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.DST_IN));
+            drawMask(canvas, out, maskPaint);
+        }
+    }
+
+    private void drawMask(Canvas canvas, RectF out, Paint paint) {
+        switch (mMask) {
+            case CIRCLE:
+                canvas.drawOval(out, paint);
+                break;
+            case ROUND_RECT:
+                canvas.drawRoundRect(out, mRadius, mRadius, paint);
+                break;
+            default:
+                canvas.drawRect(out, paint);
+                break;
+        }
+    }
+
+    private Rect getRegion(int srcWidth, int srcHeight) {
+        Rect region = mCrop != null ? new Rect(mCrop) : new Rect(0, 0, srcWidth, srcHeight);
+        if (!region.intersect(0, 0, srcWidth, srcHeight) || region.isEmpty()) {
+            return null;
+        }
+        return region;
+    }
+}
@@ -0,0 +1,117 @@
+package com.ljt.lib_crop_view.crop;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+
+/**
+ * byte[]复用池
+ * <p>
+ * 按长度分桶保存不再使用的字节数组，图片与流、字节数组之间转换时复用，减少大量转换时的GC。
+ * 超过字节上限时按最近最少使用淘汰。
+ *
+ * @author lijintao <br/>
+ * @see PooledByteArrayOutputStream
+ */
+public class ByteArrayPool {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "ByteArrayPool";
+
+    // 最多复用所需长度4倍的数组，避免小数据占用大块内存
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, ArrayDeque<byte[]>> mBuckets = new TreeMap<Integer, ArrayDeque<byte[]>>();
+
+    // 按放入顺序排列，最早放入的最先淘汰
+    private final LinkedHashSet<byte[]> mLru = new LinkedHashSet<byte[]>();
+
+    private long mMaxBytes;
+
+    private long mCurrentBytes;
+
+    /**
+     * @param maxBytes 池中数组占用的最大字节数
+     */
+    public ByteArrayPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 取出一个长度不小于length的数组，没有可复用的数组时新建；内容未清空
+     *
+     * @param length
+     * @return
+     */
+    public synchronized byte[] get(int length) {
+        Integer key = mBuckets.ceilingKey(length);
+        if (key == null || key > (long) length * MAX_SIZE_MULTIPLE) {
+            return new byte[length];
+        }
+        ArrayDeque<byte[]> bucket = mBuckets.get(key);
+        byte[] array = bucket.pollLast();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(key);
+        }
+        mLru.remove(array);
+        mCurrentBytes -= key;
+        return array;
+    }
+
+    /**
+     * 将不再使用的数组放入池中，放入后调用方不能再访问该数组
+     *
+     * @param array
+     */
+    public synchronized void put(byte[] array) {
+        if (array == null || array.length == 0 || array.length > mMaxBytes || mLru.contains(array)) {
+            return;
+        }
+        ArrayDeque<byte[]> bucket = mBuckets.get(array.length);
+        if (bucket == null) {
+            bucket = new ArrayDeque<byte[]>();
+            mBuckets.put(array.length, bucket);
+        }
+        bucket.addLast(array);
+        mLru.add(array);
+        mCurrentBytes += array.length;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 淘汰最早放入的数组，直到占用不超过指定字节数
+     *
+     * @param maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        Iterator<byte[]> iterator = mLru.iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            byte[] array = iterator.next();
+            iterator.remove();
+            ArrayDeque<byte[]> bucket = mBuckets.get(array.length);
+            bucket.remove(array);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(array.length);
+            }
+            mCurrentBytes -= array.length;
+        }
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return mCurrentBytes;
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+}
@@ -17,8 +17,8 @@
 package com.ljt.lib_crop_view.crop;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Matrix;
-import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.AttributeSet;
@@ -53,8 +53,8 @@ public class CropImageView extends ZoomImageView {
             return 1F;
         }
 
-        float fw = (float) mBitmapDisplayed.getWidth() / 250.0f;
-        float fh = (float) mBitmapDisplayed.getHeight() / 250.0f;
+        float fw = (float) getImageWidth() / 250.0f;
+        float fh = (float) getImageHeight() / 250.0f;
         float max = Math.min(fw, fh);
         return Math.max(max, 1.0f);
     }
@@ -132,6 +132,14 @@ public class CropImageView extends ZoomImageView {
         return edge;
     }
 
+    /**
+     * 获取裁剪框在当前显示图片中的位置，坐标为方向校正后的像素坐标，与屏幕上看到的图片一致
+     * <p>
+     * 显示的图片可能未做方向校正，像素需要按getDisplayRotateBitmap()的方向旋转和翻转后才能用这个区域剪裁；
+     * 直接剪裁请使用cropDisplayBitmap()，从原图剪裁请使用getNormalizedCropRect()
+     *
+     * @return
+     */
     public Rect getMapCropRect() {
         Matrix m = getImageViewMatrix();
         Matrix m2 = new Matrix();
@@ -139,17 +147,175 @@ public class CropImageView extends ZoomImageView {
         m.invert(m2);
         RectF rectf = new RectF(getCropLeft(), getCropTop(), getCropRight(), getCropBottom());
         m2.mapRect(rectf);
+        // 位图坐标按显示时的旋转和翻转换算到方向校正后的坐标
+        mBitmapDisplayed.getRotateMatrix().mapRect(rectf);
         Rect rect = new Rect((int) rectf.left, (int) rectf.top, (int) rectf.right, (int) rectf.bottom);
         rect.bottom = rect.top + rect.right - rect.left;
         return rect;
 
     }
 
+    /**
+     * 获取裁剪框在当前图片中的相对位置，坐标为相对于方向校正后图片宽高的比例(0~1)，与显示图片的采样率无关
+     *
+     * @return 图片未加载时返回null
+     */
+    public RectF getNormalizedCropRect() {
+        if (mBitmapDisplayed.getBitmap() == null) {
+            return null;
+        }
+        Matrix inverse = new Matrix();
+        getImageViewMatrix().invert(inverse);
+        RectF rectf = new RectF(getCropLeft(), getCropTop(), getCropRight(), getCropBottom());
+        // 先映射回位图坐标，再按显示时的旋转换算到方向校正后的坐标
+        inverse.mapRect(rectf);
+        mBitmapDisplayed.getRotateMatrix().mapRect(rectf);
+
+        float width = mBitmapDisplayed.getWidth();
+        float height = mBitmapDisplayed.getHeight();
+        rectf.set(rectf.left / width, rectf.top / height, rectf.right / width, rectf.bottom / height);
+        if (!rectf.intersect(0, 0, 1, 1)) {
+            return null;
+        }
+        return rectf;
+    }
+
+    @Override
+    protected RectF getSavedCropRect() {
+        return mCropView != null ? getNormalizedCropRect() : null;
+    }
+
+    /**
+     * 按保存的剪裁区域恢复，view尺寸改变(如横竖屏切换)后裁剪框内仍是同一块图片
+     */
+    @Override
+    protected void restoreTransform(float[] suppValues, RectF cropRect) {
+        if (cropRect == null || mCropView == null) {
+            super.restoreTransform(suppValues, cropRect);
+            return;
+        }
+        // 比例 -> 方向校正后的坐标 -> 位图坐标 -> 补充矩阵为单位矩阵时的view坐标
+        float width = mBitmapDisplayed.getWidth();
+        float height = mBitmapDisplayed.getHeight();
+        RectF rectf = new RectF(cropRect.left * width, cropRect.top * height, cropRect.right * width,
+                cropRect.bottom * height);
+        Matrix inverse = new Matrix();
+        mBitmapDisplayed.getRotateMatrix().invert(inverse);
+        inverse.mapRect(rectf);
+        mBaseMatrix.mapRect(rectf);
+        RectF crop = new RectF(getCropLeft(), getCropTop(), getCropRight(), getCropBottom());
+        mSuppMatrix.setRectToRect(rectf, crop, Matrix.ScaleToFit.CENTER);
+        setImageMatrix(getImageViewMatrix());
+    }
+
+    /**
+     * 从原图中解码裁剪框对应的区域，得到全分辨率的裁剪结果，而不是在降采样后的显示图片上剪裁
+     *
+     * @param filePath  当前显示图片的原图路径
+     * @param outWidth  输出图片宽度
+     * @param outHeight 输出图片高度
+     * @return
+     * @see ImageUtil#decodeCropRegion(String, RectF, int, int)
+     */
+    public Bitmap cropFromSource(String filePath, int outWidth, int outHeight) {
+        RectF cropRect = getNormalizedCropRect();
+        if (cropRect == null) {
+            return null;
+        }
+        return ImageUtil.decodeCropRegion(filePath, cropRect, outWidth, outHeight);
+    }
+
+    /**
+     * 从当前显示的图片上剪裁裁剪框对应的区域
+     * <p>
+     * 显示的图片可能未做方向校正(见ImageUtil#decodeRotateBitmap)，这里只对剪裁出的区域做旋转和镜像。
+     * 显示的是HARDWARE位图时先取得软件位图，见getSoftwareRotateBitmap()：需要重新解码时不能在主线程调用，
+     * 主线程请使用cropDisplayBitmap(OnExportListener)。
+     *
+     * @return 图片未加载或裁剪框不在图片内时返回null
+     * @throws IllegalStateException 需要重新解码时在主线程调用
+     */
+    public Bitmap cropDisplayBitmap() {
+        Bitmap displayed = mBitmapDisplayed.getBitmap();
+        if (displayed == null) {
+            return null;
+        }
+        return cropSoftwareBitmap(getSoftwareRotateBitmap(), displayed, getDisplayCropRect());
+    }
+
+    /**
+     * 异步从当前显示的图片上剪裁裁剪框对应的区域，需要重新解码时解码和剪裁都在后台线程进行
+     *
+     * @param listener 在主线程回调，结果已做方向校正，旋转角度为0；图片未加载或裁剪框不在图片内时为null
+     * @see #cropDisplayBitmap()
+     */
+    public void cropDisplayBitmap(OnExportListener listener) {
+        // 裁剪框和显示矩阵在主线程取得，后台只处理像素
+        final Bitmap displayed = mBitmapDisplayed.getBitmap();
+        final RectF rectf = displayed != null ? getDisplayCropRect() : null;
+        exportSoftwareRotateBitmap(new ExportTask() {
+            @Override
+            public RotateBitmap run(RotateBitmap software) {
+                Bitmap result = cropSoftwareBitmap(software, displayed, rectf);
+                return result != null ? new RotateBitmap(result) : null;
+            }
+        }, listener);
+    }
+
+    /**
+     * @return 裁剪框在显示的位图上的坐标
+     */
+    private RectF getDisplayCropRect() {
+        Matrix inverse = new Matrix();
+        getImageViewMatrix().invert(inverse);
+        RectF rectf = new RectF(getCropLeft(), getCropTop(), getCropRight(), getCropBottom());
+        inverse.mapRect(rectf);
+        return rectf;
+    }
+
+    /**
+     * 从可以读取像素的图片上剪裁，并对剪裁出的区域做旋转和镜像；可以在任意线程调用
+     *
+     * @param software  getSoftwareRotateBitmap()的结果，与显示的不是同一个位图时在这里释放
+     * @param displayed 显示的位图
+     * @param rectf     裁剪框在显示的位图上的坐标，会被修改
+     */
+    private static Bitmap cropSoftwareBitmap(RotateBitmap software, Bitmap displayed, RectF rectf) {
+        Bitmap bitmap = software.getBitmap();
+        if (bitmap == null) {
+            return null;
+        }
+        // 重新解码的结果在内存预算不足时可能与显示的图片尺寸不同
+        if (bitmap.getWidth() != displayed.getWidth() || bitmap.getHeight() != displayed.getHeight()) {
+            Matrix scale = new Matrix();
+            scale.setScale((float) bitmap.getWidth() / displayed.getWidth(),
+                    (float) bitmap.getHeight() / displayed.getHeight());
+            scale.mapRect(rectf);
+        }
+        Rect region = new Rect(Math.round(rectf.left), Math.round(rectf.top), Math.round(rectf.right),
+                Math.round(rectf.bottom));
+        Bitmap result = null;
+        if (region.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight()) && !region.isEmpty()) {
+            Matrix matrix = new Matrix();
+            if (software.isFlipped()) {
+                matrix.postScale(-1, 1);
+            }
+            matrix.postRotate(software.getRotation());
+            result = ImageUtil.createBitmap(bitmap, region.left, region.top, region.width(), region.height(),
+                    matrix, true);
+        }
+        if (bitmap != displayed && bitmap != result) {
+            ImageUtil.recycleBitmap(bitmap);
+        }
+        return result;
+    }
+
     @Override
     protected void center(final boolean horizontal, final boolean vertical, final float durationMs) {
         if (mBitmapDisplayed.getBitmap() == null) {
             return;
         }
+        finishZoomAnimation();
 
         Matrix m = getImageViewMatrix();
 
@@ -162,20 +328,15 @@ public class CropImageView extends ZoomImageView {
 
         float deltaX = 0, deltaY = 0;
 
-        final PointF orig = new PointF();
-        final PointF old = new PointF();
         if (vertical) {
 
             int viewHeight = getCropBottom() - getCropTop();
             if (height < viewHeight) {
                 deltaY = (viewHeight - height) / 2 - rect.top + getCropTop();
-                orig.y = rect.top;
             } else if (rect.top > getCropTop()) {
                 deltaY = getCropTop() - rect.top;
-                orig.y = rect.top;
             } else if (rect.bottom < getCropBottom()) {
                 deltaY = getCropBottom() - rect.bottom;
-                orig.y = rect.bottom;
             }
         }
 
@@ -183,41 +344,14 @@ public class CropImageView extends ZoomImageView {
             int viewWidth = getCropRight() - getCropLeft();
             if (width < viewWidth) {
                 deltaX = (viewWidth - width) / 2 - rect.left + getCropLeft();
-                orig.x = rect.left;
             } else if (rect.left > getCropLeft()) {
                 deltaX = -rect.left + getCropLeft();
-                orig.x = rect.left;
             } else if (rect.right < getCropRight()) {
                 deltaX = getCropRight() - rect.right;
-                orig.x = rect.right;
             }
         }
 
-        old.set(orig);
-        final float incrementXPerMs = deltaX / durationMs;
-        final float incrementYPerMs = deltaY / durationMs;
-
-        final long startTime = System.currentTimeMillis();
-
-        post(new Runnable() {
-            @Override
-            public void run() {
-                long now = System.currentTimeMillis();
-                float currentMs = Math.min(durationMs, now - startTime);
-                float targetX = orig.x + (incrementXPerMs * currentMs) - old.x;
-                float targetY = orig.y + (incrementYPerMs * currentMs) - old.y;
-                postTranslate(targetX, targetY);
-                setImageMatrix(getImageViewMatrix());
-
-                old.x += targetX;
-                old.y += targetY;
-
-                if (currentMs < durationMs) {
-                    post(this);
-                }
-            }
-        });
-
+        animateTranslate(deltaX, deltaY, durationMs);
     }
 
     /**
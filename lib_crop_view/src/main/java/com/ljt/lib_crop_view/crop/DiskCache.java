@@ -0,0 +1,421 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 磁盘缓存，保存缩小并校正方向后的显示用图片
+ * <p>
+ * 每个缓存文件对应journal中的一条记录，启动时重放journal恢复索引和最近使用顺序，超过字节上限时淘汰最久未使用的文件。
+ * 写入时先写临时文件并sync，再重命名为正式文件，最后写journal，进程在任意时刻被杀都不会留下不完整的缓存文件。
+ *
+ * @author lijintao <br/>
+ */
+public class DiskCache {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "DiskCache";
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "libcropview.DiskCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // journal中的冗余记录超过该数量且多于有效记录时重写journal
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+
+    private final File mJournalFile;
+
+    private long mMaxBytes;
+
+    private long mSize;
+
+    // 文件名 -> 文件大小，按访问顺序排列
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+
+    private Writer mJournalWriter;
+
+    private int mRedundantOpCount;
+
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+
+    private DiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 在应用缓存目录下打开磁盘缓存
+     *
+     * @param context
+     * @param maxBytes 缓存的最大字节数
+     * @return 打开失败时返回null
+     */
+    public static DiskCache open(Context context, long maxBytes) {
+        return open(new File(context.getCacheDir(), "crop_view_images"), maxBytes);
+    }
+
+    /**
+     * 打开磁盘缓存，目录不存在时创建
+     *
+     * @param directory 缓存目录，应只由该缓存使用
+     * @param maxBytes  缓存的最大字节数
+     * @return 打开失败时返回null
+     */
+    public static DiskCache open(File directory, long maxBytes) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return null;
+        }
+        DiskCache cache = new DiskCache(directory, maxBytes);
+        try {
+            synchronized (cache) {
+                if (cache.mJournalFile.exists()) {
+                    try {
+                        cache.readJournal();
+                    } catch (IOException e) {
+                        // journal损坏，丢弃全部缓存
+                        e.printStackTrace();
+                        cache.mEntries.clear();
+                        cache.mSize = 0;
+                    }
+                }
+                cache.deleteUntrackedFiles();
+                cache.rebuildJournal();
+                cache.trimToSize();
+            }
+            return cache;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 将任意字符串key转换为缓存文件名
+     *
+     * @param key
+     * @return
+     */
+    public static String hashKey(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes(UTF_8));
+            StringBuilder builder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+
+    /**
+     * @param key
+     * @return 缓存文件，不存在时返回null
+     */
+    public synchronized File get(String key) {
+        String name = hashKey(key);
+        if (mEntries.get(name) == null) {
+            return null;
+        }
+        File file = new File(mDirectory, name);
+        if (!file.exists()) {
+            removeEntry(name);
+            return null;
+        }
+        appendJournal(READ, name, -1);
+        return file;
+    }
+
+    /**
+     * 写入缓存，先写临时文件再重命名，写入失败时不影响已有缓存
+     *
+     * @param key
+     * @param data
+     * @return 是否写入成功
+     */
+    public boolean put(String key, byte[] data) {
+        String name = hashKey(key);
+        // 同一个key可能被并发写入，每次写入使用不同的临时文件，重命名在锁内完成
+        File tmp;
+        try {
+            tmp = File.createTempFile(name, TMP_SUFFIX, mDirectory);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(tmp);
+            os.write(data);
+            os.flush();
+            os.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return false;
+        } finally {
+            closeQuietly(os);
+        }
+        synchronized (this) {
+            File file = new File(mDirectory, name);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return false;
+            }
+            Long old = mEntries.put(name, (long) data.length);
+            if (old != null) {
+                mSize -= old;
+            }
+            mSize += data.length;
+            appendJournal(CLEAN, name, data.length);
+            trimToSize();
+        }
+        return true;
+    }
+
+    /**
+     * 在后台线程写入缓存
+     *
+     * @param key
+     * @param data 写入完成前不能被修改
+     */
+    public void putAsync(final String key, final byte[] data) {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                put(key, data);
+            }
+        });
+    }
+
+    /**
+     * 在后台线程把位图编码后写入缓存，完成后回收位图
+     *
+     * @param key
+     * @param bitmap  交给缓存持有，调用方之后不能再使用
+     * @param format
+     * @param quality
+     */
+    public void putAsync(final String key, final Bitmap bitmap, final Bitmap.CompressFormat format,
+                         final int quality) {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    if (bitmap.compress(format, quality, os)) {
+                        put(key, os.toByteArray());
+                    }
+                } finally {
+                    ImageUtil.recycleBitmap(bitmap);
+                }
+            }
+        });
+    }
+
+    public synchronized void remove(String key) {
+        removeEntry(hashKey(key));
+    }
+
+    /**
+     * 删除所有缓存文件
+     */
+    public synchronized void clear() {
+        for (String name : new ArrayList<String>(mEntries.keySet())) {
+            removeEntry(name);
+        }
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    private void removeEntry(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, name).delete();
+        appendJournal(REMOVE, name, -1);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        List<String> evicted = new ArrayList<String>();
+        long size = mSize;
+        while (size > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            evicted.add(entry.getKey());
+            size -= entry.getValue();
+        }
+        for (String name : evicted) {
+            removeEntry(name);
+        }
+    }
+
+    private void appendJournal(String op, String name, long size) {
+        if (mJournalWriter == null) {
+            return;
+        }
+        try {
+            mJournalWriter.write(size >= 0 ? op + ' ' + name + ' ' + size + '\n' : op + ' ' + name + '\n');
+            mJournalWriter.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!CLEAN.equals(op) || size < 0) {
+            mRedundantOpCount++;
+        }
+        if (mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+            try {
+                rebuildJournal();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void readJournal() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    // 最后一行可能因进程被杀而不完整
+                    continue;
+                }
+                String name = parts[1];
+                if (CLEAN.equals(parts[0]) && parts.length == 3) {
+                    long size;
+                    try {
+                        size = Long.parseLong(parts[2]);
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    Long old = mEntries.put(name, size);
+                    mSize += size - (old != null ? old : 0);
+                } else if (READ.equals(parts[0])) {
+                    mEntries.get(name);
+                } else if (REMOVE.equals(parts[0])) {
+                    Long old = mEntries.remove(name);
+                    if (old != null) {
+                        mSize -= old;
+                    }
+                }
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * 删除临时文件、journal中没有记录的文件，以及记录了但文件已丢失的条目
+     */
+    private void deleteUntrackedFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.equals(JOURNAL_FILE) && !mEntries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(mDirectory, entry.getKey());
+            if (!file.exists() || file.length() != entry.getValue()) {
+                file.delete();
+                mSize -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 按当前索引重写journal，先写临时文件再重命名
+     */
+    private void rebuildJournal() throws IOException {
+        closeQuietly(mJournalWriter);
+        mJournalWriter = null;
+        File tmp = new File(mDirectory, JOURNAL_FILE_TMP);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), UTF_8));
+        try {
+            writer.write(MAGIC + '\n' + VERSION + '\n');
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(mJournalFile)) {
+            throw new IOException("rename " + tmp + " failed");
+        }
+        mRedundantOpCount = 0;
+        mJournalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mJournalFile, true), UTF_8));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,749 @@
+package com.ljt.lib_crop_view.crop;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 图片头部信息：宽高、格式和EXIF方向
+ * <p>
+ * 只读取文件开头的少量数据，一次打开即可得到解码前需要的全部信息，替代inJustDecodeBounds解码加ExifInterface的两次打开。
+ * 支持JPEG、PNG、WebP和HEIF；方向使用EXIF的取值(1~8)，包括镜像方向。
+ *
+ * @author lijintao <br/>
+ */
+public final class ImageHeader {
+
+    public static final String MIME_JPEG = "image/jpeg";
+    public static final String MIME_PNG = "image/png";
+    public static final String MIME_WEBP = "image/webp";
+    public static final String MIME_HEIF = "image/heif";
+
+    public static final int ORIENTATION_UNDEFINED = 0;
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // 解析EXIF时最多读取的字节数，方向在IFD0中，通常位于开头几百字节内
+    private static final int MAX_EXIF_BYTES = 8 * 1024;
+
+    // HEIF的meta box最多读取的字节数
+    private static final int MAX_META_BYTES = 256 * 1024;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final String mMimeType;
+    private final int mOrientation;
+    // EXIF方向值(SHORT类型)在文件中的位置，没有或无法原地改写时为-1
+    private final long mOrientationOffset;
+    private final boolean mOrientationLittleEndian;
+
+    ImageHeader(int width, int height, String mimeType, int orientation) {
+        this(width, height, mimeType, orientation, -1, false);
+    }
+
+    ImageHeader(int width, int height, String mimeType, int orientation, long orientationOffset,
+                boolean orientationLittleEndian) {
+        mWidth = width;
+        mHeight = height;
+        mMimeType = mimeType;
+        mOrientation = orientation >= ORIENTATION_NORMAL && orientation <= ORIENTATION_ROTATE_270
+                ? orientation : ORIENTATION_UNDEFINED;
+        mOrientationOffset = orientationOffset;
+        mOrientationLittleEndian = orientationLittleEndian;
+    }
+
+    /**
+     * 读取图片文件的头部信息
+     *
+     * @param filePath
+     * @return 无法识别的格式或读取失败时返回null
+     */
+    public static ImageHeader probe(String filePath) {
+        if (filePath == null) {
+            return null;
+        }
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(filePath);
+            return probe(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从已打开的文件中读取头部信息，结束后将文件位置恢复到开头，调用方可以继续用同一个文件描述符解码
+     *
+     * @param is
+     * @return 无法识别的格式时返回null
+     * @throws IOException
+     */
+    public static ImageHeader probeAndRewind(FileInputStream is) throws IOException {
+        try {
+            return probe(is);
+        } finally {
+            is.getChannel().position(0);
+        }
+    }
+
+    /**
+     * 从流的当前位置读取头部信息，不关闭流
+     *
+     * @param is
+     * @return 无法识别的格式或读取失败时返回null
+     */
+    public static ImageHeader probe(InputStream is) {
+        try {
+            Reader reader = new Reader(new BufferedInputStream(is, BUFFER_SIZE));
+            byte[] signature = reader.peek(12);
+            if (signature[0] == (byte) 0xFF && signature[1] == (byte) 0xD8) {
+                return parseJpeg(reader);
+            } else if (signature[0] == (byte) 0x89 && signature[1] == 'P' && signature[2] == 'N' && signature[3] == 'G') {
+                return parsePng(reader);
+            } else if (matches(signature, 0, "RIFF") && matches(signature, 8, "WEBP")) {
+                return parseWebp(reader);
+            } else if (matches(signature, 4, "ftyp")) {
+                return parseHeif(reader);
+            }
+        } catch (IOException e) {
+            // 文件不完整
+            e.printStackTrace();
+        } catch (BufferUnderflowException e) {
+            // box的长度与内容不符
+            e.printStackTrace();
+        } catch (IndexOutOfBoundsException e) {
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            // ByteBuffer.position超出范围
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * @return EXIF方向(1~8)，没有方向信息时为ORIENTATION_UNDEFINED
+     */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * @return 显示时需要顺时针旋转的角度，镜像方向先水平翻转再旋转
+     */
+    public int getRotationDegrees() {
+        return getRotationDegrees(mOrientation);
+    }
+
+    /**
+     * @return 显示时是否需要水平翻转(在旋转之前)
+     */
+    public boolean isFlipped() {
+        return isFlipped(mOrientation);
+    }
+
+    /**
+     * @return 方向校正后的宽度
+     */
+    public int getOrientedWidth() {
+        return getRotationDegrees() % 180 != 0 ? mHeight : mWidth;
+    }
+
+    /**
+     * @return 方向校正后的高度
+     */
+    public int getOrientedHeight() {
+        return getRotationDegrees() % 180 != 0 ? mWidth : mHeight;
+    }
+
+    /**
+     * @return EXIF方向值在文件中的位置，可以原地改写为另一个方向；没有方向标记时返回-1
+     */
+    long getOrientationOffset() {
+        return mOrientationOffset;
+    }
+
+    /**
+     * @return EXIF方向值是否为小端字节序
+     */
+    boolean isOrientationLittleEndian() {
+        return mOrientationLittleEndian;
+    }
+
+    static int getRotationDegrees(int orientation) {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+            case ORIENTATION_TRANSVERSE:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+            case ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+            case ORIENTATION_TRANSPOSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    static boolean isFlipped(int orientation) {
+        return orientation == ORIENTATION_FLIP_HORIZONTAL || orientation == ORIENTATION_FLIP_VERTICAL
+                || orientation == ORIENTATION_TRANSPOSE || orientation == ORIENTATION_TRANSVERSE;
+    }
+
+    /**
+     * 由旋转角度和是否水平翻转得到EXIF方向
+     *
+     * @param degrees 顺时针旋转角度
+     * @param flipped 是否在旋转前水平翻转
+     * @return
+     */
+    static int toOrientation(int degrees, boolean flipped) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return flipped ? ORIENTATION_TRANSVERSE : ORIENTATION_ROTATE_90;
+            case 180:
+                return flipped ? ORIENTATION_FLIP_VERTICAL : ORIENTATION_ROTATE_180;
+            case 270:
+                return flipped ? ORIENTATION_TRANSPOSE : ORIENTATION_ROTATE_270;
+            default:
+                return flipped ? ORIENTATION_FLIP_HORIZONTAL : ORIENTATION_NORMAL;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImageHeader[" + mMimeType + " " + mWidth + "x" + mHeight + ",orientation=" + mOrientation + "]";
+    }
+
+    private static ImageHeader parseJpeg(Reader reader) throws IOException {
+        reader.skip(2);
+        ByteBuffer tiff = null;
+        long tiffOffset = -1;
+        while (true) {
+            if (reader.readU8() != 0xFF) {
+                return null;
+            }
+            int marker = reader.readU8();
+            while (marker == 0xFF) {
+                marker = reader.readU8();
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                // 没有长度字段的标记
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                // 在SOF之前遇到了图像数据
+                return null;
+            }
+            int length = reader.readU16BE() - 2;
+            if (length < 0) {
+                return null;
+            }
+            if (marker == 0xE1 && tiff == null && length > 6) {
+                long offset = reader.position();
+                int size = Math.min(length, MAX_EXIF_BYTES);
+                byte[] data = reader.read(size);
+                reader.skip(length - size);
+                if (matches(data, 0, "Exif") && data[4] == 0 && data[5] == 0) {
+                    tiff = ByteBuffer.wrap(data, 6, size - 6).slice();
+                    tiffOffset = offset + 6;
+                }
+            } else if (isSof(marker)) {
+                reader.skip(1);
+                int height = reader.readU16BE();
+                int width = reader.readU16BE();
+                return createWithExif(width, height, MIME_JPEG, tiff, tiffOffset);
+            } else {
+                reader.skip(length);
+            }
+        }
+    }
+
+    private static boolean isSof(int marker) {
+        // SOF0~SOF15，不包括DHT(C4)、JPG(C8)和DAC(CC)
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static ImageHeader parsePng(Reader reader) throws IOException {
+        reader.skip(8);
+        reader.skip(4);
+        if (!matches(reader.read(4), 0, "IHDR")) {
+            return null;
+        }
+        int width = (int) reader.readU32BE();
+        int height = (int) reader.readU32BE();
+        return new ImageHeader(width, height, MIME_PNG, ORIENTATION_UNDEFINED);
+    }
+
+    private static ImageHeader parseWebp(Reader reader) throws IOException {
+        reader.skip(12);
+        int width = -1;
+        int height = -1;
+        boolean hasExif = false;
+        while (true) {
+            String fourcc;
+            long size;
+            try {
+                fourcc = new String(reader.read(4), "US-ASCII");
+                size = reader.readU32LE();
+            } catch (EOFException e) {
+                break;
+            }
+            long padded = size + (size & 1);
+            if ("VP8 ".equals(fourcc) && width < 0) {
+                // 有损格式：3字节帧标记，3字节起始码，然后是14位宽高
+                reader.skip(3);
+                if (reader.readU8() != 0x9D || reader.readU8() != 0x01 || reader.readU8() != 0x2A) {
+                    return null;
+                }
+                width = reader.readU16LE() & 0x3FFF;
+                height = reader.readU16LE() & 0x3FFF;
+                reader.skip(padded - 10);
+            } else if ("VP8L".equals(fourcc) && width < 0) {
+                // 无损格式：1字节签名，然后是14位的宽-1和高-1
+                if (reader.readU8() != 0x2F) {
+                    return null;
+                }
+                long bits = reader.readU32LE();
+                width = (int) (bits & 0x3FFF) + 1;
+                height = (int) ((bits >> 14) & 0x3FFF) + 1;
+                reader.skip(padded - 5);
+            } else if ("VP8X".equals(fourcc)) {
+                // 扩展格式：标记位中包含是否有EXIF，画布宽高为24位的宽-1和高-1
+                hasExif = (reader.readU8() & 0x08) != 0;
+                reader.skip(3);
+                width = reader.readU24LE() + 1;
+                height = reader.readU24LE() + 1;
+                reader.skip(padded - 10);
+            } else if ("EXIF".equals(fourcc) && hasExif) {
+                long position = reader.position();
+                int length = (int) Math.min(size, MAX_EXIF_BYTES);
+                byte[] data = reader.read(length);
+                int offset = matches(data, 0, "Exif") ? 6 : 0;
+                return createWithExif(width, height, MIME_WEBP,
+                        ByteBuffer.wrap(data, offset, length - offset).slice(), position + offset);
+            } else {
+                reader.skip(padded);
+            }
+            if (width >= 0 && !hasExif) {
+                // 简单格式或没有EXIF的扩展格式，不需要继续读取
+                break;
+            }
+        }
+        return width >= 0 ? new ImageHeader(width, height, MIME_WEBP, ORIENTATION_UNDEFINED) : null;
+    }
+
+    private static ImageHeader parseHeif(Reader reader) throws IOException {
+        long ftypSize = reader.readU32BE();
+        reader.skip(4);
+        String brand = new String(reader.read(4), "US-ASCII");
+        if (!isHeifBrand(brand)) {
+            // 主品牌不是HEIF时检查兼容品牌
+            reader.skip(4);
+            boolean compatible = false;
+            for (long i = 16; i + 4 <= ftypSize; i += 4) {
+                compatible |= isHeifBrand(new String(reader.read(4), "US-ASCII"));
+            }
+            if (!compatible) {
+                return null;
+            }
+        } else {
+            reader.skip(ftypSize - 12);
+        }
+        while (true) {
+            long size = reader.readU32BE();
+            String type = new String(reader.read(4), "US-ASCII");
+            long header = 8;
+            if (size == 1) {
+                size = reader.readU64BE();
+                header = 16;
+            }
+            if ("meta".equals(type)) {
+                if (size - header > MAX_META_BYTES || size < header) {
+                    return null;
+                }
+                ByteBuffer meta = ByteBuffer.wrap(reader.read((int) (size - header)));
+                return parseHeifMeta(meta);
+            }
+            if (size == 0 || size < header) {
+                return null;
+            }
+            reader.skip(size - header);
+        }
+    }
+
+    private static boolean isHeifBrand(String brand) {
+        return "heic".equals(brand) || "heix".equals(brand) || "hevc".equals(brand) || "hevx".equals(brand)
+                || "heim".equals(brand) || "heis".equals(brand) || "mif1".equals(brand) || "msf1".equals(brand);
+    }
+
+    /**
+     * 从meta box中找出主图像(pitm)关联的ispe、irot、imir属性
+     */
+    private static ImageHeader parseHeifMeta(ByteBuffer meta) {
+        meta.order(ByteOrder.BIG_ENDIAN);
+        if (meta.remaining() < 4) {
+            return null;
+        }
+        // version + flags
+        meta.position(4);
+        long primaryItem = -1;
+        ByteBuffer ipco = null;
+        ByteBuffer ipma = null;
+        while (meta.remaining() >= 8) {
+            int start = meta.position();
+            long size = meta.getInt() & 0xFFFFFFFFL;
+            String type = readType(meta);
+            if (size < 8 || start + size > meta.limit()) {
+                break;
+            }
+            if ("pitm".equals(type) && size >= 14) {
+                int version = meta.get() & 0xFF;
+                meta.position(meta.position() + 3);
+                if (version == 0) {
+                    primaryItem = meta.getShort() & 0xFFFF;
+                } else if (size >= 16) {
+                    primaryItem = meta.getInt() & 0xFFFFFFFFL;
+                }
+            } else if ("iprp".equals(type)) {
+                while (meta.position() + 8 <= start + size) {
+                    int childStart = meta.position();
+                    long childSize = meta.getInt() & 0xFFFFFFFFL;
+                    String childType = readType(meta);
+                    if (childSize < 8 || childStart + childSize > start + size) {
+                        break;
+                    }
+                    ByteBuffer child = slice(meta, meta.position(), (int) (childStart + childSize - meta.position()));
+                    if ("ipco".equals(childType)) {
+                        ipco = child;
+                    } else if ("ipma".equals(childType)) {
+                        ipma = child;
+                    }
+                    meta.position((int) (childStart + childSize));
+                }
+            }
+            meta.position((int) (start + size));
+        }
+        if (ipco == null) {
+            return null;
+        }
+
+        // ipco中的属性按出现顺序从1开始编号
+        List<Property> properties = readProperties(ipco);
+        int[] associated = ipma != null ? findAssociations(ipma, primaryItem) : null;
+        int width = -1;
+        int height = -1;
+        int degrees = 0;
+        boolean flipped = false;
+        if (associated == null) {
+            // 找不到主图像的关联时取最大的尺寸，不确定方向
+            for (Property property : properties) {
+                if ("ispe".equals(property.type) && (long) property.width * property.height > (long) width * height) {
+                    width = property.width;
+                    height = property.height;
+                }
+            }
+        } else {
+            // 变换属性按在关联列表中的顺序依次作用，结果记为先水平翻转(flipped)再顺时针旋转degrees
+            for (int index : associated) {
+                if (index < 1 || index > properties.size()) {
+                    continue;
+                }
+                Property property = properties.get(index - 1);
+                if ("ispe".equals(property.type) && width < 0) {
+                    width = property.width;
+                    height = property.height;
+                } else if ("irot".equals(property.type)) {
+                    // 逆时针旋转的角度/90
+                    degrees = (degrees + (4 - property.value) % 4 * 90) % 360;
+                } else if ("imir".equals(property.type)) {
+                    // axis为0时左右翻转：H·R(d) = R(-d)·H；为1时上下翻转，等于左右翻转后旋转180度
+                    degrees = property.value == 0 ? (360 - degrees) % 360 : (540 - degrees) % 360;
+                    flipped = !flipped;
+                }
+            }
+        }
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        int orientation = degrees == 0 && !flipped ? ORIENTATION_UNDEFINED : toOrientation(degrees, flipped);
+        return new ImageHeader(width, height, MIME_HEIF, orientation);
+    }
+
+    /**
+     * ipco中的一个属性，只解析用到的字段
+     */
+    private static final class Property {
+        final String type;
+        int width;
+        int height;
+        // irot的角度或imir的轴
+        int value;
+
+        Property(String type) {
+            this.type = type;
+        }
+    }
+
+    private static List<Property> readProperties(ByteBuffer ipco) {
+        List<Property> properties = new ArrayList<>();
+        while (ipco.remaining() >= 8) {
+            int start = ipco.position();
+            long size = ipco.getInt() & 0xFFFFFFFFL;
+            String type = readType(ipco);
+            if (size < 8 || start + size > ipco.limit()) {
+                break;
+            }
+            Property property = new Property(type);
+            if ("ispe".equals(type) && size >= 20) {
+                ipco.position(ipco.position() + 4);
+                property.width = ipco.getInt();
+                property.height = ipco.getInt();
+            } else if (("irot".equals(type) || "imir".equals(type)) && size >= 9) {
+                property.value = ipco.get() & ("irot".equals(type) ? 0x3 : 0x1);
+            }
+            properties.add(property);
+            ipco.position((int) (start + size));
+        }
+        return properties;
+    }
+
+    /**
+     * @return 主图像关联的属性序号，按关联列表中的顺序；ipma不完整或没有主图像的条目时返回null
+     */
+    private static int[] findAssociations(ByteBuffer ipma, long itemId) {
+        if (ipma.remaining() < 8) {
+            return null;
+        }
+        int version = ipma.get() & 0xFF;
+        int flags = ((ipma.get() & 0xFF) << 16) | ((ipma.get() & 0xFF) << 8) | (ipma.get() & 0xFF);
+        long count = ipma.getInt() & 0xFFFFFFFFL;
+        final int idBytes = version < 1 ? 2 : 4;
+        final int indexBytes = (flags & 1) != 0 ? 2 : 1;
+        for (long i = 0; i < count; i++) {
+            if (ipma.remaining() < idBytes + 1) {
+                return null;
+            }
+            long id = idBytes == 2 ? ipma.getShort() & 0xFFFF : ipma.getInt() & 0xFFFFFFFFL;
+            int associations = ipma.get() & 0xFF;
+            if (ipma.remaining() < associations * indexBytes) {
+                return null;
+            }
+            int[] indices = new int[associations];
+            for (int j = 0; j < associations; j++) {
+                indices[j] = indexBytes == 2 ? ipma.getShort() & 0x7FFF : ipma.get() & 0x7F;
+            }
+            if (id == itemId) {
+                return indices;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tiff       从TIFF头开始的EXIF数据，为null时没有方向
+     * @param tiffOffset TIFF头在文件中的位置
+     */
+    private static ImageHeader createWithExif(int width, int height, String mimeType, ByteBuffer tiff,
+                                              long tiffOffset) {
+        int entry = tiff != null ? findTiffOrientationEntry(tiff) : -1;
+        if (entry < 0) {
+            return new ImageHeader(width, height, mimeType, ORIENTATION_UNDEFINED);
+        }
+        int type = tiff.getShort(entry + 2) & 0xFFFF;
+        // SHORT类型的值在值字段的前两个字节
+        if (type == 3) {
+            return new ImageHeader(width, height, mimeType, tiff.getShort(entry + 8) & 0xFFFF,
+                    tiffOffset + entry + 8, tiff.order() == ByteOrder.LITTLE_ENDIAN);
+        }
+        return new ImageHeader(width, height, mimeType, tiff.getInt(entry + 8));
+    }
+
+    /**
+     * 解析TIFF格式的EXIF数据，在IFD0中查找方向
+     *
+     * @param tiff 从TIFF头开始的数据，会按TIFF头设置字节序
+     * @return 方向所在的IFD条目在tiff中的位置，没有时返回-1
+     */
+    private static int findTiffOrientationEntry(ByteBuffer tiff) {
+        if (tiff.remaining() < 8) {
+            return -1;
+        }
+        byte b0 = tiff.get(0);
+        byte b1 = tiff.get(1);
+        if (b0 == 'I' && b1 == 'I') {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (b0 == 'M' && b1 == 'M') {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return -1;
+        }
+        if (tiff.getShort(2) != 42) {
+            return -1;
+        }
+        long ifd = tiff.getInt(4) & 0xFFFFFFFFL;
+        if (ifd < 8 || ifd + 2 > tiff.limit()) {
+            return -1;
+        }
+        int position = (int) ifd;
+        int count = tiff.getShort(position) & 0xFFFF;
+        position += 2;
+        for (int i = 0; i < count && position + 12 <= tiff.limit(); i++, position += 12) {
+            if ((tiff.getShort(position) & 0xFFFF) == TAG_ORIENTATION) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static String readType(ByteBuffer buffer) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buffer.get() & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    private static boolean matches(byte[] data, int offset, String value) {
+        if (data.length < offset + value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (data[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 顺序读取输入流，skip优先使用底层流的skip，对文件来说只是移动位置
+     */
+    private static final class Reader {
+        private final InputStream mIn;
+        // 相对于开始读取时的位置
+        private long mPosition;
+
+        Reader(InputStream in) {
+            mIn = in;
+        }
+
+        long position() {
+            return mPosition;
+        }
+
+        byte[] peek(int length) throws IOException {
+            mIn.mark(length);
+            long position = mPosition;
+            byte[] data = read(length);
+            mIn.reset();
+            mPosition = position;
+            return data;
+        }
+
+        byte[] read(int length) throws IOException {
+            byte[] data = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int count = mIn.read(data, offset, length - offset);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                offset += count;
+            }
+            mPosition += length;
+            return data;
+        }
+
+        int readU8() throws IOException {
+            int b = mIn.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            mPosition++;
+            return b;
+        }
+
+        int readU16BE() throws IOException {
+            return (readU8() << 8) | readU8();
+        }
+
+        int readU16LE() throws IOException {
+            return readU8() | (readU8() << 8);
+        }
+
+        int readU24LE() throws IOException {
+            return readU8() | (readU8() << 8) | (readU8() << 16);
+        }
+
+        long readU32BE() throws IOException {
+            return ((long) readU16BE() << 16) | readU16BE();
+        }
+
+        long readU32LE() throws IOException {
+            return readU16LE() | ((long) readU16LE() << 16);
+        }
+
+        long readU64BE() throws IOException {
+            return (readU32BE() << 32) | readU32BE();
+        }
+
+        void skip(long count) throws IOException {
+            while (count > 0) {
+                long skipped = mIn.skip(count);
+                if (skipped <= 0) {
+                    readU8();
+                    count--;
+                    continue;
+                }
+                mPosition += skipped;
+                count -= skipped;
+            }
+        }
+    }
+}
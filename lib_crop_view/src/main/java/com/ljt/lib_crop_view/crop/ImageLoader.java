@@ -0,0 +1,70 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片解码使用的后台线程池
+ *
+ * @author lijintao <br/>
+ */
+final class ImageLoader {
+
+    private static final int THREAD_COUNT = 2;
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private ImageLoader() {
+    }
+
+    private static ExecutorService createExecutor() {
+        return newExecutor("ImageLoader", THREAD_COUNT);
+    }
+
+    /**
+     * 创建后台优先级的守护线程池，空闲30秒后线程退出
+     *
+     * @param name    线程名前缀，线程名为name-N
+     * @param threads 线程数
+     */
+    static ThreadPoolExecutor newExecutor(final String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, name + "-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static Future<?> submit(Runnable task) {
+        return EXECUTOR.submit(task);
+    }
+
+    static void postToMain(Runnable task) {
+        MAIN_HANDLER.post(task);
+    }
+}
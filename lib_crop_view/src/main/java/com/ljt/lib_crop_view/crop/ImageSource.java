@@ -0,0 +1,147 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+/**
+ * 待显示的图片来源，用于在后台线程解码
+ *
+ * @author lijintao <br/>
+ * @see ZoomImageView#setImageSource(ImageSource, ZoomImageView.OnImageLoadListener)
+ */
+public abstract class ImageSource {
+
+    /**
+     * @param filePath 本地图片路径
+     * @return
+     */
+    public static ImageSource file(String filePath) {
+        return new FileSource(filePath);
+    }
+
+    /**
+     * @param resId 图片资源id
+     * @return
+     */
+    public static ImageSource resource(int resId) {
+        return new ResourceSource(resId);
+    }
+
+    /**
+     * @return 图片来源的唯一标识
+     */
+    public abstract String getId();
+
+    /**
+     * 解码图片，在后台线程调用
+     *
+     * @param context
+     * @param maxResolution 显示所需的最大边长
+     * @return 失败时返回null
+     */
+    protected abstract Bitmap decode(Context context, int maxResolution);
+
+    /**
+     * 解码图片，方向记录在返回的RotateBitmap中而不旋转像素，在后台线程调用；默认返回方向已校正的decode结果
+     *
+     * @param context
+     * @param maxResolution 显示所需的最大边长
+     * @return 失败时返回null
+     */
+    protected ZoomImageView.RotateBitmap decodeRotateBitmap(Context context, int maxResolution) {
+        Bitmap bitmap = decode(context, maxResolution);
+        return bitmap != null ? new ZoomImageView.RotateBitmap(bitmap) : null;
+    }
+
+    /**
+     * 按用途解码图片，在后台线程调用；DISPLAY时可以返回不能读取像素的HARDWARE位图，EXPORT时必须返回软件位图。
+     * 默认忽略用途，返回decodeRotateBitmap(Context, int)的结果
+     *
+     * @param context
+     * @param maxResolution 显示所需的最大边长
+     * @param usage         位图的用途
+     * @return 失败时返回null
+     * @see BitmapConfigPolicy
+     */
+    protected ZoomImageView.RotateBitmap decodeRotateBitmap(Context context, int maxResolution,
+                                                            BitmapConfigPolicy.Usage usage) {
+        return decodeRotateBitmap(context, maxResolution);
+    }
+
+    /**
+     * 解码一张低分辨率的预览图，在decode之前调用，用于尽快显示；宽高比和方向需与decode的结果显示出来时一致
+     *
+     * @param context
+     * @param maxResolution 显示所需的最大边长
+     * @return 不需要预览图时返回null
+     */
+    protected Bitmap decodePreview(Context context, int maxResolution) {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+
+    static class FileSource extends ImageSource {
+        final String mFilePath;
+
+        FileSource(String filePath) {
+            mFilePath = filePath;
+        }
+
+        @Override
+        public String getId() {
+            return "file:" + mFilePath;
+        }
+
+        @Override
+        protected Bitmap decode(Context context, int maxResolution) {
+            return ImageUtil.decodeFile(mFilePath, maxResolution);
+        }
+
+        @Override
+        protected ZoomImageView.RotateBitmap decodeRotateBitmap(Context context, int maxResolution) {
+            return ImageUtil.decodeRotateBitmap(mFilePath, maxResolution);
+        }
+
+        @Override
+        protected ZoomImageView.RotateBitmap decodeRotateBitmap(Context context, int maxResolution,
+                                                                BitmapConfigPolicy.Usage usage) {
+            return ImageUtil.decodeRotateBitmap(mFilePath, maxResolution, usage);
+        }
+
+        @Override
+        protected Bitmap decodePreview(Context context, int maxResolution) {
+            return ImageUtil.decodePreview(mFilePath, maxResolution);
+        }
+    }
+
+    static class ResourceSource extends ImageSource {
+        final int mResId;
+
+        ResourceSource(int resId) {
+            mResId = resId;
+        }
+
+        @Override
+        public String getId() {
+            return "res:" + mResId;
+        }
+
+        @Override
+        protected Bitmap decode(Context context, int maxResolution) {
+            return ImageUtil.decodeResource(context.getResources(), mResId);
+        }
+
+        @Override
+        protected ZoomImageView.RotateBitmap decodeRotateBitmap(Context context, int maxResolution,
+                                                                BitmapConfigPolicy.Usage usage) {
+            Bitmap.Config config = ImageUtil.getConfigPolicy().selectForDecode(usage, null);
+            Bitmap bitmap = ImageUtil.decodeResource(context.getResources(), mResId, config,
+                    usage == BitmapConfigPolicy.Usage.DISPLAY);
+            return bitmap != null ? new ZoomImageView.RotateBitmap(bitmap) : null;
+        }
+    }
+}
@@ -7,29 +7,33 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
-import android.graphics.PorterDuff;
-import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.NinePatchDrawable;
 import android.graphics.drawable.TransitionDrawable;
+import android.os.Build;
 import android.util.DisplayMetrics;
 import android.widget.ImageView;
 
 import androidx.exifinterface.media.ExifInterface;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -42,6 +46,205 @@ public class ImageUtil {
 
     private static final String TAG = "ImageUtil";
 
+    private static volatile BitmapPool sBitmapPool;
+
+    private static volatile BitmapMemoryCache sMemoryCache;
+
+    private static volatile DiskCache sDiskCache;
+
+    private static volatile ByteArrayPool sByteArrayPool;
+
+    private static volatile MemoryGovernor sMemoryGovernor;
+
+    private static volatile BitmapConfigPolicy sConfigPolicy = new BitmapConfigPolicy(false);
+
+    private static volatile ScaleFilter sScaleFilter = ScaleFilter.BILINEAR;
+
+    // compressToMaxBytes使用，BitmapEncoder非线程安全
+    private static final ThreadLocal<BitmapEncoder> sEncoders = new ThreadLocal<BitmapEncoder>() {
+        @Override
+        protected BitmapEncoder initialValue() {
+            return new BitmapEncoder();
+        }
+    };
+
+    // 写入磁盘缓存的JPEG质量
+    private static final int DISK_CACHE_QUALITY = 90;
+
+    // 预览图边长为正式显示的1/8
+    private static final int PREVIEW_SCALE = 8;
+
+    // 需要旋转像素时，输出数据流的最大边长和JPEG质量
+    private static final int STREAM_MAX_RESOLUTION = 1024;
+    private static final int STREAM_QUALITY = 75;
+
+    /**
+     * 按目标宽高解码时的缩放方式
+     */
+    public enum FitMode {
+        /**
+         * 保持宽高比缩放，使图片恰好放入目标宽高
+         */
+        FIT_INSIDE,
+        /**
+         * 保持宽高比缩放至铺满目标宽高，居中裁掉多余部分
+         */
+        CENTER_CROP
+    }
+
+    /**
+     * 缩小图片时的过滤方式
+     */
+    public enum ScaleFilter {
+        /**
+         * Canvas绘制时的双线性过滤，最快，缩小超过2倍时有锯齿
+         */
+        BILINEAR,
+        /**
+         * 面积平均，缩小时没有锯齿
+         */
+        AREA_AVERAGE,
+        /**
+         * Lanczos-3，比面积平均更锐利
+         */
+        LANCZOS3
+    }
+
+    /**
+     * 设置位图复用池，设置后创建、变换和解码位图时优先复用池中的位图，内部产生的中间位图也会放回池中
+     *
+     * @param pool 为null时不复用
+     */
+    public static void setBitmapPool(BitmapPool pool) {
+        sBitmapPool = pool;
+    }
+
+    public static BitmapPool getBitmapPool() {
+        return sBitmapPool;
+    }
+
+    /**
+     * 设置已解码位图的内存缓存，设置后decodeFile、decodeRotateBitmap、decodeResource先查缓存再解码
+     * <p>
+     * 只有DISPLAY用途的解码结果放入缓存，与缓存、正在显示的视图共享同一个实例，调用方不能修改或回收；
+     * 其他解码方法返回的位图归调用方所有，命中缓存时返回副本，解码结果也不放入缓存。
+     *
+     * @param cache 为null时不缓存
+     */
+    public static void setMemoryCache(BitmapMemoryCache cache) {
+        sMemoryCache = cache;
+    }
+
+    public static BitmapMemoryCache getMemoryCache() {
+        return sMemoryCache;
+    }
+
+    /**
+     * 设置磁盘缓存，设置后decodeFile会把缩小并校正方向后的图片写入缓存，下次打开时直接读取缓存的小图
+     *
+     * @param cache 为null时不缓存
+     */
+    public static void setDiskCache(DiskCache cache) {
+        sDiskCache = cache;
+    }
+
+    public static DiskCache getDiskCache() {
+        return sDiskCache;
+    }
+
+    /**
+     * 设置字节数组复用池，设置后图片与流、字节数组之间的转换复用池中的缓冲区
+     *
+     * @param pool 为null时不复用
+     */
+    public static void setByteArrayPool(ByteArrayPool pool) {
+        sByteArrayPool = pool;
+    }
+
+    public static ByteArrayPool getByteArrayPool() {
+        return sByteArrayPool;
+    }
+
+    /**
+     * 设置内存预算，设置后分配和解码位图前先估算占用，超出预算时按固定顺序降级，而不是等到OutOfMemoryError
+     *
+     * @param governor 为null时不限制
+     */
+    public static void setMemoryGovernor(MemoryGovernor governor) {
+        sMemoryGovernor = governor;
+    }
+
+    public static MemoryGovernor getMemoryGovernor() {
+        return sMemoryGovernor;
+    }
+
+    /**
+     * 设置解码时选择Bitmap.Config的策略，默认按非低内存设备处理
+     *
+     * @param policy 不能为null
+     */
+    public static void setConfigPolicy(BitmapConfigPolicy policy) {
+        sConfigPolicy = policy;
+    }
+
+    public static BitmapConfigPolicy getConfigPolicy() {
+        return sConfigPolicy;
+    }
+
+    /**
+     * 设置按目标宽高解码(decodeFile、decodeCropRegion)时缩小使用的过滤方式，默认BILINEAR
+     *
+     * @param filter 不能为null
+     * @see BitmapScaler
+     */
+    public static void setScaleFilter(ScaleFilter filter) {
+        sScaleFilter = filter;
+    }
+
+    public static ScaleFilter getScaleFilter() {
+        return sScaleFilter;
+    }
+
+    /**
+     * 以路径、修改时间和文件大小标识本地文件，文件被修改后标识随之改变
+     *
+     * @param filePath
+     * @return
+     */
+    static String getFileIdentity(String filePath) {
+        File file = new File(filePath);
+        return filePath + "@" + file.lastModified() + ":" + file.length();
+    }
+
+    /**
+     * @param bitmap
+     * @return 位图是否仍被内存缓存引用，被引用的位图不能回收或复用
+     */
+    static boolean isBitmapCached(Bitmap bitmap) {
+        BitmapMemoryCache cache = sMemoryCache;
+        return cache != null && cache.contains(bitmap);
+    }
+
+    /**
+     * 释放不再使用的位图，设置了复用池时放回池中，否则直接回收
+     *
+     * @param bitmap
+     */
+    static void recycleBitmap(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        if (isBitmapCached(bitmap)) {
+            return;
+        }
+        BitmapPool pool = sBitmapPool;
+        if (pool != null) {
+            pool.put(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
     public static Bitmap zoomImage(Context context, Bitmap bgimage, double newWidth, double newHeight) {
         // 获取这个图片的宽和高
         final float width = bgimage.getWidth();
@@ -82,47 +285,63 @@ public class ImageUtil {
         if (bitmap == null) {
             return null;
         }
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        if (sBitmapPool != null && (width != w || height != h)) {
+            Matrix matrix = new Matrix();
+            matrix.setScale((float) w / width, (float) h / height);
+            return createBitmap(bitmap, 0, 0, width, height, matrix, false);
+        }
         return Bitmap.createScaledBitmap(bitmap, w, h, false);
     }
 
+    /**
+     * 按指定的过滤方式缩放图片
+     *
+     * @param bitmap
+     * @param w
+     * @param h
+     * @param filter BILINEAR时双线性过滤，其他方式见{@link BitmapScaler}
+     * @return 尺寸不变时返回原图
+     */
+    public static Bitmap zoomBitmap(Bitmap bitmap, int w, int h, ScaleFilter filter) {
+        if (bitmap == null) {
+            return null;
+        }
+        if (bitmap.getWidth() == w && bitmap.getHeight() == h) {
+            return bitmap;
+        }
+        if (filter == ScaleFilter.BILINEAR) {
+            return new BitmapTransform().scale(w, h).apply(bitmap);
+        }
+        return BitmapScaler.scale(bitmap, w, h, filter);
+    }
+
     /**
      * 对图片进行混合处理
+     * <p>
+     * 两张图片在绘制时缩放，不产生缩放后的副本；同一张叠加图用于多张图片时使用{@link OverlayCompositor}
+     * <p>
+     * 不回收传入的位图，top和bottom仍归调用方所有
      *
      * @param top
      * @param bottom
-     * @return
+     * @return 分配失败时返回null
      */
     public static Bitmap mixBitmap(Bitmap top, int topWidth, int topHeight, Bitmap bottom, int bottomWidth,
                                    int bottomHeight) {
-        try {
-            top = zoomBitmap(top, topWidth, topHeight);
-            bottom = zoomBitmap(bottom, bottomWidth, bottomHeight);
-            Bitmap bmp = createBitmap(bottomWidth, bottomHeight, Bitmap.Config.ARGB_8888);
-            Canvas canvas = null;
-            if (bmp != null) {
-                canvas = new Canvas(bmp);
-            }
-            if (canvas != null) {
-                canvas.drawColor(0x00ffffff);
-                RectF dst = new RectF(0, 0, bottomWidth, bottomHeight);
-                Rect src = new Rect(0, 0, bottomWidth, bottomHeight);
-                canvas.drawBitmap(bottom, src, dst, new Paint());
-                bottom.recycle();
-                int xOffset = (bottomWidth - topWidth) / 2;
-                int yOffset = (bottomHeight - topHeight) / 2;
-                dst = new RectF(xOffset, yOffset, topWidth + xOffset, topHeight + yOffset);
-                src = new Rect(0, 0, topWidth, topHeight);
-                canvas.drawBitmap(top, src, dst, new Paint());
-            }
-            if (top != null) {
-                top.recycle();
-            }
-            return bmp;
-        } catch (OutOfMemoryError e) {
-            // TODO: handle exception
-
+        Bitmap bmp = top != null && bottom != null
+                ? createBitmap(bottomWidth, bottomHeight, Bitmap.Config.ARGB_8888) : null;
+        if (bmp == null) {
+            return null;
         }
-        return bottom;
+        Canvas canvas = new Canvas(bmp);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        canvas.drawBitmap(bottom, null, new RectF(0, 0, bottomWidth, bottomHeight), paint);
+        int xOffset = (bottomWidth - topWidth) / 2;
+        int yOffset = (bottomHeight - topHeight) / 2;
+        canvas.drawBitmap(top, null, new RectF(xOffset, yOffset, topWidth + xOffset, topHeight + yOffset), paint);
+        return bmp;
     }
 
     /**
@@ -135,11 +354,23 @@ public class ImageUtil {
     public static Bitmap cropBitmap(Bitmap bitmap, Rect r) {
         int width = r.right - r.left;
         int height = r.bottom - r.top;
-        Bitmap bmp = createBitmap(width, height, Bitmap.Config.RGB_565);
-        RectF dst = new RectF(0, 0, width, height);
-        Canvas canvas = new Canvas(bmp);
-        final Paint paint = new Paint();
-        canvas.drawBitmap(bitmap, r, dst, paint);
+        // 硬件位图不能绘制到软件Canvas上，先复制为软件位图
+        Bitmap source = isHardware(bitmap) ? bitmap.copy(Bitmap.Config.ARGB_8888, false) : bitmap;
+        if (source == null) {
+            return null;
+        }
+        // 保留透明度，圆形剪裁等带透明区域的图片不能使用RGB_565
+        Bitmap bmp = createBitmap(width, height,
+                sConfigPolicy.select(BitmapConfigPolicy.Usage.EXPORT, !source.hasAlpha()));
+        if (bmp != null) {
+            RectF dst = new RectF(0, 0, width, height);
+            Canvas canvas = new Canvas(bmp);
+            final Paint paint = new Paint();
+            canvas.drawBitmap(source, r, dst, paint);
+        }
+        if (source != bitmap) {
+            source.recycle();
+        }
         return bmp;
     }
 
@@ -174,10 +405,9 @@ public class ImageUtil {
      * @return
      */
     public static Bitmap getRoundCorner(String imagePath, int round, int size) {
-        Bitmap bitmap = decodeFile(imagePath, size * 2);
-        bitmap = centerCropBitmap(bitmap);
-        bitmap = getZoomRoundedCornerBitmap(bitmap, round, size, size);
-        return bitmap;
+        // 只解码裁剪区域，方向校正、缩放和圆角遮罩合并为一次绘制
+        return decodeFile(imagePath, size, size, FitMode.CENTER_CROP, Bitmap.Config.RGB_565,
+                new BitmapTransform().roundRect(round).scaleFilter(sScaleFilter));
     }
 
     /**
@@ -263,24 +493,7 @@ public class ImageUtil {
     }
 
     public static Bitmap getRoundedCornerBitmap(Bitmap bitmap, float roundPx) {
-        if (bitmap == null) {
-            return null;
-        }
-        Bitmap output = createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(output);
-
-        final int color = 0xff424242;
-        final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
-        final RectF rectF = new RectF(rect);
-
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(color);
-        canvas.drawRoundRect(rectF, roundPx, roundPx, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
-        return output;
+        return new BitmapTransform().roundRect(roundPx).apply(bitmap);
     }
 
     /**
@@ -290,22 +503,7 @@ public class ImageUtil {
      * @return
      */
     public static Bitmap getRoundedBitmap(Bitmap bitmap) {
-        if (bitmap == null) {
-            return null;
-        }
-        Bitmap output = createBitmap(bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(output);
-
-        final int color = 0xff000000;
-        final Paint paint = new Paint(1);
-        final Rect rect = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
-        final RectF rectF = new RectF(rect);
-        paint.setAntiAlias(true);
-        paint.setColor(color);
-        canvas.drawOval(rectF, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bitmap, rect, rect, paint);
-        return output;
+        return new BitmapTransform().circle().apply(bitmap);
     }
 
     /**
@@ -318,35 +516,8 @@ public class ImageUtil {
      * @return
      */
     public static Bitmap getZoomRoundedCornerBitmap(Bitmap bitmap, float roundPx, int w, int h) {
-        if (bitmap == null) {
-            return null;
-        }
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        Matrix matrix = new Matrix();
-        float scaleWidht = ((float) w / width);
-        float scaleHeight = ((float) h / height);
-        matrix.postScale(scaleWidht, scaleHeight);
-        Bitmap bm = createBitmap(bitmap, 0, 0, width, height, matrix, true);
-        int bmW = 0;
-        int bmH = 0;
-        if (bm != null) {
-            bmW = bm.getWidth();
-            bmH = bm.getHeight();
-        }
-        Bitmap output = createBitmap(bmW, bmH, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(output);
-        final int color = 0xff424242;
-        final Paint paint = new Paint();
-        final Rect rect = new Rect(0, 0, bmW, bmH);
-        final RectF rectF = new RectF(rect);
-        paint.setAntiAlias(true);
-        canvas.drawARGB(0, 0, 0, 0);
-        paint.setColor(color);
-        canvas.drawRoundRect(rectF, roundPx, roundPx, paint);
-        paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
-        canvas.drawBitmap(bm, rect, rect, paint);
-        return output;
+        // 缩放和圆角一次绘制，不再产生缩放后的中间位图
+        return new BitmapTransform().scale(w, h).roundRect(roundPx).apply(bitmap);
     }
 
     /**
@@ -378,7 +549,8 @@ public class ImageUtil {
      */
     public static Bitmap readBitMap(Context context, int resId) {
         BitmapFactory.Options opt = new BitmapFactory.Options();
-        opt.inPreferredConfig = Bitmap.Config.RGB_565;
+        // 格式未知，由策略决定是否使用RGB_565
+        opt.inPreferredConfig = sConfigPolicy.selectForDecode(BitmapConfigPolicy.Usage.EXPORT, null);
         opt.inPurgeable = true;
         opt.inInputShareable = true;
         // 获取资源图片
@@ -392,46 +564,271 @@ public class ImageUtil {
         return bitmap;
     }
 
+    /**
+     * 流只能读取一次，无法先读取尺寸再按预算调整参数；内存不足时清空缓存，
+     * 流支持mark/reset(如资源流)时提高采样率重试一次，否则返回null
+     */
     public static Bitmap decodeStream(InputStream is, Rect outPadding, BitmapFactory.Options opts) {
-        try {
-            return BitmapFactory.decodeStream(is, outPadding, opts);
-        } catch (OutOfMemoryError e) {
-            return null;
+        MemoryGovernor governor = sMemoryGovernor;
+        final boolean resettable = governor != null && is != null && is.markSupported();
+        if (resettable) {
+            is.mark(Integer.MAX_VALUE);
+        }
+        BitmapFactory.Options options = opts;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return track(governor, BitmapFactory.decodeStream(is, outPadding, options));
+            } catch (OutOfMemoryError e) {
+                if (options == null) {
+                    options = new BitmapFactory.Options();
+                }
+                if (!resettable || !retryDecodeAfterOutOfMemory(governor, attempt, e, options.outWidth,
+                        options.outHeight, options)) {
+                    return null;
+                }
+                try {
+                    is.reset();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    return null;
+                }
+            }
         }
     }
 
     public static Bitmap decodeResource(Resources res, int id) {
-        try {
-            return BitmapFactory.decodeResource(res, id);
-        } catch (OutOfMemoryError e) {
-            return null;
+        return decodeResource(res, id, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * @param res
+     * @param id
+     * @param config 解码使用的Bitmap.Config，见BitmapConfigPolicy
+     * @return 归调用方所有，可以修改或回收
+     */
+    public static Bitmap decodeResource(Resources res, int id, Bitmap.Config config) {
+        return decodeResource(res, id, config, false);
+    }
+
+    /**
+     * @param shared 为true时结果放入内存缓存并与其他使用者共享，不能修改或回收；为false时命中缓存返回副本
+     */
+    static Bitmap decodeResource(Resources res, int id, Bitmap.Config config, boolean shared) {
+        BitmapMemoryCache cache = sMemoryCache;
+        BitmapMemoryCache.Key key = null;
+        if (cache != null) {
+            key = BitmapMemoryCache.Key.forResource(res, id, config);
+            Bitmap cached = cache.get(key);
+            Bitmap result = cached == null || shared ? cached : copyCached(cached);
+            if (result != null) {
+                return result;
+            }
+        }
+        MemoryGovernor governor = sMemoryGovernor;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        boolean degraded = false;
+        if (governor != null) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeResource(res, id, options);
+            options.inJustDecodeBounds = false;
+            degraded = governor.adjustDecode(options.outWidth, options.outHeight, options,
+                    ImageHeader.MIME_JPEG.equals(options.outMimeType) && !BitmapConfigPolicy.isHardware(config));
+        }
+        final int srcWidth = options.outWidth;
+        final int srcHeight = options.outHeight;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Bitmap bitmap = track(governor, BitmapFactory.decodeResource(res, id, options));
+                // 降级解码的结果与key描述的不一致，不放入缓存
+                if (cache != null && shared && !degraded) {
+                    cache.put(key, bitmap);
+                }
+                return bitmap;
+            } catch (OutOfMemoryError e) {
+                if (!retryDecodeAfterOutOfMemory(governor, attempt, e, srcWidth, srcHeight, options)) {
+                    return null;
+                }
+                degraded = true;
+            }
         }
     }
 
+    /**
+     * 设置了MemoryGovernor时，分配前先预留空间；仍然内存不足时清空缓存重试一次，再失败才返回null
+     */
     public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height, Matrix m, boolean filter) {
-        try {
-            return Bitmap.createBitmap(source, x, y, width, height, m, filter);
-        } catch (OutOfMemoryError e) {
-            return null;
+        MemoryGovernor governor = sMemoryGovernor;
+        RectF bounds = new RectF(0, 0, width, height);
+        if (m != null) {
+            m.mapRect(bounds);
+        }
+        final int outWidth = Math.round(bounds.width());
+        final int outHeight = Math.round(bounds.height());
+        final Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        // 预留失败时内存缓存和复用池已经淘汰干净，内存不足后清空缓存重试不会有效果
+        final boolean reserved = governor == null || governor.reserve(outWidth, outHeight, config);
+        for (int attempt = reserved ? 0 : 1; ; attempt++) {
+            try {
+                BitmapPool pool = sBitmapPool;
+                Bitmap bitmap;
+                if (pool != null && canDrawFromPool(source, x, y, width, height, m)) {
+                    bitmap = createBitmapFromPool(pool, source, new Rect(x, y, x + width, y + height), m, filter);
+                } else {
+                    bitmap = Bitmap.createBitmap(source, x, y, width, height, m, filter);
+                }
+                return track(governor, bitmap);
+            } catch (OutOfMemoryError e) {
+                if (!retryAfterOutOfMemory(governor, attempt, e, outWidth, outHeight, config)) {
+                    return null;
+                }
+            }
         }
     }
 
     public static Bitmap createBitmap(int width, int height, Bitmap.Config config) {
-        try {
-            return Bitmap.createBitmap(width, height, config);
-        } catch (OutOfMemoryError e) {
-            return null;
+        MemoryGovernor governor = sMemoryGovernor;
+        // 预留失败时内存缓存和复用池已经淘汰干净，内存不足后清空缓存重试不会有效果
+        final boolean reserved = governor == null || governor.reserve(width, height, config);
+        for (int attempt = reserved ? 0 : 1; ; attempt++) {
+            try {
+                BitmapPool pool = sBitmapPool;
+                if (pool != null) {
+                    return track(governor, pool.get(width, height, config));
+                }
+                return track(governor, Bitmap.createBitmap(width, height, config));
+            } catch (OutOfMemoryError e) {
+                if (!retryAfterOutOfMemory(governor, attempt, e, width, height, config)) {
+                    return null;
+                }
+            }
         }
     }
 
     public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height) {
+        MemoryGovernor governor = sMemoryGovernor;
+        final Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        // 预留失败时内存缓存和复用池已经淘汰干净，内存不足后清空缓存重试不会有效果
+        final boolean reserved = governor == null || governor.reserve(width, height, config);
+        for (int attempt = reserved ? 0 : 1; ; attempt++) {
+            try {
+                BitmapPool pool = sBitmapPool;
+                if (pool != null && canDrawFromPool(source, x, y, width, height, null)) {
+                    return track(governor,
+                            createBitmapFromPool(pool, source, new Rect(x, y, x + width, y + height), null, false));
+                }
+                return track(governor, Bitmap.createBitmap(source, x, y, width, height));
+            } catch (OutOfMemoryError e) {
+                if (!retryAfterOutOfMemory(governor, attempt, e, width, height, config)) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 复制缓存中的位图，调用方修改或回收副本不影响缓存和正在显示的视图
+     *
+     * @return 内存不足时返回null
+     */
+    private static Bitmap copyCached(Bitmap cached) {
+        Bitmap.Config config = cached.getConfig() != null ? cached.getConfig() : Bitmap.Config.ARGB_8888;
         try {
-            return Bitmap.createBitmap(source, x, y, width, height);
+            return track(sMemoryGovernor, cached.copy(config, !isHardware(cached)));
         } catch (OutOfMemoryError e) {
+            e.printStackTrace();
             return null;
         }
     }
 
+    private static Bitmap track(MemoryGovernor governor, Bitmap bitmap) {
+        if (governor != null) {
+            governor.track(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 第一次内存不足时通知MemoryGovernor清空缓存
+     *
+     * @return 是否应该重试
+     */
+    private static boolean retryAfterOutOfMemory(MemoryGovernor governor, int attempt, OutOfMemoryError e,
+                                                 int width, int height, Bitmap.Config config) {
+        e.printStackTrace();
+        if (governor == null || attempt > 0) {
+            return false;
+        }
+        governor.onOutOfMemory(width, height, config);
+        return true;
+    }
+
+    /**
+     * 第一次解码内存不足时通知MemoryGovernor清空缓存，并提高options的采样率
+     *
+     * @param srcWidth  要解码的原图(或区域)宽度，未知时为0
+     * @param srcHeight 要解码的原图(或区域)高度，未知时为0
+     * @return 是否应该用调整后的options重试
+     */
+    private static boolean retryDecodeAfterOutOfMemory(MemoryGovernor governor, int attempt, OutOfMemoryError e,
+                                                       int srcWidth, int srcHeight, BitmapFactory.Options options) {
+        e.printStackTrace();
+        if (governor == null || attempt > 0) {
+            return false;
+        }
+        return governor.onDecodeOutOfMemory(srcWidth, srcHeight, options,
+                ImageHeader.MIME_JPEG.equals(options.outMimeType)
+                        && !BitmapConfigPolicy.isHardware(options.inPreferredConfig));
+    }
+
+    /**
+     * 与Bitmap.createBitmap行为一致：不可变的原图未做任何变换时直接返回原图，硬件位图无法绘制到软件Canvas
+     */
+    private static boolean canDrawFromPool(Bitmap source, int x, int y, int width, int height, Matrix m) {
+        if (isHardware(source)) {
+            return false;
+        }
+        return source.isMutable() || x != 0 || y != 0 || width != source.getWidth() || height != source.getHeight()
+                || (m != null && !m.isIdentity());
+    }
+
+    /**
+     * 将原图的一块区域经过矩阵变换后绘制到复用池中的位图上，计算方式与Bitmap.createBitmap相同
+     */
+    private static Bitmap createBitmapFromPool(BitmapPool pool, Bitmap source, Rect srcRect, Matrix m, boolean filter) {
+        RectF dstRect = new RectF(0, 0, srcRect.width(), srcRect.height());
+        RectF deviceRect = new RectF(dstRect);
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        boolean hasAlpha = source.hasAlpha();
+        Paint paint = null;
+        if (m != null && !m.isIdentity()) {
+            m.mapRect(deviceRect, dstRect);
+            paint = new Paint();
+            paint.setFilterBitmap(filter);
+            if (!m.rectStaysRect()) {
+                // 非直角旋转会露出透明的边角
+                config = Bitmap.Config.ARGB_8888;
+                hasAlpha = true;
+                paint.setAntiAlias(true);
+            }
+        }
+        Bitmap bitmap = pool.get(Math.round(deviceRect.width()), Math.round(deviceRect.height()), config);
+        bitmap.setDensity(source.getDensity());
+        bitmap.setHasAlpha(hasAlpha);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(-deviceRect.left, -deviceRect.top);
+        if (m != null) {
+            canvas.concat(m);
+        }
+        canvas.drawBitmap(source, srcRect, dstRect, paint);
+        canvas.setBitmap(null);
+        return bitmap;
+    }
+
+    static boolean isHardware(Bitmap bitmap) {
+        return BitmapConfigPolicy.isHardware(bitmap.getConfig());
+    }
+
     public static Bitmap getBitmap(ImageView imgView) {
         Drawable drawable = imgView.getDrawable();
         Bitmap bitmap = getBitmap(drawable);
@@ -450,11 +847,17 @@ public class ImageUtil {
         return bitmap;
     }
 
+    /**
+     * 保存为JPEG，先写临时文件再重命名，失败时不会留下不完整的文件
+     *
+     * @param bitmap
+     * @param fileName
+     * @return
+     * @see BitmapFileWriter
+     */
     public static String saveBitmap(Bitmap bitmap, String fileName) {
         try {
-            FileOutputStream os = new FileOutputStream(fileName);
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, os);
-            os.close();
+            new BitmapFileWriter().write(bitmap, Bitmap.CompressFormat.JPEG, 100, new File(fileName));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -464,37 +867,759 @@ public class ImageUtil {
     public static void saveBitmap(Bitmap bitmap, String fileName, int w, int h) {
         Bitmap bmp = zoomBitmap(bitmap, w, h);
         try {
-            FileOutputStream os = new FileOutputStream(fileName);
             if (bmp != null) {
-                bmp.compress(Bitmap.CompressFormat.JPEG, 75, os);
+                new BitmapFileWriter().write(bmp, Bitmap.CompressFormat.JPEG, 75, new File(fileName));
             }
-            os.close();
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (bmp != null && bmp != bitmap) {
+                recycleBitmap(bmp);
+            }
         }
     }
 
+    /**
+     * 降采样解码图片并校正方向，结果可以读取像素
+     *
+     * @param filePath
+     * @param maxResolution 最大边长，0表示不缩小
+     * @return 归调用方所有，失败时返回null
+     */
     public static Bitmap decodeFile(String filePath, int maxResolution) {
+        ZoomImageView.RotateBitmap result = decodeFile(filePath, maxResolution, true,
+                BitmapConfigPolicy.Usage.EXPORT);
+        return result != null ? result.getBitmap() : null;
+    }
+
+    /**
+     * 降采样解码图片，像素保持原图方向，EXIF方向(包括镜像)记录在返回的RotateBitmap中
+     * <p>
+     * 与decodeFile相比省去了整图旋转时的第二份位图；显示时方向合并到ZoomImageView的矩阵中，
+     * 导出时只对裁剪出的区域做方向校正。
+     *
+     * @param filePath
+     * @param maxResolution 最大边长，0表示不缩小
+     * @return 位图归调用方所有，失败时返回null
+     * @see ZoomImageView#setImageRotateBitmap(ZoomImageView.RotateBitmap)
+     */
+    public static ZoomImageView.RotateBitmap decodeRotateBitmap(String filePath, int maxResolution) {
+        return decodeFile(filePath, maxResolution, false, BitmapConfigPolicy.Usage.EXPORT);
+    }
+
+    /**
+     * 按用途降采样解码图片，像素保持原图方向
+     *
+     * @param filePath
+     * @param maxResolution 最大边长，0表示不缩小
+     * @param usage         为DISPLAY时在Android 8.0以上得到不能读取像素的HARDWARE位图；设置了内存缓存时结果与缓存共享，
+     *                      调用方不能修改或回收，只能通过ZoomImageView等显示后由其释放
+     * @return 失败时返回null；EXPORT时位图归调用方所有
+     * @see BitmapConfigPolicy
+     * @see #setMemoryCache(BitmapMemoryCache)
+     */
+    public static ZoomImageView.RotateBitmap decodeRotateBitmap(String filePath, int maxResolution,
+                                                                BitmapConfigPolicy.Usage usage) {
+        return decodeFile(filePath, maxResolution, false, usage);
+    }
+
+    /**
+     * @param applyOrientation 是否把EXIF方向应用到像素上；为false时方向记录在返回的RotateBitmap中
+     * @param usage            决定解码使用的Bitmap.Config；只有DISPLAY的结果与内存缓存共享
+     */
+    private static ZoomImageView.RotateBitmap decodeFile(String filePath, int maxResolution,
+                                                         boolean applyOrientation, BitmapConfigPolicy.Usage usage) {
         if (filePath == null) {
             return null;
         }
+        // 探测头部、解码都使用同一个文件描述符，整个过程只打开一次文件
+        FileInputStream is = null;
         try {
+            is = new FileInputStream(filePath);
             BitmapFactory.Options options = new BitmapFactory.Options();
+            ImageHeader header = probeBounds(is, options);
             if (maxResolution != 0) {
-                options.inJustDecodeBounds = true;
-                BitmapFactory.decodeFile(filePath, options);
                 options.inSampleSize = calculateInSampleSize(options, maxResolution, maxResolution);
             }
             options.inJustDecodeBounds = false;
-            options.inPreferredConfig = Bitmap.Config.RGB_565;
-            Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
-            int degree = getExifOrientation(filePath);
-            return rotateBitmap(bitmap, degree);
-        } catch (OutOfMemoryError e) {
-            e.printStackTrace();
-        }
-        return null;
+            final String mimeType = header != null ? header.getMimeType() : options.outMimeType;
+            final BitmapConfigPolicy policy = sConfigPolicy;
+            options.inPreferredConfig = policy.selectForDecode(usage, mimeType);
+            final boolean hardware = BitmapConfigPolicy.isHardware(options.inPreferredConfig);
+            MemoryGovernor governor = sMemoryGovernor;
+            if (governor != null) {
+                // 在计算缓存key之前调整，降级解码的结果以实际的采样率缓存
+                governor.adjustDecode(options.outWidth, options.outHeight, options,
+                        ImageHeader.MIME_JPEG.equals(mimeType) && !hardware);
+            }
+            int orientation = header != null ? header.getOrientation() : ImageHeader.ORIENTATION_UNDEFINED;
+            // 已应用到像素上的方向和留给显示矩阵的方向
+            final int pixelOrientation = applyOrientation ? orientation : ImageHeader.ORIENTATION_UNDEFINED;
+            final int displayOrientation = applyOrientation ? ImageHeader.ORIENTATION_UNDEFINED : orientation;
+            final boolean shared = usage == BitmapConfigPolicy.Usage.DISPLAY;
+            BitmapMemoryCache cache = sMemoryCache;
+            BitmapMemoryCache.Key key = null;
+            if (cache != null) {
+                key = BitmapMemoryCache.Key.forFile(filePath, Math.max(1, options.inSampleSize),
+                        options.inPreferredConfig, pixelOrientation);
+                Bitmap cached = cache.get(key);
+                Bitmap result = cached == null || shared ? cached : copyCached(cached);
+                if (result != null) {
+                    return toRotateBitmap(result, displayOrientation);
+                }
+            }
+            DiskCache diskCache = sDiskCache;
+            String diskKey = null;
+            if (diskCache != null && maxResolution != 0) {
+                diskKey = getFileIdentity(filePath) + "#" + maxResolution + (applyOrientation ? "" : "#raw");
+                Bitmap cached = decodeDiskCache(diskCache, diskKey, options.inPreferredConfig);
+                if (cached != null) {
+                    if (cache != null && shared) {
+                        cache.put(key, cached);
+                    }
+                    return toRotateBitmap(cached, displayOrientation);
+                }
+            }
+            // 只有缩小或方向校正过的图片才值得写入磁盘缓存
+            final boolean writeDisk = diskKey != null
+                    && (options.inSampleSize > 1 || pixelOrientation > ImageHeader.ORIENTATION_NORMAL);
+            // 硬件位图不能旋转或编码，需要处理像素时先解码为软件位图，处理完再转换
+            final boolean convertToHardware = hardware
+                    && (writeDisk || pixelOrientation > ImageHeader.ORIENTATION_NORMAL);
+            final Bitmap.Config config = options.inPreferredConfig;
+            if (convertToHardware) {
+                options.inPreferredConfig = policy.selectForDecode(BitmapConfigPolicy.Usage.EXPORT, mimeType);
+            }
+            final int sampleSize = options.inSampleSize;
+            final Bitmap.Config decodeConfig = options.inPreferredConfig;
+            Bitmap bitmap = decodeFileDescriptor(is, options);
+            // 内存不足后以更高的采样率重试的结果与key描述的不一致，不写入任何缓存
+            final boolean degraded = options.inSampleSize != sampleSize || options.inPreferredConfig != decodeConfig;
+            Bitmap oriented = orientBitmap(bitmap, pixelOrientation);
+            if (oriented != bitmap) {
+                recycleBitmap(bitmap);
+            }
+            if (oriented == null) {
+                return null;
+            }
+            final boolean writeDiskNow = writeDisk && !degraded;
+            if (convertToHardware) {
+                Bitmap converted = oriented.copy(config, false);
+                if (converted != null) {
+                    // 转换后不再使用的软件位图直接交给磁盘缓存编码
+                    if (writeDiskNow) {
+                        writeDiskCache(diskCache, diskKey, oriented, true);
+                    } else {
+                        recycleBitmap(oriented);
+                    }
+                    oriented = converted;
+                } else if (writeDiskNow) {
+                    writeDiskCache(diskCache, diskKey, oriented, false);
+                }
+            } else if (writeDiskNow) {
+                writeDiskCache(diskCache, diskKey, oriented, false);
+            }
+            if (cache != null && shared && !degraded) {
+                cache.put(key, oriented);
+            }
+            return toRotateBitmap(oriented, displayOrientation);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(is);
+        }
+        return null;
+
+    }
+
+    private static ZoomImageView.RotateBitmap toRotateBitmap(Bitmap bitmap, int orientation) {
+        return new ZoomImageView.RotateBitmap(bitmap, ImageHeader.getRotationDegrees(orientation),
+                ImageHeader.isFlipped(orientation));
+    }
+
+    /**
+     * 从已打开的文件读取图片宽高到options.outWidth/outHeight，结束后文件位置回到开头
+     * <p>
+     * 能识别的格式只读取文件头；其他格式(如BMP、GIF)退回到inJustDecodeBounds解码
+     *
+     * @param is
+     * @param options
+     * @return 图片头部信息，格式无法识别时返回null
+     * @throws IOException
+     */
+    private static ImageHeader probeBounds(FileInputStream is, BitmapFactory.Options options) throws IOException {
+        ImageHeader header = ImageHeader.probeAndRewind(is);
+        if (header != null) {
+            options.outWidth = header.getWidth();
+            options.outHeight = header.getHeight();
+            options.outMimeType = header.getMimeType();
+            return header;
+        }
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFileDescriptor(is.getFD(), null, options);
+        options.inJustDecodeBounds = false;
+        is.getChannel().position(0);
+        return null;
+    }
+
+    /**
+     * 按EXIF方向校正图片：先水平镜像，再顺时针旋转
+     *
+     * @param bitmap
+     * @param orientation EXIF方向，取值见ImageHeader
+     * @return 不需要校正时返回原图
+     */
+    static Bitmap orientBitmap(Bitmap bitmap, int orientation) {
+        final int degree = ImageHeader.getRotationDegrees(orientation);
+        if (!ImageHeader.isFlipped(orientation)) {
+            return rotateBitmap(bitmap, degree);
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            Matrix matrix = new Matrix();
+            matrix.postScale(-1, 1);
+            matrix.postRotate(degree);
+            return createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 按裁剪框在原图中的相对位置，只解码原图对应区域，得到全分辨率的裁剪结果
+     * <p>
+     * 显示用的图片是降采样过的，直接在上面剪裁会模糊；这里用BitmapRegionDecoder只解码需要的那一块，
+     * 避免为了清晰度把整张大图解码到内存里。
+     *
+     * @param filePath  原图路径
+     * @param cropRect  裁剪区域，坐标为相对于方向校正后图片宽高的比例(0~1)
+     * @param outWidth  输出图片宽度
+     * @param outHeight 输出图片高度
+     * @return 裁剪后的图片，失败时返回null
+     */
+    public static Bitmap decodeCropRegion(String filePath, RectF cropRect, int outWidth, int outHeight) {
+        return decodeCropRegion(filePath, cropRect, outWidth, outHeight, sScaleFilter);
+    }
+
+    /**
+     * @param filter 缩小使用的过滤方式
+     * @see #decodeCropRegion(String, RectF, int, int)
+     */
+    public static Bitmap decodeCropRegion(String filePath, RectF cropRect, int outWidth, int outHeight,
+                                          ScaleFilter filter) {
+        if (filePath == null || cropRect == null || outWidth <= 0 || outHeight <= 0) {
+            return null;
+        }
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(filePath);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            ImageHeader header = probeBounds(is, options);
+            return decodeCropRegion(is, options, header, cropRect, outWidth, outHeight, Bitmap.Config.ARGB_8888,
+                    new BitmapTransform().scaleFilter(filter));
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(is);
+        }
+        return null;
+    }
+
+    /**
+     * 解码图片，输出为指定的宽高
+     * <p>
+     * 先用2的幂次的inSampleSize缩小，剩余的缩放通过inDensity/inTargetDensity在解码器内完成，
+     * 不需要再对解码结果做一次整图缩放。
+     *
+     * @param filePath     图片路径
+     * @param targetWidth  目标宽度
+     * @param targetHeight 目标高度
+     * @param fitMode      缩放方式
+     * @param config       解码使用的Bitmap.Config
+     * @return FIT_INSIDE时返回保持宽高比、恰好放入目标宽高的图片；CENTER_CROP时返回与目标宽高完全一致的图片；失败时返回null
+     */
+    public static Bitmap decodeFile(String filePath, int targetWidth, int targetHeight, FitMode fitMode,
+                                    Bitmap.Config config) {
+        return decodeFile(filePath, targetWidth, targetHeight, fitMode, config, sScaleFilter);
+    }
+
+    /**
+     * @param filter 缩小使用的过滤方式
+     * @see #decodeFile(String, int, int, FitMode, Bitmap.Config)
+     */
+    public static Bitmap decodeFile(String filePath, int targetWidth, int targetHeight, FitMode fitMode,
+                                    Bitmap.Config config, ScaleFilter filter) {
+        return decodeFile(filePath, targetWidth, targetHeight, fitMode, config,
+                new BitmapTransform().scaleFilter(filter));
+    }
+
+    /**
+     * @param transform 解码后附加的遮罩等变换，CENTER_CROP时与方向校正、缩放合并为一次绘制，其过滤方式用于缩小
+     */
+    private static Bitmap decodeFile(String filePath, int targetWidth, int targetHeight, FitMode fitMode,
+                                     Bitmap.Config config, BitmapTransform transform) {
+        if (filePath == null || targetWidth <= 0 || targetHeight <= 0 || fitMode == null) {
+            return null;
+        }
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(filePath);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            ImageHeader header = probeBounds(is, options);
+            final int srcWidth = options.outWidth;
+            final int srcHeight = options.outHeight;
+            if (srcWidth <= 0 || srcHeight <= 0) {
+                return null;
+            }
+            final int orientation = header != null ? header.getOrientation() : ImageHeader.ORIENTATION_UNDEFINED;
+            final boolean swap = (ImageHeader.getRotationDegrees(orientation) / 90) % 2 != 0;
+            final int orientedWidth = swap ? srcHeight : srcWidth;
+            final int orientedHeight = swap ? srcWidth : srcHeight;
+            MemoryGovernor governor = sMemoryGovernor;
+            // 输出尺寸由调用方指定，不能降级；结果超出预算时，解码的中间结果按预算降级
+            final boolean overBudget = governor != null && !governor.reserve(targetWidth, targetHeight, config);
+
+            if (fitMode == FitMode.CENTER_CROP) {
+                // 居中裁出与目标宽高比一致的区域，只解码这一块
+                float scale = Math.max((float) targetWidth / orientedWidth, (float) targetHeight / orientedHeight);
+                float cropWidth = targetWidth / scale / orientedWidth;
+                float cropHeight = targetHeight / scale / orientedHeight;
+                RectF cropRect = new RectF((1 - cropWidth) / 2, (1 - cropHeight) / 2,
+                        (1 + cropWidth) / 2, (1 + cropHeight) / 2);
+                return decodeCropRegion(is, options, header, cropRect, targetWidth, targetHeight, config, transform);
+            }
+
+            float scale = Math.min((float) targetWidth / orientedWidth, (float) targetHeight / orientedHeight);
+            int outWidth = Math.max(1, Math.round(orientedWidth * scale));
+            int outHeight = Math.max(1, Math.round(orientedHeight * scale));
+            // 以下在原图(未旋转)的方向上计算
+            final int decodeWidth = swap ? outHeight : outWidth;
+            final int decodeHeight = swap ? outWidth : outHeight;
+            int sampleSize = 1;
+            while (srcWidth / (sampleSize * 2) >= decodeWidth && srcHeight / (sampleSize * 2) >= decodeHeight) {
+                sampleSize *= 2;
+            }
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            if (overBudget) {
+                governor.adjustDecode(srcWidth, srcHeight, options,
+                        header != null && ImageHeader.MIME_JPEG.equals(header.getMimeType())
+                                && !BitmapConfigPolicy.isHardware(config));
+                sampleSize = options.inSampleSize;
+            }
+            final ScaleFilter filter = transform != null ? transform.getScaleFilter() : ScaleFilter.BILINEAR;
+            // 按决定缩放比例的那条边设置密度，解码器输出的这条边恰好等于目标尺寸；高质量缩小时由BitmapScaler完成
+            final boolean widthLimited = (float) decodeWidth / srcWidth <= (float) decodeHeight / srcHeight;
+            final int sampledSize = widthLimited ? (srcWidth + sampleSize - 1) / sampleSize
+                    : (srcHeight + sampleSize - 1) / sampleSize;
+            final int targetSize = widthLimited ? decodeWidth : decodeHeight;
+            if (sampledSize != targetSize && filter == ScaleFilter.BILINEAR) {
+                options.inScaled = true;
+                options.inDensity = sampledSize;
+                options.inTargetDensity = targetSize;
+            }
+            Bitmap bitmap = decodeFileDescriptor(is, options);
+            if (bitmap == null) {
+                return null;
+            }
+            // 解码器按密度缩放后会把位图密度设为inTargetDensity，恢复为不缩放，避免绘制时被再次缩放
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+            if (Math.abs(bitmap.getWidth() - decodeWidth) > 1 || Math.abs(bitmap.getHeight() - decodeHeight) > 1) {
+                // 高质量缩小，或解码器没有按密度缩放(不同格式的采样取整方式也不同)，只在这种情况下再缩放一次
+                Bitmap scaled = filter == ScaleFilter.BILINEAR ? zoomBitmap(bitmap, decodeWidth, decodeHeight)
+                        : BitmapScaler.scale(bitmap, null, decodeWidth, decodeHeight, filter, config);
+                if (scaled != bitmap) {
+                    recycleBitmap(bitmap);
+                }
+                bitmap = scaled;
+            }
+            Bitmap oriented = orientBitmap(bitmap, orientation);
+            if (oriented != bitmap) {
+                recycleBitmap(bitmap);
+            }
+            if (transform != null && transform.hasMask() && oriented != null) {
+                Bitmap transformed = transform.apply(oriented);
+                recycleBitmap(oriented);
+                oriented = transformed;
+            }
+            return oriented;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(is);
+        }
+        return null;
+    }
+
+    /**
+     * 按ARGB_8888解码图片，输出为指定的宽高
+     *
+     * @see #decodeFile(String, int, int, FitMode, Bitmap.Config)
+     */
+    public static Bitmap decodeFile(String filePath, int targetWidth, int targetHeight, FitMode fitMode) {
+        return decodeFile(filePath, targetWidth, targetHeight, fitMode, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 解码方向校正后图片上的一块区域，区域解码之后的缩放、镜像和旋转合并为一次变换
+     *
+     * @param is       已打开的原图，位置在开头
+     * @param bounds   已读取原图宽高的options
+     * @param header   原图头部信息，可以为null
+     * @param cropRect  方向校正后图片上的相对坐标(0~1)
+     * @param transform 只设置了遮罩和过滤方式的变换，方向校正和缩放会追加到其中；可以为null
+     */
+    private static Bitmap decodeCropRegion(FileInputStream is, BitmapFactory.Options bounds, ImageHeader header,
+                                           RectF cropRect, int outWidth, int outHeight, Bitmap.Config config,
+                                           BitmapTransform transform) throws IOException {
+        final int srcWidth = bounds.outWidth;
+        final int srcHeight = bounds.outHeight;
+        if (srcWidth <= 0 || srcHeight <= 0) {
+            return null;
+        }
+        final int orientation = header != null ? header.getOrientation() : ImageHeader.ORIENTATION_UNDEFINED;
+        final int degree = ImageHeader.getRotationDegrees(orientation);
+        final boolean flipped = ImageHeader.isFlipped(orientation);
+
+        // 裁剪框是在方向校正后的图片上选的，需要换算回原图(未旋转、未镜像)的坐标
+        RectF normalized = mapToSourceRect(cropRect, degree);
+        if (flipped) {
+            normalized = new RectF(1 - normalized.right, normalized.top, 1 - normalized.left, normalized.bottom);
+        }
+        Rect region = new Rect(Math.round(normalized.left * srcWidth), Math.round(normalized.top * srcHeight),
+                Math.round(normalized.right * srcWidth), Math.round(normalized.bottom * srcHeight));
+        if (!region.intersect(0, 0, srcWidth, srcHeight) || region.isEmpty()) {
+            return null;
+        }
+
+        // 旋转90/270度时，原图区域对应的输出宽高是互换的
+        final boolean swap = (degree / 90) % 2 != 0;
+        final int regionOutWidth = swap ? outHeight : outWidth;
+        final int regionOutHeight = swap ? outWidth : outHeight;
+        int sampleSize = 1;
+        while (region.width() / (sampleSize * 2) >= regionOutWidth
+                && region.height() / (sampleSize * 2) >= regionOutHeight) {
+            sampleSize *= 2;
+        }
+
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        decodeOptions.inSampleSize = sampleSize;
+        decodeOptions.inPreferredConfig = config;
+        MemoryGovernor governor = sMemoryGovernor;
+        if (governor != null) {
+            // 输出尺寸不变，降级只影响区域解码的中间结果
+            governor.adjustDecode(region.width(), region.height(), decodeOptions,
+                    header != null && ImageHeader.MIME_JPEG.equals(header.getMimeType()));
+        }
+        Bitmap bitmap = decodeRegion(is, region, decodeOptions);
+        if (bitmap == null) {
+            return null;
+        }
+
+        if ((transform == null || !transform.hasMask()) && degree == 0 && !flipped
+                && bitmap.getWidth() == outWidth && bitmap.getHeight() == outHeight) {
+            return bitmap;
+        }
+        // 镜像、旋转、缩放和遮罩一次绘制到输出位图上
+        BitmapTransform t = transform != null ? transform : new BitmapTransform();
+        if (flipped) {
+            t.flip();
+        }
+        Bitmap result = t.rotate(degree).scale(outWidth, outHeight).apply(bitmap);
+        if (result != bitmap) {
+            recycleBitmap(bitmap);
+        }
+        return result;
+    }
+
+    /**
+     * 解码原图的指定区域，格式不被BitmapRegionDecoder支持时，退回到降采样整图解码后再剪裁
+     *
+     * @param is       已打开的原图，位置在开头
+     * @param region   原图坐标下的区域
+     * @param options
+     * @return
+     */
+    private static Bitmap decodeRegion(FileInputStream is, Rect region, BitmapFactory.Options options)
+            throws IOException {
+        BitmapRegionDecoder decoder = null;
+        MemoryGovernor governor = sMemoryGovernor;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(is.getFD(), false);
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    return track(governor, decoder.decodeRegion(region, options));
+                } catch (OutOfMemoryError e) {
+                    if (!retryDecodeAfterOutOfMemory(governor, attempt, e, region.width(), region.height(),
+                            options)) {
+                        return null;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            // 创建解码器时内存不足
+            e.printStackTrace();
+            if (governor != null) {
+                governor.onOutOfMemory(region.width(), region.height(), options.inPreferredConfig);
+            }
+            return null;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+        is.getChannel().position(0);
+        Bitmap bitmap = decodeFileDescriptor(is, options);
+        if (bitmap == null) {
+            return null;
+        }
+        final int sampleSize = options.inSampleSize;
+        Rect sampled = new Rect(region.left / sampleSize, region.top / sampleSize,
+                region.right / sampleSize, region.bottom / sampleSize);
+        if (!sampled.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight()) || sampled.isEmpty()) {
+            bitmap.recycle();
+            return null;
+        }
+        Bitmap result = createBitmap(bitmap, sampled.left, sampled.top, sampled.width(), sampled.height());
+        if (result != bitmap) {
+            bitmap.recycle();
+        }
+        return result;
+    }
+
+    private static Bitmap decodeDiskCache(DiskCache diskCache, String key, Bitmap.Config config) {
+        File file = diskCache.get(key);
+        if (file == null) {
+            return null;
+        }
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            probeBounds(is, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                diskCache.remove(key);
+                return null;
+            }
+            options.inPreferredConfig = config;
+            return decodeFileDescriptor(is, options);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(is);
+        }
+        return null;
+    }
+
+    /**
+     * 在磁盘缓存的后台线程编码并写入，不占用解码线程
+     *
+     * @param owned 位图是否可以交给磁盘缓存；为false时复制一份，调用方编码期间仍然可以回收原图
+     */
+    private static void writeDiskCache(DiskCache diskCache, String key, Bitmap bitmap, boolean owned) {
+        Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+        Bitmap copy = bitmap;
+        if (!owned) {
+            try {
+                copy = bitmap.copy(bitmap.getConfig(), false);
+            } catch (OutOfMemoryError e) {
+                e.printStackTrace();
+                return;
+            }
+            if (copy == null) {
+                return;
+            }
+        }
+        diskCache.putAsync(key, copy, format, DISK_CACHE_QUALITY);
+    }
+
+    /**
+     * 从已打开的文件解码图片，设置了复用池且已知图片尺寸(options.outWidth/outHeight)时复用池中的位图
+     *
+     * @param is      已打开的图片文件，位置在开头
+     * @param options
+     * @return
+     */
+    private static Bitmap decodeFileDescriptor(FileInputStream is, BitmapFactory.Options options) throws IOException {
+        MemoryGovernor governor = sMemoryGovernor;
+        final int srcWidth = options.outWidth;
+        final int srcHeight = options.outHeight;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                setInBitmap(options);
+                try {
+                    return track(governor, BitmapFactory.decodeFileDescriptor(is.getFD(), null, options));
+                } catch (IllegalArgumentException e) {
+                    // 复用的位图不满足解码要求，不复用重新解码
+                    if (options.inBitmap == null) {
+                        throw e;
+                    }
+                    recycleBitmap(options.inBitmap);
+                    options.inBitmap = null;
+                    is.getChannel().position(0);
+                    return track(governor, BitmapFactory.decodeFileDescriptor(is.getFD(), null, options));
+                }
+            } catch (OutOfMemoryError e) {
+                // 复用的位图按原来的采样率选出，重试时不再使用
+                if (options.inBitmap != null) {
+                    recycleBitmap(options.inBitmap);
+                    options.inBitmap = null;
+                }
+                if (!retryDecodeAfterOutOfMemory(governor, attempt, e, srcWidth, srcHeight, options)) {
+                    return null;
+                }
+                // 解码器可能改写了outWidth/outHeight，复用池按原图尺寸重新选择
+                options.outWidth = srcWidth;
+                options.outHeight = srcHeight;
+                is.getChannel().position(0);
+            }
+        }
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 从复用池中为解码选择inBitmap
+     *
+     * @param options 已通过inJustDecodeBounds得到图片尺寸
+     */
+    static void setInBitmap(BitmapFactory.Options options) {
+        BitmapPool pool = sBitmapPool;
+        if (pool == null || options.outWidth <= 0 || options.outHeight <= 0
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        // 硬件位图不可变，不能作为inBitmap
+        if (BitmapConfigPolicy.isHardware(options.inPreferredConfig)) {
+            return;
+        }
+        final int sampleSize = Math.max(1, options.inSampleSize);
+        Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        // 解码后的尺寸按向上取整估算，保证复用的位图足够大
+        int width = (options.outWidth + sampleSize - 1) / sampleSize;
+        int height = (options.outHeight + sampleSize - 1) / sampleSize;
+        options.inMutable = true;
+        options.inBitmap = pool.getDirty(width, height, config);
+    }
+
+    /**
+     * 将方向校正后图片上的相对坐标换算为原图(未旋转)上的相对坐标
+     *
+     * @param rect   方向校正后的相对坐标(0~1)
+     * @param degree 原图需要顺时针旋转的角度
+     * @return
+     */
+    private static RectF mapToSourceRect(RectF rect, int degree) {
+        switch (degree) {
+            case 90:
+                return new RectF(rect.top, 1 - rect.right, rect.bottom, 1 - rect.left);
+            case 180:
+                return new RectF(1 - rect.right, 1 - rect.bottom, 1 - rect.left, 1 - rect.top);
+            case 270:
+                return new RectF(1 - rect.bottom, rect.left, 1 - rect.top, rect.right);
+            default:
+                return new RectF(rect);
+        }
+    }
+
+    /**
+     * 为大图快速解码一张低分辨率预览图：优先使用EXIF中的缩略图，宽高比不一致时按很大的采样率解码
+     *
+     * @param filePath
+     * @param maxResolution 正式显示时的最大边长
+     * @return 图片本身不大或已在内存缓存中、不需要预览图时返回null
+     */
+    public static Bitmap decodePreview(String filePath, int maxResolution) {
+        if (filePath == null || maxResolution <= 0) {
+            return null;
+        }
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(filePath);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            ImageHeader header = probeBounds(is, options);
+            final int width = options.outWidth;
+            final int height = options.outHeight;
+            if (width <= 0 || height <= 0 || Math.max(width, height) <= maxResolution * 2) {
+                return null;
+            }
+            int orientation = header != null ? header.getOrientation() : ImageHeader.ORIENTATION_UNDEFINED;
+            final String mimeType = header != null ? header.getMimeType() : options.outMimeType;
+            BitmapMemoryCache cache = sMemoryCache;
+            // 与decodeRotateBitmap显示用的缓存key一致：像素未做方向校正
+            if (cache != null && cache.get(BitmapMemoryCache.Key.forFile(filePath,
+                    calculateInSampleSize(options, maxResolution, maxResolution),
+                    sConfigPolicy.selectForDecode(BitmapConfigPolicy.Usage.DISPLAY, mimeType),
+                    ImageHeader.ORIENTATION_UNDEFINED)) != null) {
+                return null;
+            }
 
+            // 只有JPEG才会带EXIF缩略图
+            Bitmap preview = null;
+            if (header != null && ImageHeader.MIME_JPEG.equals(header.getMimeType())) {
+                preview = decodeExifThumbnail(is, width, height);
+                is.getChannel().position(0);
+            }
+            if (preview == null) {
+                // 预览图需要做方向校正，使用软件位图
+                options.inPreferredConfig = sConfigPolicy.selectForDecode(BitmapConfigPolicy.Usage.EXPORT, mimeType);
+                options.inSampleSize = 1;
+                // JPEG按1/8缩放解码非常快
+                final int previewSize = Math.max(1, maxResolution / PREVIEW_SCALE);
+                while (Math.max(width, height) / (options.inSampleSize * 2) >= previewSize) {
+                    options.inSampleSize *= 2;
+                }
+                preview = decodeFileDescriptor(is, options);
+            }
+            Bitmap oriented = orientBitmap(preview, orientation);
+            if (oriented != preview) {
+                recycleBitmap(preview);
+            }
+            return oriented;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(is);
+        }
+        return null;
+    }
+
+    private static Bitmap decodeExifThumbnail(InputStream is, int width, int height) {
+        try {
+            ExifInterface exif = new ExifInterface(is);
+            Bitmap thumbnail = exif.getThumbnailBitmap();
+            if (thumbnail == null) {
+                return null;
+            }
+            // 缩略图可能带有黑边，宽高比不一致时不能使用
+            float aspect = (float) width / height;
+            float thumbnailAspect = (float) thumbnail.getWidth() / thumbnail.getHeight();
+            if (Math.abs(aspect - thumbnailAspect) > aspect * 0.02f) {
+                thumbnail.recycle();
+                return null;
+            }
+            return thumbnail;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 
     private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
@@ -513,53 +1638,124 @@ public class ImageUtil {
         return inSampleSize;
     }
 
-    private static int getExifOrientation(String filepath) {
-        int degree = 0;
-        ExifInterface exif = null;
+    /**
+     * 读取图片需要顺时针旋转的角度，镜像方向只返回其中的旋转部分
+     *
+     * @param filepath
+     * @return 0、90、180或270
+     */
+    static int getExifOrientation(String filepath) {
+        ImageHeader header = ImageHeader.probe(filepath);
+        return header != null ? header.getRotationDegrees() : 0;
+    }
+
+    /**
+     * 获取方向已校正的图片数据流，用于上传等不读取EXIF方向的场景
+     * <p>
+     * 不需要校正时直接返回原文件；需要旋转像素时降采样解码、旋转后重新编码，结果经临时文件流式读取，不在内存中缓存整个文件。
+     *
+     * @param imagePath
+     * @return
+     * @throws Exception
+     */
+    public static InputStream getImageInputStream(String imagePath) throws Exception {
+        FileInputStream is = new FileInputStream(imagePath);
+        ImageHeader header;
         try {
-            exif = new ExifInterface(filepath);
-        } catch (Exception e) {
-            e.printStackTrace();
+            header = ImageHeader.probeAndRewind(is);
+        } catch (IOException e) {
+            is.close();
+            throw e;
         }
-        if (exif != null) {
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, -1);
-            if (orientation != -1) {
-                // We only recognize a subset of orientation tag values.
-                switch (orientation) {
-                    case ExifInterface.ORIENTATION_ROTATE_90:
-                        degree = 90;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_180:
-                        degree = 180;
-                        break;
-                    case ExifInterface.ORIENTATION_ROTATE_270:
-                        degree = 270;
-                        break;
-                }
+        if (header == null || header.getOrientation() <= ImageHeader.ORIENTATION_NORMAL) {
+            // 不需要校正方向时直接返回已打开的文件
+            return is;
+        }
+        is.close();
+        return encodeOrientedStream(imagePath, header.getOrientation());
+    }
 
-            }
+    /**
+     * 获取原图数据流，在原图方向的基础上再旋转、镜像，只改写EXIF方向值而不解码和重新编码，画质无损
+     * <p>
+     * 适用于会读取EXIF方向的接收方。原图没有可改写的方向标记(如PNG、没有EXIF的JPEG)且需要改变方向时，
+     * 退回到旋转像素后重新编码。
+     *
+     * @param imagePath
+     * @param rotation  在原图显示方向上再顺时针旋转的角度，0、90、180或270
+     * @param flipped   旋转前是否再水平翻转
+     * @return
+     * @throws IOException
+     */
+    public static InputStream getImageInputStream(String imagePath, int rotation, boolean flipped)
+            throws IOException {
+        FileInputStream is = new FileInputStream(imagePath);
+        ImageHeader header;
+        try {
+            header = ImageHeader.probeAndRewind(is);
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        int current = header != null ? header.getOrientation() : ImageHeader.ORIENTATION_UNDEFINED;
+        int degree = ImageHeader.getRotationDegrees(current);
+        // 旋转之后的水平翻转等价于先翻转、再反向旋转
+        int orientation = flipped
+                ? ImageHeader.toOrientation(rotation - degree, !ImageHeader.isFlipped(current))
+                : ImageHeader.toOrientation(rotation + degree, ImageHeader.isFlipped(current));
+        if (orientation == Math.max(current, ImageHeader.ORIENTATION_NORMAL)) {
+            return is;
         }
-        return degree;
+        if (header != null && header.getOrientationOffset() >= 0) {
+            return new OrientationRewriteInputStream(new BufferedInputStream(is), header.getOrientationOffset(),
+                    header.isOrientationLittleEndian(), orientation);
+        }
+        is.close();
+        // 没有方向标记可以改写，只能把方向应用到像素上
+        return encodeOrientedStream(imagePath, orientation);
     }
 
-    public static InputStream getImageInputStream(String imagePath) throws Exception {
-        int degree = getExifOrientation(imagePath);
-        if (degree == 0) {
-            return new FileInputStream(imagePath);
+    /**
+     * 降采样解码原图，按指定方向旋转像素后编码为JPEG，通过临时文件返回
+     *
+     * @param imagePath
+     * @param orientation 相对于原图像素需要应用的EXIF方向
+     * @return
+     * @throws IOException
+     */
+    private static InputStream encodeOrientedStream(String imagePath, int orientation) throws IOException {
+        ZoomImageView.RotateBitmap raw = decodeRotateBitmap(imagePath, STREAM_MAX_RESOLUTION);
+        if (raw == null) {
+            return new ByteArrayInputStream(new byte[0]);
         }
-        Bitmap bitmap = decodeFile(imagePath, 1024);
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        if (bitmap != null) {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 75, os);
+        // 原图像素未做方向校正，需要应用的方向就是目标方向本身
+        Bitmap bitmap = orientBitmap(raw.getBitmap(), orientation);
+        if (bitmap != raw.getBitmap()) {
+            recycleBitmap(raw.getBitmap());
         }
-        byte[] bytes = os.toByteArray();
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
+        if (bitmap == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        File file = File.createTempFile("crop", ".jpg");
+        OutputStream os = null;
         try {
+            os = new BufferedOutputStream(new FileOutputStream(file));
+            bitmap.compress(Bitmap.CompressFormat.JPEG, STREAM_QUALITY, os);
             os.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            os = null;
+            return new FileInputStream(file);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            // 已打开的文件删除后仍然可以读取，流关闭时才释放空间，调用方不需要清理临时文件
+            file.delete();
+            recycleBitmap(bitmap);
         }
-        return byteArrayInputStream;
     }
 
     /**
@@ -579,29 +1775,58 @@ public class ImageUtil {
      * @return
      */
     public static byte[] inputStream2Bytes(InputStream is) {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        byte[] readByte = new byte[1024];
-        int readCount = -1;
+        PooledByteArrayOutputStream bos = readFully(is);
+        if (bos == null) {
+            return null;
+        }
+        byte[] bytes = bos.toByteArray();
+        bos.close();
+        return bytes;
+    }
+
+    /**
+     * 读取输入流的全部数据到池化的缓冲区，按文件长度或available()预先分配，读取后关闭输入流
+     * <p>
+     * 可以通过返回值的toByteBuffer()、toInputStream()直接访问数据而不复制，用完后调用close()归还缓冲区
+     *
+     * @param is
+     * @return 读取失败时返回null
+     */
+    public static PooledByteArrayOutputStream readFully(InputStream is) {
+        PooledByteArrayOutputStream bos = new PooledByteArrayOutputStream(PooledByteArrayOutputStream.estimateSize(is));
         try {
-            while ((readCount = is.read(readByte, 0, 1024)) != -1) {
-                bos.write(readByte, 0, readCount);
-            }
-            return bos.toByteArray();
+            bos.readFrom(is);
+            return bos;
         } catch (Exception e) {
             e.printStackTrace();
+            bos.close();
         } finally {
-            if (is != null) {
-                try {
-                    is.close();
-                    bos.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+            closeQuietly(is);
         }
         return null;
     }
 
+    /**
+     * 压缩图片到池化的缓冲区，按图片大小预估缓冲区容量
+     * <p>
+     * 可以通过返回值的toByteBuffer()、toInputStream()直接访问数据而不复制，用完后调用close()归还缓冲区
+     *
+     * @param bm
+     * @param format
+     * @param quality
+     * @return
+     */
+    public static PooledByteArrayOutputStream compressToBuffer(Bitmap bm, Bitmap.CompressFormat format, int quality) {
+        PooledByteArrayOutputStream bos = new PooledByteArrayOutputStream(estimateEncodedSize(bm, format));
+        bm.compress(format, quality, bos);
+        return bos;
+    }
+
+    private static int estimateEncodedSize(Bitmap bm, Bitmap.CompressFormat format) {
+        // 照片的JPEG通常不到像素数据的1/10，PNG压缩率低得多
+        return format == Bitmap.CompressFormat.PNG ? bm.getByteCount() / 2 : bm.getByteCount() / 10;
+    }
+
     /**
      * 将Bitmap转换成InputStream
      *
@@ -609,15 +1834,8 @@ public class ImageUtil {
      * @return
      */
     public static InputStream bitmap2InputStream(Bitmap bm) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bm.compress(Bitmap.CompressFormat.JPEG, 100, baos);
-        InputStream is = new ByteArrayInputStream(baos.toByteArray());
-        try {
-            baos.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return is;
+        // 流直接读取压缩缓冲区，关闭时缓冲区还给池
+        return compressToBuffer(bm, Bitmap.CompressFormat.JPEG, 100).toInputStream();
     }
 
     /**
@@ -628,15 +1846,7 @@ public class ImageUtil {
      * @return
      */
     public static InputStream bitmap2InputStream(Bitmap bm, int quality) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bm.compress(Bitmap.CompressFormat.PNG, quality, baos);
-        InputStream is = new ByteArrayInputStream(baos.toByteArray());
-        try {
-            baos.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return is;
+        return compressToBuffer(bm, Bitmap.CompressFormat.PNG, quality).toInputStream();
     }
 
     /**
@@ -683,14 +1893,9 @@ public class ImageUtil {
         if (bm == null) {
             return null;
         }
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bm.compress(Bitmap.CompressFormat.PNG, 75, baos);
+        PooledByteArrayOutputStream baos = compressToBuffer(bm, Bitmap.CompressFormat.PNG, 75);
         byte[] bytes = baos.toByteArray();
-        try {
-            baos.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        baos.close();
         return bytes;
     }
 
@@ -735,33 +1940,32 @@ public class ImageUtil {
     }
 
     public static byte[] bmpToByteArray(final Bitmap bmp, int quality, final boolean needRecycle) {
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.JPEG, quality, output);
+        PooledByteArrayOutputStream output = compressToBuffer(bmp, Bitmap.CompressFormat.JPEG, quality);
         if (needRecycle) {
             bmp.recycle();
         }
         byte[] result = output.toByteArray();
-        try {
-            output.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
+        output.close();
         return result;
     }
 
     /**
      * Bitmap转换成byte[]并且进行压缩,压缩到不大于maxkb
+     * <p>
+     * 保留原有行为：先按PNG编码，超出时按JPEG从质量100开始每次降低10，最低到20；
+     * maxkb实际按字节数比较，达不到上限时返回最后一次的结果
      *
      * @param bitmap
      * @param maxkb
      * @return
+     * @deprecated 使用{@link #compressToMaxBytes(Bitmap, int)}
      */
+    @Deprecated
     public static byte[] bitmap2Bytes(Bitmap bitmap, int maxkb) {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
         int options = 100;
-        while (output.toByteArray().length > maxkb && options != 10) {
+        while (output.size() > maxkb && options != 10) {
             output.reset(); //清空output
             bitmap.compress(Bitmap.CompressFormat.JPEG, options, output);//这里压缩options%，把压缩后的数据存放到output中
             options -= 10;
@@ -769,4 +1973,20 @@ public class ImageUtil {
         return output.toByteArray();
     }
 
+    /**
+     * 按JPEG压缩到不大于maxBytes字节，二分查找质量，最低质量仍超过上限时降低分辨率
+     * <p>
+     * 每个线程复用自己的BitmapEncoder，连续压缩不会重复分配缓冲区；缓冲区随线程一直保留
+     *
+     * @param bitmap
+     * @param maxBytes 字节数上限
+     * @return 压缩结果，最低质量和最小分辨率仍超过上限时返回能得到的最小结果
+     * @see BitmapEncoder
+     */
+    public static byte[] compressToMaxBytes(Bitmap bitmap, int maxBytes) {
+        BitmapEncoder encoder = sEncoders.get();
+        encoder.encode(bitmap, maxBytes);
+        return encoder.toByteArray();
+    }
+
 }
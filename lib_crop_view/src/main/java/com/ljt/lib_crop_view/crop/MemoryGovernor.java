@@ -0,0 +1,396 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 位图内存预算
+ * <p>
+ * 分配或解码位图之前按宽×高×每像素字节数估算占用，与剩余预算比较：预算由memoryClass决定，
+ * 减去仍然存活的位图(经ImageUtil创建或解码的)。超出预算时按固定的顺序降级：先淘汰内存缓存和复用池，
+ * 解码时再提高inSampleSize(最多额外缩小MAX_EXTRA_SAMPLE倍)，然后改用RGB_565，最后继续提高inSampleSize；
+ * 单张位图还不能超过硬件加速Canvas能绘制的上限。每次降级都通过Listener报告。
+ *
+ * @author lijintao <br/>
+ * @see ImageUtil#setMemoryGovernor(MemoryGovernor)
+ */
+public class MemoryGovernor {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "MemoryGovernor";
+
+    /**
+     * 硬件加速Canvas能绘制的最大位图(RecordingCanvas.MAX_BITMAP_SIZE)，超过时绘制会抛出异常
+     */
+    public static final long MAX_CANVAS_BITMAP_BYTES = 100 * 1024 * 1024;
+
+    // 改用RGB_565之前，inSampleSize最多在请求值基础上再放大的倍数
+    private static final int MAX_EXTRA_SAMPLE = 4;
+
+    // 默认预算占memoryClass的比例
+    private static final int DEFAULT_BUDGET_PERCENT = 50;
+
+    private static final int MB = 1024 * 1024;
+
+    private final long mBudget;
+
+    // 经ImageUtil分配的位图，弱引用，被回收或GC后不再计入
+    private final Set<Bitmap> mLiveBitmaps = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+
+    private volatile Listener mListener;
+
+    /**
+     * 降级的方式
+     */
+    public enum Action {
+        /**
+         * 淘汰了内存缓存和复用池中的位图
+         */
+        TRIM,
+        /**
+         * 提高了解码的inSampleSize
+         */
+        SAMPLE,
+        /**
+         * 解码改用RGB_565
+         */
+        RGB_565,
+        /**
+         * 分配时内存不足，已清空缓存并重试
+         */
+        OUT_OF_MEMORY
+    }
+
+    /**
+     * 降级的通知，在分配位图的线程上回调
+     */
+    public interface Listener {
+        void onDegrade(Report report);
+    }
+
+    /**
+     * 一次降级的记录
+     */
+    public static final class Report {
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mRequestedConfig;
+        private final int mRequestedSampleSize;
+        private final Bitmap.Config mConfig;
+        private final int mSampleSize;
+        private final long mRequestedBytes;
+        private final long mAvailableBytes;
+        private final List<Action> mActions;
+
+        Report(int width, int height, Bitmap.Config requestedConfig, int requestedSampleSize, Bitmap.Config config,
+               int sampleSize, long requestedBytes, long availableBytes, List<Action> actions) {
+            mWidth = width;
+            mHeight = height;
+            mRequestedConfig = requestedConfig;
+            mRequestedSampleSize = requestedSampleSize;
+            mConfig = config;
+            mSampleSize = sampleSize;
+            mRequestedBytes = requestedBytes;
+            mAvailableBytes = availableBytes;
+            mActions = Collections.unmodifiableList(actions);
+        }
+
+        /**
+         * @return 原图(解码时)或新位图(分配时)的宽度
+         */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public Bitmap.Config getRequestedConfig() {
+            return mRequestedConfig;
+        }
+
+        public int getRequestedSampleSize() {
+            return mRequestedSampleSize;
+        }
+
+        /**
+         * @return 实际使用的Bitmap.Config
+         */
+        public Bitmap.Config getConfig() {
+            return mConfig;
+        }
+
+        /**
+         * @return 实际使用的inSampleSize，分配位图时为1
+         */
+        public int getSampleSize() {
+            return mSampleSize;
+        }
+
+        /**
+         * @return 不降级时估算的字节数
+         */
+        public long getRequestedBytes() {
+            return mRequestedBytes;
+        }
+
+        /**
+         * @return 降级前的剩余预算
+         */
+        public long getAvailableBytes() {
+            return mAvailableBytes;
+        }
+
+        /**
+         * @return 按执行顺序排列的降级方式
+         */
+        public List<Action> getActions() {
+            return mActions;
+        }
+
+        @Override
+        public String toString() {
+            return mWidth + "x" + mHeight + "[" + mRequestedConfig + "/" + mRequestedSampleSize + " -> " + mConfig
+                    + "/" + mSampleSize + ",requested=" + mRequestedBytes + ",available=" + mAvailableBytes
+                    + ",actions=" + mActions + "]";
+        }
+    }
+
+    /**
+     * 以memoryClass的一半作为预算
+     *
+     * @param context
+     */
+    public MemoryGovernor(Context context) {
+        this(getDefaultBudget(context));
+    }
+
+    /**
+     * @param budgetBytes 存活位图最多占用的字节数
+     */
+    public MemoryGovernor(long budgetBytes) {
+        mBudget = Math.max(MB, budgetBytes);
+    }
+
+    public static long getDefaultBudget(Context context) {
+        ActivityManager am = (ActivityManager) context.getApplicationContext()
+                .getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryClass = am != null ? (long) am.getMemoryClass() * MB : Runtime.getRuntime().maxMemory();
+        return memoryClass * DEFAULT_BUDGET_PERCENT / 100;
+    }
+
+    public MemoryGovernor setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    public long getBudget() {
+        return mBudget;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param config
+     * @return 位图占用的字节数
+     */
+    public static long estimateBytes(int width, int height, Bitmap.Config config) {
+        return (long) Math.max(0, width) * Math.max(0, height) * BitmapPool.getBytesPerPixel(config);
+    }
+
+    /**
+     * @return 仍然存活的位图占用的字节数
+     */
+    public long getLiveBytes() {
+        long bytes = 0;
+        synchronized (mLiveBitmaps) {
+            for (Bitmap bitmap : mLiveBitmaps) {
+                if (!bitmap.isRecycled()) {
+                    bytes += BitmapMemoryCache.getBitmapBytes(bitmap);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return 剩余预算；Android 8.0以下位图像素在Java堆上，同时不超过堆的剩余空间
+     */
+    public long getAvailableBytes() {
+        long available = mBudget - getLiveBytes();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            Runtime runtime = Runtime.getRuntime();
+            available = Math.min(available, runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()));
+        }
+        return Math.max(0, available);
+    }
+
+    /**
+     * 记录经ImageUtil分配的位图
+     */
+    void track(Bitmap bitmap) {
+        if (bitmap != null) {
+            synchronized (mLiveBitmaps) {
+                mLiveBitmaps.add(bitmap);
+            }
+        }
+    }
+
+    /**
+     * 为即将分配的位图预留空间，剩余预算不足时淘汰内存缓存和复用池
+     *
+     * @return 预留后是否在预算之内
+     */
+    boolean reserve(int width, int height, Bitmap.Config config) {
+        final long bytes = estimateBytes(width, height, config);
+        final long available = getAvailableBytes();
+        if (bytes <= available) {
+            return true;
+        }
+        trim(bytes - available);
+        List<Action> actions = new ArrayList<>();
+        actions.add(Action.TRIM);
+        report(new Report(width, height, config, 1, config, 1, bytes, available, actions));
+        return bytes <= getAvailableBytes();
+    }
+
+    /**
+     * 按剩余预算调整解码参数，只会提高options.inSampleSize或把inPreferredConfig改为RGB_565
+     *
+     * @param srcWidth     要解码的原图(或区域)宽度
+     * @param srcHeight    要解码的原图(或区域)高度
+     * @param options      已设置inSampleSize和inPreferredConfig
+     * @param allowRgb565  图片不透明、允许改用RGB_565
+     * @return 是否做了降级
+     */
+    boolean adjustDecode(int srcWidth, int srcHeight, BitmapFactory.Options options, boolean allowRgb565) {
+        if (srcWidth <= 0 || srcHeight <= 0) {
+            return false;
+        }
+        final int requestedSample = Math.max(1, options.inSampleSize);
+        final Bitmap.Config requestedConfig = options.inPreferredConfig != null ? options.inPreferredConfig
+                : Bitmap.Config.ARGB_8888;
+        final long requestedBytes = estimateDecodeBytes(srcWidth, srcHeight, requestedSample, requestedConfig);
+        long available = getAvailableBytes();
+        if (requestedBytes <= Math.min(available, MAX_CANVAS_BITMAP_BYTES)) {
+            return false;
+        }
+        final long availableBefore = available;
+        List<Action> actions = new ArrayList<>();
+        if (requestedBytes > available) {
+            trim(requestedBytes - available);
+            actions.add(Action.TRIM);
+            available = getAvailableBytes();
+        }
+        final long limit = Math.min(available, MAX_CANVAS_BITMAP_BYTES);
+        int sample = requestedSample;
+        Bitmap.Config config = requestedConfig;
+        // 1. 提高采样率，最多额外缩小MAX_EXTRA_SAMPLE倍
+        while (estimateDecodeBytes(srcWidth, srcHeight, sample, config) > limit
+                && sample < requestedSample * MAX_EXTRA_SAMPLE) {
+            sample *= 2;
+        }
+        // 2. 改用RGB_565，回到能满足预算的最小采样率
+        if (estimateDecodeBytes(srcWidth, srcHeight, sample, config) > limit && allowRgb565
+                && BitmapPool.getBytesPerPixel(config) > 2) {
+            config = Bitmap.Config.RGB_565;
+            sample = requestedSample;
+            while (estimateDecodeBytes(srcWidth, srcHeight, sample, config) > limit
+                    && sample < requestedSample * MAX_EXTRA_SAMPLE) {
+                sample *= 2;
+            }
+        }
+        // 3. 继续提高采样率直到满足预算
+        while (estimateDecodeBytes(srcWidth, srcHeight, sample, config) > limit
+                && (srcWidth / sample > 1 || srcHeight / sample > 1)) {
+            sample *= 2;
+        }
+        if (sample != requestedSample) {
+            actions.add(Action.SAMPLE);
+        }
+        if (config != requestedConfig) {
+            actions.add(Action.RGB_565);
+        }
+        options.inSampleSize = sample;
+        options.inPreferredConfig = config;
+        report(new Report(srcWidth, srcHeight, requestedConfig, requestedSample, config, sample, requestedBytes,
+                availableBefore, actions));
+        return sample != requestedSample || config != requestedConfig;
+    }
+
+    /**
+     * 分配时发生OutOfMemoryError，清空内存缓存和复用池，之后调用方可以重试一次
+     */
+    void onOutOfMemory(int width, int height, Bitmap.Config config) {
+        BitmapMemoryCache cache = ImageUtil.getMemoryCache();
+        if (cache != null) {
+            cache.evictAll();
+        }
+        BitmapPool pool = ImageUtil.getBitmapPool();
+        if (pool != null) {
+            pool.clear();
+        }
+        List<Action> actions = new ArrayList<>();
+        actions.add(Action.OUT_OF_MEMORY);
+        report(new Report(width, height, config, 1, config, 1, estimateBytes(width, height, config),
+                getAvailableBytes(), actions));
+    }
+
+    /**
+     * 解码时发生OutOfMemoryError：清空内存缓存和复用池，采样率至少提高一倍，再按剩余预算调整，
+     * 调用方用调整后的options重试一次
+     *
+     * @param srcWidth    要解码的原图(或区域)宽度，未知时为0
+     * @param srcHeight   要解码的原图(或区域)高度，未知时为0
+     * @param options     失败的解码使用的参数，会被修改
+     * @param allowRgb565 图片不透明、允许改用RGB_565
+     * @return 是否还能缩小，为false时不应重试
+     */
+    boolean onDecodeOutOfMemory(int srcWidth, int srcHeight, BitmapFactory.Options options, boolean allowRgb565) {
+        final int sample = Math.max(1, options.inSampleSize);
+        onOutOfMemory(srcWidth / sample, srcHeight / sample, options.inPreferredConfig);
+        if (srcWidth > 0 && srcHeight > 0 && srcWidth / sample <= 1 && srcHeight / sample <= 1) {
+            return false;
+        }
+        options.inSampleSize = sample * 2;
+        adjustDecode(srcWidth, srcHeight, options, allowRgb565);
+        return true;
+    }
+
+    /**
+     * 按LRU顺序淘汰复用池和内存缓存，尽量腾出指定字节数；复用池中的位图没有被使用，优先淘汰
+     */
+    private void trim(long bytes) {
+        BitmapPool pool = ImageUtil.getBitmapPool();
+        if (pool != null) {
+            long current = pool.getCurrentBytes();
+            pool.trimToSize(Math.max(0, current - bytes));
+            bytes -= current - pool.getCurrentBytes();
+        }
+        BitmapMemoryCache cache = ImageUtil.getMemoryCache();
+        if (cache != null && bytes > 0) {
+            cache.trimToSize((int) Math.max(0, cache.size() - bytes));
+        }
+    }
+
+    private static long estimateDecodeBytes(int width, int height, int sampleSize, Bitmap.Config config) {
+        return estimateBytes((width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize, config);
+    }
+
+    private void report(Report report) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onDegrade(report);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.ljt.lib_crop_view.crop;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 原样输出图片文件内容，只把EXIF方向值的两个字节替换为新的方向，不解码也不重新编码
+ *
+ * @author lijintao <br/>
+ * @see ImageHeader#getOrientationOffset()
+ */
+final class OrientationRewriteInputStream extends FilterInputStream {
+
+    private final long mOffset;
+    private final byte[] mValue;
+    private long mPosition;
+
+    /**
+     * @param in           从文件开头读取的流
+     * @param offset       方向值在文件中的位置
+     * @param littleEndian 方向值的字节序
+     * @param orientation  新的EXIF方向
+     */
+    OrientationRewriteInputStream(InputStream in, long offset, boolean littleEndian, int orientation) {
+        super(in);
+        mOffset = offset;
+        mValue = littleEndian ? new byte[]{(byte) orientation, (byte) (orientation >> 8)}
+                : new byte[]{(byte) (orientation >> 8), (byte) orientation};
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            return b;
+        }
+        long index = mPosition - mOffset;
+        mPosition++;
+        return index >= 0 && index < mValue.length ? mValue[(int) index] & 0xFF : b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = in.read(b, off, len);
+        if (count <= 0) {
+            return count;
+        }
+        // 本次读取的范围与方向值重叠的部分替换为新值
+        long start = Math.max(mPosition, mOffset);
+        long end = Math.min(mPosition + count, mOffset + mValue.length);
+        for (long position = start; position < end; position++) {
+            b[off + (int) (position - mPosition)] = mValue[(int) (position - mOffset)];
+        }
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        if (skipped > 0) {
+            mPosition += skipped;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
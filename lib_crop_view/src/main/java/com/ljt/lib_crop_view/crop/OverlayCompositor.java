@@ -0,0 +1,318 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 把水印等叠加图绘制到图片上
+ * <p>
+ * 叠加图按目标尺寸缩放一次后缓存，之后同一尺寸直接绘制；位置、透明度和混合模式在绘制时通过同一个Paint设置，
+ * 不再为每张图片分配Paint或缩放背景图的副本。批量处理时使用Session，所有图片共用一个Canvas和一张目标位图。
+ * 非线程安全。
+ *
+ * <pre>
+ * OverlayCompositor compositor = new OverlayCompositor(logo)
+ *         .setAnchor(OverlayCompositor.Anchor.BOTTOM_RIGHT).setScale(0.2f).setOpacity(0.8f);
+ * OverlayCompositor.Session session = compositor.newSession();
+ * for (...) {
+ *     session.renderTo(bitmap, Bitmap.CompressFormat.JPEG, 90, file);
+ * }
+ * session.close();
+ * </pre>
+ *
+ * @author lijintao <br/>
+ */
+public class OverlayCompositor {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "OverlayCompositor";
+
+    // 最多缓存的叠加图尺寸数
+    private static final int MAX_PREPARED = 4;
+
+    /**
+     * 叠加图的对齐位置
+     */
+    public enum Anchor {
+        TOP_LEFT, TOP_RIGHT, CENTER, BOTTOM_LEFT, BOTTOM_RIGHT
+    }
+
+    private final Bitmap mOverlay;
+
+    private Anchor mAnchor = Anchor.BOTTOM_RIGHT;
+
+    private float mScale;
+
+    private float mMargin;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // 按叠加图的宽高缓存缩放后的叠加图，按访问顺序淘汰
+    private final LinkedHashMap<Long, Bitmap> mPrepared = new LinkedHashMap<Long, Bitmap>(MAX_PREPARED, 0.75f, true);
+
+    private final Rect mBounds = new Rect();
+
+    /**
+     * @param overlay 叠加图，由调用方管理，compositor使用期间不能回收
+     */
+    public OverlayCompositor(Bitmap overlay) {
+        mOverlay = overlay;
+    }
+
+    /**
+     * @param anchor 对齐位置，默认右下角
+     * @return
+     */
+    public OverlayCompositor setAnchor(Anchor anchor) {
+        mAnchor = anchor;
+        return this;
+    }
+
+    /**
+     * @param scale 叠加图宽度占目标宽度的比例，不大于0时保持叠加图原尺寸，默认保持原尺寸
+     * @return
+     */
+    public OverlayCompositor setScale(float scale) {
+        mScale = scale;
+        return this;
+    }
+
+    /**
+     * @param margin 与目标边缘的距离占目标宽度的比例，默认0
+     * @return
+     */
+    public OverlayCompositor setMargin(float margin) {
+        mMargin = Math.max(0, margin);
+        return this;
+    }
+
+    /**
+     * @param opacity 不透明度，0~1，默认1
+     * @return
+     */
+    public OverlayCompositor setOpacity(float opacity) {
+        mPaint.setAlpha(Math.round(Math.max(0, Math.min(opacity, 1)) * 255));
+        return this;
+    }
+
+    /**
+     * @param mode 混合模式，为null时使用默认的SRC_OVER
+     * @return
+     */
+    public OverlayCompositor setBlendMode(PorterDuff.Mode mode) {
+        mPaint.setXfermode(mode != null ? new PorterDuffXfermode(mode) : null);
+        return this;
+    }
+
+    /**
+     * 在目标Canvas上绘制叠加图，例如直接绘制到导出用的Canvas上
+     *
+     * @param canvas
+     * @param width  目标宽度
+     * @param height 目标高度
+     */
+    public void draw(Canvas canvas, int width, int height) {
+        Bitmap overlay = prepare(width);
+        if (overlay == null) {
+            return;
+        }
+        computeBounds(width, height, overlay.getWidth(), overlay.getHeight(), mBounds);
+        canvas.drawBitmap(overlay, mBounds.left, mBounds.top, mPaint);
+    }
+
+    /**
+     * 在背景图上绘制叠加图，得到新的位图，背景图不变
+     *
+     * @param background
+     * @return 内存不足时返回null
+     */
+    public Bitmap composite(Bitmap background) {
+        Session session = newSession();
+        Bitmap result = session.render(background);
+        // 结果交给调用方，不随session释放
+        session.mTarget = null;
+        session.close();
+        return result;
+    }
+
+    /**
+     * @return 批量处理的会话，结束后调用close()
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * 释放缓存的叠加图
+     */
+    public void clear() {
+        Iterator<Bitmap> iterator = mPrepared.values().iterator();
+        while (iterator.hasNext()) {
+            ImageUtil.recycleBitmap(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @param targetWidth 目标宽度
+     * @return 适合目标宽度的叠加图，不需要缩放时为原图
+     */
+    private Bitmap prepare(int targetWidth) {
+        if (mOverlay == null || mOverlay.isRecycled()) {
+            return null;
+        }
+        if (mScale <= 0) {
+            return mOverlay;
+        }
+        final int width = Math.max(1, Math.round(targetWidth * mScale));
+        final int height = Math.max(1, Math.round((float) mOverlay.getHeight() * width / mOverlay.getWidth()));
+        if (width == mOverlay.getWidth() && height == mOverlay.getHeight()) {
+            return mOverlay;
+        }
+        final Long key = ((long) width << 32) | height;
+        Bitmap prepared = mPrepared.get(key);
+        if (prepared != null && !prepared.isRecycled()) {
+            return prepared;
+        }
+        prepared = new BitmapTransform().scale(width, height).apply(mOverlay);
+        if (prepared == null) {
+            return null;
+        }
+        mPrepared.put(key, prepared);
+        if (mPrepared.size() > MAX_PREPARED) {
+            Iterator<Map.Entry<Long, Bitmap>> iterator = mPrepared.entrySet().iterator();
+            ImageUtil.recycleBitmap(iterator.next().getValue());
+            iterator.remove();
+        }
+        return prepared;
+    }
+
+    private void computeBounds(int width, int height, int overlayWidth, int overlayHeight, Rect out) {
+        final int margin = Math.round(width * mMargin);
+        int left;
+        int top;
+        switch (mAnchor) {
+            case TOP_LEFT:
+                left = margin;
+                top = margin;
+                break;
+            case TOP_RIGHT:
+                left = width - margin - overlayWidth;
+                top = margin;
+                break;
+            case CENTER:
+                left = (width - overlayWidth) / 2;
+                top = (height - overlayHeight) / 2;
+                break;
+            case BOTTOM_LEFT:
+                left = margin;
+                top = height - margin - overlayHeight;
+                break;
+            default:
+                left = width - margin - overlayWidth;
+                top = height - margin - overlayHeight;
+                break;
+        }
+        out.set(left, top, left + overlayWidth, top + overlayHeight);
+    }
+
+    /**
+     * 批量处理的会话，所有图片共用一个Canvas和一张目标位图，尺寸变化时才重新分配
+     */
+    public class Session {
+        private final Canvas mCanvas = new Canvas();
+
+        // 背景图直接覆盖目标位图，不需要先清空
+        private final Paint mBackgroundPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+        private final Rect mSrc = new Rect();
+
+        private final RectF mDst = new RectF();
+
+        private Bitmap mTarget;
+
+        Session() {
+            mBackgroundPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        }
+
+        /**
+         * @param background 背景图
+         * @return 共用的目标位图，下一次render后内容被覆盖；内存不足时返回null
+         */
+        public Bitmap render(Bitmap background) {
+            return render(background, background.getWidth(), background.getHeight());
+        }
+
+        /**
+         * 背景图缩放到指定尺寸后绘制叠加图，背景图在绘制时缩放，不产生缩放后的副本
+         *
+         * @param background 背景图
+         * @param width      输出宽度
+         * @param height     输出高度
+         * @return 共用的目标位图，下一次render后内容被覆盖；内存不足时返回null
+         */
+        public Bitmap render(Bitmap background, int width, int height) {
+            if (mTarget == null || mTarget.getWidth() != width || mTarget.getHeight() != height) {
+                ImageUtil.recycleBitmap(mTarget);
+                mTarget = ImageUtil.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                if (mTarget == null) {
+                    return null;
+                }
+            }
+            // 硬件位图不能绘制到软件Canvas上
+            Bitmap source = ImageUtil.isHardware(background) ? background.copy(Bitmap.Config.ARGB_8888, false)
+                    : background;
+            if (source == null) {
+                return null;
+            }
+            mCanvas.setBitmap(mTarget);
+            mSrc.set(0, 0, source.getWidth(), source.getHeight());
+            mDst.set(0, 0, width, height);
+            mCanvas.drawBitmap(source, mSrc, mDst, mBackgroundPaint);
+            draw(mCanvas, width, height);
+            mCanvas.setBitmap(null);
+            if (source != background) {
+                source.recycle();
+            }
+            return mTarget;
+        }
+
+        /**
+         * 合成并写入文件
+         *
+         * @param background 背景图
+         * @param format
+         * @param quality
+         * @param file       目标文件
+         * @return
+         * @throws IOException 内存不足、压缩或写入失败
+         */
+        public BitmapFileWriter.Result renderTo(Bitmap background, Bitmap.CompressFormat format, int quality,
+                                                File file) throws IOException {
+            Bitmap result = render(background);
+            if (result == null) {
+                throw new IOException("render failed: " + file);
+            }
+            return new BitmapFileWriter().write(result, format, quality, file);
+        }
+
+        /**
+         * 释放目标位图
+         */
+        public void close() {
+            ImageUtil.recycleBitmap(mTarget);
+            mTarget = null;
+        }
+    }
+}
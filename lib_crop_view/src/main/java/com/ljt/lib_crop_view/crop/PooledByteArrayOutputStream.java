@@ -0,0 +1,211 @@
+package com.ljt.lib_crop_view.crop;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 从ByteArrayPool取得缓冲区的ByteArrayOutputStream
+ * <p>
+ * 按预估大小申请缓冲区，容量不足时从池中换一个更大的数组；结果可以通过toByteBuffer()、toInputStream()
+ * 直接访问内部数组而不复制。用完后调用close()把缓冲区还给池，toInputStream()之后由返回的流负责归还。
+ * 非线程安全。
+ *
+ * @author lijintao <br/>
+ */
+public class PooledByteArrayOutputStream extends OutputStream {
+
+    private static final int DEFAULT_SIZE = 16 * 1024;
+
+    private final ByteArrayPool mPool;
+
+    private byte[] mBuffer;
+
+    private int mCount;
+
+    /**
+     * @param pool     为null时不复用
+     * @param sizeHint 预估的数据大小，不大于0时使用默认大小
+     */
+    public PooledByteArrayOutputStream(ByteArrayPool pool, int sizeHint) {
+        mPool = pool;
+        mBuffer = obtain(sizeHint > 0 ? sizeHint : DEFAULT_SIZE);
+    }
+
+    /**
+     * 使用ImageUtil中设置的复用池
+     *
+     * @param sizeHint 预估的数据大小，不大于0时使用默认大小
+     * @see ImageUtil#setByteArrayPool(ByteArrayPool)
+     */
+    public PooledByteArrayOutputStream(int sizeHint) {
+        this(ImageUtil.getByteArrayPool(), sizeHint);
+    }
+
+    /**
+     * 估算输入流剩余的数据量：文件使用剩余长度，其他流使用available()
+     *
+     * @param is
+     * @return 无法估算时返回0
+     */
+    public static int estimateSize(InputStream is) {
+        try {
+            if (is instanceof FileInputStream) {
+                FileInputStream fis = (FileInputStream) is;
+                long remaining = fis.getChannel().size() - fis.getChannel().position();
+                return (int) Math.max(0, Math.min(remaining, Integer.MAX_VALUE - 8));
+            }
+            return Math.max(0, is.available());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * 读取输入流中剩余的全部数据，不关闭输入流
+     *
+     * @param is
+     * @return 读取的字节数
+     * @throws IOException
+     */
+    public int readFrom(InputStream is) throws IOException {
+        final int start = mCount;
+        // 按预估大小一次扩容，避免读取过程中多次复制
+        ensureCapacity(mCount + estimateSize(is));
+        while (true) {
+            if (mCount == mBuffer.length) {
+                // 预估大小恰好读满时先试读一个字节，确实还有数据才扩容
+                int b = is.read();
+                if (b < 0) {
+                    break;
+                }
+                write(b);
+            }
+            int count = is.read(mBuffer, mCount, mBuffer.length - mCount);
+            if (count < 0) {
+                break;
+            }
+            mCount += count;
+        }
+        return mCount - start;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(mCount + 1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(mCount + len);
+        System.arraycopy(b, off, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mCount);
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public void reset() {
+        mCount = 0;
+    }
+
+    /**
+     * @return 内部数组，有效长度为size()；下一次写入或close()之后不能再使用
+     */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return 包装内部数组的只读ByteBuffer，不复制数据；close()之后不能再使用
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(mBuffer, 0, mCount).asReadOnlyBuffer();
+    }
+
+    /**
+     * 返回读取内部数组的输入流，不复制数据；缓冲区转交给返回的流，流关闭时还给池，本对象随即不能再使用
+     *
+     * @return
+     */
+    public InputStream toInputStream() {
+        final byte[] buffer = mBuffer;
+        final int count = mCount;
+        mBuffer = null;
+        mCount = 0;
+        return new ByteArrayInputStream(buffer, 0, count) {
+            private boolean mClosed;
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!mClosed) {
+                    mClosed = true;
+                    recycle(buffer);
+                }
+            }
+        };
+    }
+
+    /**
+     * 复制出有效数据；数组长度恰好等于数据长度时直接交出内部数组，本对象随即不能再使用
+     *
+     * @return
+     */
+    public byte[] toByteArray() {
+        if (mBuffer.length == mCount) {
+            byte[] result = mBuffer;
+            mBuffer = null;
+            mCount = 0;
+            return result;
+        }
+        byte[] result = new byte[mCount];
+        System.arraycopy(mBuffer, 0, result, 0, mCount);
+        return result;
+    }
+
+    /**
+     * 把缓冲区还给池，之后不能再使用
+     */
+    @Override
+    public void close() {
+        if (mBuffer != null) {
+            recycle(mBuffer);
+            mBuffer = null;
+            mCount = 0;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mBuffer.length) {
+            return;
+        }
+        byte[] buffer = obtain(Math.max(capacity, mBuffer.length * 2));
+        System.arraycopy(mBuffer, 0, buffer, 0, mCount);
+        recycle(mBuffer);
+        mBuffer = buffer;
+    }
+
+    private byte[] obtain(int length) {
+        return mPool != null ? mPool.get(length) : new byte[length];
+    }
+
+    private void recycle(byte[] buffer) {
+        if (mPool != null) {
+            mPool.put(buffer);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+
+/**
+ * 基于BitmapRegionDecoder的图块数据源
+ *
+ * @author lijintao <br/>
+ */
+public class RegionTileSource implements TileSource {
+
+    private final BitmapRegionDecoder mDecoder;
+
+    // 与TileContainer相同：不透明的JPEG为RGB_565，可能带透明度的PNG、WebP等为ARGB_8888
+    private final Bitmap.Config mConfig;
+
+    private RegionTileSource(BitmapRegionDecoder decoder, Bitmap.Config config) {
+        mDecoder = decoder;
+        mConfig = config;
+    }
+
+    /**
+     * @param filePath 图片路径
+     * @return 图片格式不支持分块解码时返回null
+     */
+    public static RegionTileSource newInstance(String filePath) {
+        if (filePath == null) {
+            return null;
+        }
+        try {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(filePath, false);
+            ImageHeader header = ImageHeader.probe(filePath);
+            final boolean opaque = header != null && ImageHeader.MIME_JPEG.equals(header.getMimeType());
+            return new RegionTileSource(decoder, opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public int getWidth() {
+        return mDecoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mDecoder.getHeight();
+    }
+
+    @Override
+    public synchronized Bitmap decodeTile(Rect region, int sampleSize) {
+        if (mDecoder.isRecycled()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = mConfig;
+        options.outWidth = region.width();
+        options.outHeight = region.height();
+        ImageUtil.setInBitmap(options);
+        try {
+            try {
+                return mDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                if (options.inBitmap == null) {
+                    throw e;
+                }
+                ImageUtil.recycleBitmap(options.inBitmap);
+                options.inBitmap = null;
+                return mDecoder.decodeRegion(region, options);
+            }
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void recycle() {
+        mDecoder.recycle();
+    }
+}
@@ -0,0 +1,563 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 预先分块的本地图片容器，再次打开大图时不需要解码
+ * <p>
+ * 一个文件中保存多个采样级别(1、2、4...直到整张图不超过一个图块)的图块和索引。图块为Bitmap的原始像素
+ * (不透明的JPEG为RGB_565，其他为ARGB_8888)，可以选择用最快级别的Deflate压缩。读取时通过FileChannel.map映射文件，
+ * 未压缩的图块直接用copyPixelsFromBuffer填入位图，不经过任何编解码器，只有用到的图块才会被换入内存。
+ * 像素为本机的内存格式，容器只用作本机缓存，不能在设备间传递。
+ *
+ * <pre>
+ * // 第一次：分块解码显示，同时在后台生成容器
+ * zoomImageView.setImageTiled(path);
+ * TileContainer.build(path, file, false);
+ * // 之后：直接从容器打开
+ * zoomImageView.setImageContainer(file, path);
+ * </pre>
+ *
+ * @author lijintao <br/>
+ */
+public class TileContainer implements TileSource {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "TileContainer";
+
+    private static final int MAGIC = 0x43565443;
+
+    private static final int VERSION = 1;
+
+    // 图块边长，与TiledImageRenderer请求的图块一致，请求的图块恰好对应容器中的一块
+    private static final int TILE_SIZE = 512;
+
+    // 按1GB分段映射文件，写入时图块不跨段，单个MappedByteBuffer不超过int范围
+    private static final int SEGMENT_SHIFT = 30;
+
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private static final int CONFIG_ARGB_8888 = 0;
+
+    private static final int CONFIG_RGB_565 = 1;
+
+    private final RandomAccessFile mFile;
+
+    private final FileChannel mChannel;
+
+    private final long mLength;
+
+    private final MappedByteBuffer[] mSegments;
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    private final int mRotation;
+
+    private final Bitmap.Config mConfig;
+
+    private final boolean mCompressed;
+
+    private final Level[] mLevels;
+
+    private boolean mRecycled;
+
+    /**
+     * 一个采样级别的图块索引
+     */
+    private static class Level {
+        final int sampleSize;
+        final int columns;
+        final int rows;
+        final long[] offsets;
+        final int[] lengths;
+        final int[] widths;
+        final int[] heights;
+
+        Level(int sampleSize, int columns, int rows) {
+            this.sampleSize = sampleSize;
+            this.columns = columns;
+            this.rows = rows;
+            final int count = columns * rows;
+            offsets = new long[count];
+            lengths = new int[count];
+            widths = new int[count];
+            heights = new int[count];
+        }
+    }
+
+    private TileContainer(RandomAccessFile file, int width, int height, int rotation, Bitmap.Config config,
+                          boolean compressed, Level[] levels) throws IOException {
+        mFile = file;
+        mChannel = file.getChannel();
+        mLength = mChannel.size();
+        mSegments = new MappedByteBuffer[(int) ((mLength + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+        mConfig = config;
+        mCompressed = compressed;
+        mLevels = levels;
+    }
+
+    /**
+     * 从原图生成容器，逐个图块解码，耗时与解码原图若干次相当，需要在后台线程调用
+     * <p>
+     * 先写入同目录下的临时文件，完成后再重命名，中途失败不会留下不完整的容器
+     *
+     * @param srcPath    原图路径
+     * @param outFile    容器文件
+     * @param compressed 是否压缩图块，压缩后文件更小，读取时多一次解压
+     * @return 是否成功
+     */
+    public static boolean build(String srcPath, File outFile, boolean compressed) {
+        File tmpFile = new File(outFile.getPath() + ".tmp");
+        BitmapRegionDecoder decoder = null;
+        RandomAccessFile file = null;
+        TileWriter writer = null;
+        boolean success = false;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(srcPath, false);
+            ImageHeader header = ImageHeader.probe(srcPath);
+            final boolean opaque = header != null && ImageHeader.MIME_JPEG.equals(header.getMimeType());
+            final Bitmap.Config config = opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            final int width = decoder.getWidth();
+            final int height = decoder.getHeight();
+            file = new RandomAccessFile(tmpFile, "rw");
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeInt(width);
+            file.writeInt(height);
+            file.writeInt(ImageUtil.getExifOrientation(srcPath));
+            file.writeInt(opaque ? CONFIG_RGB_565 : CONFIG_ARGB_8888);
+            file.writeBoolean(compressed);
+            file.writeUTF(ImageUtil.getFileIdentity(srcPath));
+            final long indexPosition = file.getFilePointer();
+            file.writeLong(0);
+
+            List<Level> levels = new ArrayList<>();
+            writer = new TileWriter(file.getChannel(), config, compressed);
+            int sampleSize = 1;
+            while (true) {
+                final int span = TILE_SIZE * sampleSize;
+                Level level = new Level(sampleSize, (width + span - 1) / span, (height + span - 1) / span);
+                for (int row = 0; row < level.rows; row++) {
+                    for (int col = 0; col < level.columns; col++) {
+                        Rect region = new Rect(col * span, row * span, Math.min((col + 1) * span, width),
+                                Math.min((row + 1) * span, height));
+                        if (!writer.write(decoder, region, level, row * level.columns + col)) {
+                            return false;
+                        }
+                    }
+                }
+                levels.add(level);
+                if (level.columns == 1 && level.rows == 1) {
+                    break;
+                }
+                sampleSize *= 2;
+            }
+
+            final long indexOffset = file.getChannel().position();
+            file.seek(indexOffset);
+            file.writeInt(levels.size());
+            for (Level level : levels) {
+                file.writeInt(level.sampleSize);
+                file.writeInt(level.columns);
+                file.writeInt(level.rows);
+                for (int i = 0; i < level.offsets.length; i++) {
+                    file.writeLong(level.offsets[i]);
+                    file.writeInt(level.lengths[i]);
+                    file.writeInt(level.widths[i]);
+                    file.writeInt(level.heights[i]);
+                }
+            }
+            file.seek(indexPosition);
+            file.writeLong(indexOffset);
+            file.getFD().sync();
+            file.close();
+            file = null;
+            success = tmpFile.renameTo(outFile);
+            return success;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+        } finally {
+            // 任何一块写入失败提前返回时，也要释放Deflater的native内存
+            if (writer != null) {
+                writer.release();
+            }
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (!success) {
+                tmpFile.delete();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解码图块并写入文件，像素缓冲区和压缩缓冲区在所有图块间复用
+     */
+    private static class TileWriter {
+        private final FileChannel mChannel;
+        private final Bitmap.Config mConfig;
+        private final Deflater mDeflater;
+        private ByteBuffer mPixels;
+        private byte[] mRaw;
+        private byte[] mCompressed;
+
+        TileWriter(FileChannel channel, Bitmap.Config config, boolean compressed) {
+            mChannel = channel;
+            mConfig = config;
+            mDeflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        }
+
+        boolean write(BitmapRegionDecoder decoder, Rect region, Level level, int index) throws IOException {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = level.sampleSize;
+            options.inPreferredConfig = mConfig;
+            Bitmap bitmap = decoder.decodeRegion(region, options);
+            if (bitmap == null) {
+                return false;
+            }
+            if (bitmap.getConfig() != mConfig) {
+                Bitmap copy = bitmap.copy(mConfig, false);
+                bitmap.recycle();
+                if (copy == null) {
+                    return false;
+                }
+                bitmap = copy;
+            }
+            final int byteCount = bitmap.getByteCount();
+            if (mPixels == null || mPixels.capacity() < byteCount) {
+                mPixels = ByteBuffer.allocateDirect(byteCount);
+            }
+            mPixels.clear();
+            bitmap.copyPixelsToBuffer(mPixels);
+            mPixels.flip();
+            level.widths[index] = bitmap.getWidth();
+            level.heights[index] = bitmap.getHeight();
+            ImageUtil.recycleBitmap(bitmap);
+
+            ByteBuffer data = mPixels;
+            if (mDeflater != null) {
+                if (mRaw == null || mRaw.length < byteCount) {
+                    mRaw = new byte[byteCount];
+                }
+                mPixels.get(mRaw, 0, byteCount);
+                mDeflater.reset();
+                mDeflater.setInput(mRaw, 0, byteCount);
+                mDeflater.finish();
+                // 不可压缩的数据按存储块输出，每16KB增加5个字节，按zlib的deflateBound留足空间
+                final int bound = byteCount + (byteCount >> 12) + (byteCount >> 14) + 64;
+                if (mCompressed == null || mCompressed.length < bound) {
+                    mCompressed = new byte[bound];
+                }
+                int length = 0;
+                while (!mDeflater.finished() && length < mCompressed.length) {
+                    length += mDeflater.deflate(mCompressed, length, mCompressed.length - length);
+                }
+                if (!mDeflater.finished()) {
+                    return false;
+                }
+                data = ByteBuffer.wrap(mCompressed, 0, length);
+            }
+
+            final int length = data.remaining();
+            long position = mChannel.position();
+            if (position >>> SEGMENT_SHIFT != (position + length - 1) >>> SEGMENT_SHIFT) {
+                // 跨段的图块移到下一段的开头
+                position = ((position >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+                mChannel.position(position);
+            }
+            while (data.hasRemaining()) {
+                mChannel.write(data);
+            }
+            level.offsets[index] = position;
+            level.lengths[index] = length;
+            return true;
+        }
+
+        void release() {
+            if (mDeflater != null) {
+                mDeflater.end();
+            }
+        }
+    }
+
+    /**
+     * 打开容器
+     *
+     * @param file    容器文件
+     * @param srcPath 原图路径，不为null时检查容器是否由原图当前的内容生成
+     * @return 文件不存在、格式不对或原图已经变化时返回null
+     */
+    public static TileContainer open(File file, String srcPath) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+                raf.close();
+                return null;
+            }
+            final int width = raf.readInt();
+            final int height = raf.readInt();
+            final int rotation = raf.readInt();
+            final Bitmap.Config config = raf.readInt() == CONFIG_RGB_565 ? Bitmap.Config.RGB_565
+                    : Bitmap.Config.ARGB_8888;
+            final boolean compressed = raf.readBoolean();
+            final String identity = raf.readUTF();
+            final long indexOffset = raf.readLong();
+            if (indexOffset <= 0 || (srcPath != null && !identity.equals(ImageUtil.getFileIdentity(srcPath)))) {
+                raf.close();
+                return null;
+            }
+            raf.seek(indexOffset);
+            Level[] levels = new Level[raf.readInt()];
+            for (int i = 0; i < levels.length; i++) {
+                Level level = new Level(raf.readInt(), raf.readInt(), raf.readInt());
+                for (int j = 0; j < level.offsets.length; j++) {
+                    level.offsets[j] = raf.readLong();
+                    level.lengths[j] = raf.readInt();
+                    level.widths[j] = raf.readInt();
+                    level.heights[j] = raf.readInt();
+                }
+                levels[i] = level;
+            }
+            return new TileContainer(raf, width, height, rotation, config, compressed, levels);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            // 索引损坏时数组长度或UTF解析异常
+            e.printStackTrace();
+        }
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return 生成容器时原图的方向，显示时需要顺时针旋转的角度
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    @Override
+    public Bitmap decodeTile(Rect region, int sampleSize) {
+        if (mRecycled || mLevels.length == 0) {
+            return null;
+        }
+        // 不超过请求采样率的最粗级别
+        Level level = mLevels[0];
+        for (Level l : mLevels) {
+            if (l.sampleSize <= sampleSize) {
+                level = l;
+            }
+        }
+        final int span = TILE_SIZE * level.sampleSize;
+        final int col = region.left / span;
+        final int row = region.top / span;
+        if (level.sampleSize == sampleSize && region.left == col * span && region.top == row * span
+                && region.right == Math.min((col + 1) * span, mWidth)
+                && region.bottom == Math.min((row + 1) * span, mHeight)) {
+            // TiledImageRenderer请求的图块恰好是容器中的一块
+            return loadTile(level, row * level.columns + col);
+        }
+        return compose(level, region, sampleSize);
+    }
+
+    /**
+     * 由多个图块拼出任意区域，例如预览图；请求的采样率比最粗的级别还大时再缩小
+     */
+    private Bitmap compose(Level level, Rect region, int sampleSize) {
+        final int s = level.sampleSize;
+        final Rect levelRect = new Rect(region.left / s, region.top / s, (region.right + s - 1) / s,
+                (region.bottom + s - 1) / s);
+        if (levelRect.isEmpty()) {
+            return null;
+        }
+        Bitmap bitmap = ImageUtil.createBitmap(levelRect.width(), levelRect.height(), mConfig);
+        if (bitmap == null) {
+            return null;
+        }
+        Canvas canvas = new Canvas(bitmap);
+        Rect tileRect = new Rect();
+        Rect src = new Rect();
+        Rect dst = new Rect();
+        for (int row = levelRect.top / TILE_SIZE; row < level.rows && row * TILE_SIZE < levelRect.bottom; row++) {
+            for (int col = levelRect.left / TILE_SIZE; col < level.columns && col * TILE_SIZE < levelRect.right;
+                 col++) {
+                final int index = row * level.columns + col;
+                tileRect.set(col * TILE_SIZE, row * TILE_SIZE, col * TILE_SIZE + level.widths[index],
+                        row * TILE_SIZE + level.heights[index]);
+                if (!dst.setIntersect(tileRect, levelRect)) {
+                    continue;
+                }
+                Bitmap tile = loadTile(level, index);
+                if (tile == null) {
+                    ImageUtil.recycleBitmap(bitmap);
+                    return null;
+                }
+                src.set(dst);
+                src.offset(-tileRect.left, -tileRect.top);
+                dst.offset(-levelRect.left, -levelRect.top);
+                canvas.drawBitmap(tile, src, dst, null);
+                ImageUtil.recycleBitmap(tile);
+            }
+        }
+        if (sampleSize > s) {
+            final int width = Math.max(1, (region.width() + sampleSize - 1) / sampleSize);
+            final int height = Math.max(1, (region.height() + sampleSize - 1) / sampleSize);
+            Bitmap scaled = new BitmapTransform().scale(width, height).apply(bitmap);
+            ImageUtil.recycleBitmap(bitmap);
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    /**
+     * 从映射的文件中读出一个图块
+     */
+    private Bitmap loadTile(Level level, int index) {
+        final long offset = level.offsets[index];
+        final int length = level.lengths[index];
+        try {
+            ByteBuffer data = slice(offset, length);
+            if (data == null) {
+                return null;
+            }
+            if (mCompressed) {
+                byte[] input = new byte[length];
+                data.get(input);
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(input);
+                    final int rawLength = level.widths[index] * level.heights[index]
+                            * BitmapPool.getBytesPerPixel(mConfig);
+                    byte[] output = new byte[rawLength];
+                    int read = 0;
+                    while (read < rawLength && !inflater.finished()) {
+                        int n = inflater.inflate(output, read, rawLength - read);
+                        if (n == 0 && inflater.needsInput()) {
+                            break;
+                        }
+                        read += n;
+                    }
+                    if (read != rawLength) {
+                        return null;
+                    }
+                    data = ByteBuffer.wrap(output);
+                } finally {
+                    inflater.end();
+                }
+            }
+            Bitmap bitmap = ImageUtil.createBitmap(level.widths[index], level.heights[index], mConfig);
+            if (bitmap == null) {
+                return null;
+            }
+            if (bitmap.getByteCount() != data.remaining()) {
+                // 行字节数与生成容器时不同
+                ImageUtil.recycleBitmap(bitmap);
+                return null;
+            }
+            bitmap.copyPixelsFromBuffer(data);
+            return bitmap;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return 文件中[offset, offset + length)的只读视图，超出文件时返回null
+     */
+    private ByteBuffer slice(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > mLength) {
+            return null;
+        }
+        final int segment = (int) (offset >>> SEGMENT_SHIFT);
+        MappedByteBuffer mapped;
+        synchronized (this) {
+            if (mRecycled) {
+                return null;
+            }
+            mapped = mSegments[segment];
+            if (mapped == null) {
+                final long start = (long) segment << SEGMENT_SHIFT;
+                mapped = mChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, mLength - start));
+                mSegments[segment] = mapped;
+            }
+        }
+        // 每次读取使用独立的position，多个线程可以同时读取
+        ByteBuffer buffer = mapped.duplicate();
+        final int position = (int) (offset & (SEGMENT_SIZE - 1));
+        buffer.limit(position + length);
+        buffer.position(position);
+        return buffer;
+    }
+
+    @Override
+    public synchronized void recycle() {
+        if (mRecycled) {
+            return;
+        }
+        mRecycled = true;
+        // 映射在MappedByteBuffer被回收时解除，这里只关闭文件
+        for (int i = 0; i < mSegments.length; i++) {
+            mSegments[i] = null;
+        }
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * 分块显示时的图块数据源，坐标均为原图(未旋转)坐标
+ *
+ * @author lijintao <br/>
+ */
+public interface TileSource {
+
+    /**
+     * @return 原图宽度
+     */
+    int getWidth();
+
+    /**
+     * @return 原图高度
+     */
+    int getHeight();
+
+    /**
+     * 解码原图中的一块区域，会在后台线程调用
+     *
+     * @param region     原图坐标下的区域
+     * @param sampleSize 采样率，为2的幂
+     * @return 失败时返回null
+     */
+    Bitmap decodeTile(Rect region, int sampleSize);
+
+    /**
+     * 释放数据源，之后不会再调用decodeTile
+     */
+    void recycle();
+}
@@ -0,0 +1,309 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 大图分块渲染
+ * <p>
+ * 按当前缩放比例选择采样级别(1、2、4...)，只解码与可见区域相交的图块，离开可见区域的图块会被回收，
+ * 内存占用只与屏幕大小有关，与原图大小无关。预览图已经足够清晰时不解码任何图块。
+ *
+ * @author lijintao <br/>
+ */
+class TiledImageRenderer {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "TiledImageRenderer";
+
+    // 图块解码后的边长
+    private static final int TILE_SIZE = 512;
+
+    private final View mView;
+
+    private final TileSource mSource;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    // 所有已请求的图块，解码线程和UI线程共用，访问时需要同步
+    private final Map<Long, Tile> mTiles = new HashMap<Long, Tile>();
+
+    private final List<Tile> mDrawTiles = new ArrayList<Tile>();
+
+    // 原图坐标到view坐标的变换
+    private final Matrix mSourceMatrix = new Matrix();
+
+    private final Matrix mInverse = new Matrix();
+
+    private final RectF mViewport = new RectF();
+
+    private final RectF mTileRect = new RectF();
+
+    private final float[] mMatrixValues = new float[9];
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    private boolean mReleased;
+
+    TiledImageRenderer(View view, TileSource source) {
+        mView = view;
+        mSource = source;
+    }
+
+    TileSource getSource() {
+        return mSource;
+    }
+
+    /**
+     * 计算预览图的采样率，使预览图不超过屏幕大小
+     *
+     * @param source
+     * @param maxSize 屏幕最长边
+     * @return
+     */
+    static int computePreviewSampleSize(TileSource source, int maxSize) {
+        int sampleSize = 1;
+        int size = Math.max(source.getWidth(), source.getHeight());
+        while (size / sampleSize > maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 在预览图之上绘制可见区域的清晰图块
+     *
+     * @param canvas
+     * @param imageMatrix 预览图的显示矩阵
+     * @param preview     预览图
+     * @param viewWidth
+     * @param viewHeight
+     */
+    void draw(Canvas canvas, Matrix imageMatrix, Bitmap preview, int viewWidth, int viewHeight) {
+        final int sourceWidth = mSource.getWidth();
+        final int sourceHeight = mSource.getHeight();
+        if (mReleased || preview == null || sourceWidth <= 0 || sourceHeight <= 0) {
+            return;
+        }
+        mSourceMatrix.set(imageMatrix);
+        mSourceMatrix.preScale((float) preview.getWidth() / sourceWidth, (float) preview.getHeight() / sourceHeight);
+
+        final int sampleSize = computeSampleSize(getScale(mSourceMatrix));
+        if (sampleSize >= (float) sourceWidth / preview.getWidth() || !mSourceMatrix.invert(mInverse)) {
+            // 预览图已经足够清晰
+            evictAll();
+            return;
+        }
+        mViewport.set(0, 0, viewWidth, viewHeight);
+        mInverse.mapRect(mViewport);
+        if (!mViewport.intersect(0, 0, sourceWidth, sourceHeight)) {
+            evictAll();
+            return;
+        }
+
+        final int tileSpan = TILE_SIZE * sampleSize;
+        final int left = (int) (mViewport.left / tileSpan);
+        final int top = (int) (mViewport.top / tileSpan);
+        final int right = (int) Math.ceil(mViewport.right / tileSpan);
+        final int bottom = (int) Math.ceil(mViewport.bottom / tileSpan);
+
+        mDrawTiles.clear();
+        synchronized (mTiles) {
+            boolean ready = true;
+            for (Tile tile : mTiles.values()) {
+                tile.visible = false;
+            }
+            for (int row = top; row < bottom; row++) {
+                for (int col = left; col < right; col++) {
+                    long key = Tile.key(sampleSize, col, row);
+                    Tile tile = mTiles.get(key);
+                    if (tile == null) {
+                        tile = new Tile(key, sampleSize, new Rect(col * tileSpan, row * tileSpan,
+                                Math.min((col + 1) * tileSpan, sourceWidth), Math.min((row + 1) * tileSpan, sourceHeight)));
+                        mTiles.put(key, tile);
+                        requestDecode(tile);
+                    }
+                    tile.visible = true;
+                    ready &= tile.bitmap != null;
+                }
+            }
+            // 当前级别的图块没有全部就绪时，先用其他级别已解码的图块过渡
+            Iterator<Tile> iterator = mTiles.values().iterator();
+            while (iterator.hasNext()) {
+                Tile tile = iterator.next();
+                if (!tile.visible && !ready && tile.bitmap != null && tile.intersects(mViewport)) {
+                    tile.visible = true;
+                }
+                if (!tile.visible) {
+                    iterator.remove();
+                    tile.release();
+                } else if (tile.bitmap != null) {
+                    mDrawTiles.add(tile);
+                }
+            }
+        }
+        if (mDrawTiles.isEmpty()) {
+            return;
+        }
+
+        int count = canvas.save();
+        canvas.concat(mSourceMatrix);
+        // 采样率大的(模糊的)先画，被清晰的覆盖
+        for (int sample = sampleSize * 2; !mDrawTiles.isEmpty() && sample > 0; sample = nextSampleSize(sample)) {
+            for (Iterator<Tile> iterator = mDrawTiles.iterator(); iterator.hasNext(); ) {
+                Tile tile = iterator.next();
+                if (tile.sampleSize >= sample) {
+                    mTileRect.set(tile.region);
+                    canvas.drawBitmap(tile.bitmap, null, mTileRect, mPaint);
+                    iterator.remove();
+                }
+            }
+        }
+        canvas.restoreToCount(count);
+    }
+
+    private int nextSampleSize(int sampleSize) {
+        return sampleSize == 1 ? 0 : sampleSize / 2;
+    }
+
+    private void requestDecode(final Tile tile) {
+        tile.future = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mTiles) {
+                    if (mTiles.get(tile.key) != tile) {
+                        return;
+                    }
+                }
+                Bitmap bitmap = mSource.decodeTile(tile.region, tile.sampleSize);
+                if (bitmap == null) {
+                    return;
+                }
+                boolean keep;
+                synchronized (mTiles) {
+                    keep = !mReleased && mTiles.get(tile.key) == tile;
+                    if (keep) {
+                        tile.bitmap = bitmap;
+                    }
+                }
+                if (keep) {
+                    mView.postInvalidate();
+                } else {
+                    ImageUtil.recycleBitmap(bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * 回收所有图块，数据源保留，可以继续绘制
+     */
+    void evictAll() {
+        synchronized (mTiles) {
+            for (Tile tile : mTiles.values()) {
+                tile.release();
+            }
+            mTiles.clear();
+        }
+    }
+
+    /**
+     * 回收所有图块并停止解码线程，数据源保留，交给新的TiledImageRenderer继续使用
+     */
+    void detach() {
+        synchronized (mTiles) {
+            mReleased = true;
+        }
+        evictAll();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 回收所有图块并释放数据源
+     */
+    void release() {
+        synchronized (mTiles) {
+            mReleased = true;
+        }
+        evictAll();
+        // 在解码线程上释放，避免与正在进行的解码冲突
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSource.recycle();
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    /**
+     * 选择不低于屏幕清晰度的最大采样率
+     *
+     * @param scale 屏幕像素/原图像素
+     * @return
+     */
+    private static int computeSampleSize(float scale) {
+        int sampleSize = 1;
+        while (scale > 0 && sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private float getScale(Matrix matrix) {
+        matrix.getValues(mMatrixValues);
+        // 旋转90/270度时缩放比例在skew上
+        float scaleX = mMatrixValues[Matrix.MSCALE_X];
+        float skewY = mMatrixValues[Matrix.MSKEW_Y];
+        return (float) Math.sqrt(scaleX * scaleX + skewY * skewY);
+    }
+
+    private static class Tile {
+        final long key;
+        final int sampleSize;
+        final Rect region;
+        volatile Bitmap bitmap;
+        Future<?> future;
+        boolean visible;
+
+        Tile(long key, int sampleSize, Rect region) {
+            this.key = key;
+            this.sampleSize = sampleSize;
+            this.region = region;
+        }
+
+        static long key(int sampleSize, int col, int row) {
+            return ((long) Integer.numberOfTrailingZeros(sampleSize) << 48) | ((long) col << 24) | row;
+        }
+
+        boolean intersects(RectF rect) {
+            return region.left < rect.right && rect.left < region.right
+                    && region.top < rect.bottom && rect.top < region.bottom;
+        }
+
+        void release() {
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+            if (bitmap != null) {
+                ImageUtil.recycleBitmap(bitmap);
+                bitmap = null;
+            }
+        }
+    }
+}
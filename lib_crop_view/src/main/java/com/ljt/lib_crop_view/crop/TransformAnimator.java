@@ -0,0 +1,210 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.view.Choreographer;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
+import android.widget.Scroller;
+
+/**
+ * ZoomImageView的缩放和平移动画，由Choreographer的帧回调驱动
+ * <p>
+ * 进度按帧的时间戳计算，与屏幕刷新同步，不受回调延迟影响；惯性滑动同样在帧回调中推进Scroller。
+ * 同一时间只有一个动画：动画进行中收到新的请求时，从当前显示的状态开始向新的目标移动，不会叠加；
+ * 缩放进行中收到平移请求时，先直接完成缩放，避免停在中间的缩放比例上。
+ * 每一帧对矩阵的所有修改在帧结束时只提交一次setImageMatrix。只能在主线程调用。
+ *
+ * @author lijintao <br/>
+ */
+class TransformAnimator implements Choreographer.FrameCallback {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "TransformAnimator";
+
+    private static final int TYPE_ZOOM = 1;
+
+    private static final int TYPE_TRANSLATE = 2;
+
+    private static final int TYPE_FLING = 3;
+
+    private final ZoomImageView mView;
+
+    private Interpolator mInterpolator = new DecelerateInterpolator();
+
+    private boolean mRunning;
+
+    private int mType;
+
+    // 与帧时间戳相同的时间基准(System.nanoTime)
+    private long mStartTime;
+
+    private long mDuration;
+
+    private float mFromScale;
+
+    private float mToScale;
+
+    private float mFocusX;
+
+    private float mFocusY;
+
+    // 平移的总距离和已经应用的距离
+    private float mDeltaX;
+
+    private float mDeltaY;
+
+    private float mAppliedX;
+
+    private float mAppliedY;
+
+    // 惯性滑动，第一次滑动时创建
+    private Scroller mScroller;
+
+    private int mLastX;
+
+    private int mLastY;
+
+    TransformAnimator(ZoomImageView view) {
+        mView = view;
+    }
+
+    /**
+     * @param interpolator 为null时为线性
+     */
+    void setInterpolator(Interpolator interpolator) {
+        mInterpolator = interpolator;
+    }
+
+    /**
+     * 以(focusX, focusY)为中心缩放到scale，每一帧缩放后按边界校正位置
+     *
+     * @param scale
+     * @param focusX
+     * @param focusY
+     * @param durationMs
+     */
+    void zoomTo(float scale, float focusX, float focusY, float durationMs) {
+        mType = TYPE_ZOOM;
+        mFromScale = mView.getScale();
+        mToScale = scale;
+        mFocusX = focusX;
+        mFocusY = focusY;
+        start(durationMs);
+    }
+
+    /**
+     * 从当前位置平移(deltaX, deltaY)，进行中的缩放先直接到达目标比例
+     *
+     * @param deltaX     相对于缩放完成后的位置，调用前先调用finishZoom()再计算
+     * @param deltaY
+     * @param durationMs
+     */
+    void translateBy(float deltaX, float deltaY, float durationMs) {
+        finishZoom();
+        mType = TYPE_TRANSLATE;
+        mDeltaX = deltaX;
+        mDeltaY = deltaY;
+        mAppliedX = 0;
+        mAppliedY = 0;
+        start(durationMs);
+    }
+
+    /**
+     * 按速度惯性滑动，位移范围与Scroller.fling相同，每一帧平移后按边界校正位置；进行中的缩放先直接到达目标比例
+     *
+     * @param velocityX 像素/秒，与手指移动方向相反
+     * @param velocityY
+     * @param minX      相对于缩放完成后的位置，调用前先调用finishZoom()再计算
+     */
+    void fling(int velocityX, int velocityY, int minX, int maxX, int minY, int maxY) {
+        finishZoom();
+        if (mScroller == null) {
+            mScroller = new Scroller(mView.getContext());
+        }
+        mType = TYPE_FLING;
+        mLastX = 0;
+        mLastY = 0;
+        mScroller.fling(0, 0, velocityX, velocityY, minX, maxX, minY, maxY);
+        start(0);
+    }
+
+    /**
+     * 缩放动画进行中时直接缩放到目标比例并停止动画，其他动画不受影响
+     */
+    void finishZoom() {
+        if (mRunning && mType == TYPE_ZOOM) {
+            cancel();
+            mView.beginMatrixBatch();
+            mView.zoomTo(mToScale, mFocusX, mFocusY);
+            mView.endMatrixBatch();
+        }
+    }
+
+    private void start(float durationMs) {
+        mStartTime = System.nanoTime();
+        mDuration = (long) (Math.max(0, durationMs) * 1000000L);
+        if (!mRunning) {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * 停止动画，矩阵保持在当前帧的状态
+     */
+    void cancel() {
+        if (mRunning) {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        if (mScroller != null) {
+            mScroller.forceFinished(true);
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        if (mType == TYPE_FLING) {
+            // Scroller按本帧的动画时间计算位置
+            if (!mScroller.computeScrollOffset()) {
+                mRunning = false;
+                return;
+            }
+            final int x = mScroller.getCurrX();
+            final int y = mScroller.getCurrY();
+            mView.beginMatrixBatch();
+            mView.postTranslateCenter(mLastX - x, mLastY - y);
+            mView.endMatrixBatch();
+            mLastX = x;
+            mLastY = y;
+            Choreographer.getInstance().postFrameCallback(this);
+            return;
+        }
+        // 请求可能在本帧的垂直同步之后发出，时间戳早于开始时间
+        final float input = mDuration > 0
+                ? Math.max(0, Math.min(1, (float) (frameTimeNanos - mStartTime) / mDuration)) : 1;
+        final float fraction = mInterpolator != null ? mInterpolator.getInterpolation(input) : input;
+        mView.beginMatrixBatch();
+        if (mType == TYPE_ZOOM) {
+            mView.zoomTo(mFromScale + (mToScale - mFromScale) * fraction, mFocusX, mFocusY);
+        } else {
+            final float x = mDeltaX * fraction;
+            final float y = mDeltaY * fraction;
+            mView.postTranslate(x - mAppliedX, y - mAppliedY);
+            mAppliedX = x;
+            mAppliedY = y;
+        }
+        mView.endMatrixBatch();
+        if (input < 1) {
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            mRunning = false;
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package com.ljt.lib_crop_view.crop;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 从同一张图片、同一个裁剪区域导出多个尺寸和宽高比的图片
+ * <p>
+ * 原图只解码一次，解码尺寸刚好满足最大的输出；每种宽高比从共享的解码结果中居中裁出，
+ * 同一宽高比的各个尺寸组成缩小链，每个尺寸由相邻的更大尺寸缩小得到(每步不超过2倍)；
+ * 使用面积平均或Lanczos-3时不需要分步，每个尺寸直接从共享的解码结果缩小。
+ * 每得到一个输出就提交到编码线程池，与后续的缩小并行编码写入。
+ *
+ * <pre>
+ * VariantExporter.Report report = new VariantExporter(path)
+ *         .setCropRect(cropRect)
+ *         .add(new VariantExporter.Variant("avatar_96", 96, 96).circle(), file96)
+ *         .add(new VariantExporter.Variant("banner", 1280, 720), bannerFile)
+ *         .export();
+ * </pre>
+ *
+ * @author lijintao <br/>
+ */
+public class VariantExporter {
+
+    @SuppressWarnings("unused")
+    private static final String TAG = "VariantExporter";
+
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static volatile ThreadPoolExecutor sExecutor;
+
+    private final String mFilePath;
+
+    private RectF mCropRect = new RectF(0, 0, 1, 1);
+
+    private boolean mSync;
+
+    private ImageUtil.ScaleFilter mScaleFilter = ImageUtil.ScaleFilter.BILINEAR;
+
+    private final List<Variant> mVariants = new ArrayList<>();
+
+    private final List<File> mFiles = new ArrayList<>();
+
+    /**
+     * 一个输出规格
+     */
+    public static class Variant {
+        private final String mName;
+        private final int mWidth;
+        private final int mHeight;
+        private boolean mCircle;
+        private float mRadius;
+        private Bitmap.CompressFormat mFormat = Bitmap.CompressFormat.JPEG;
+        private int mQuality = 90;
+
+        /**
+         * @param name   名称，用于区分结果
+         * @param width  输出宽度
+         * @param height 输出高度
+         */
+        public Variant(String name, int width, int height) {
+            mName = name;
+            mWidth = Math.max(1, width);
+            mHeight = Math.max(1, height);
+        }
+
+        /**
+         * 圆形遮罩，带透明区域，需要配合PNG或WEBP
+         *
+         * @return
+         */
+        public Variant circle() {
+            mCircle = true;
+            mFormat = Bitmap.CompressFormat.PNG;
+            return this;
+        }
+
+        /**
+         * @param radius 圆角半径，带透明区域，需要配合PNG或WEBP
+         * @return
+         */
+        public Variant roundRect(float radius) {
+            mRadius = radius;
+            mFormat = Bitmap.CompressFormat.PNG;
+            return this;
+        }
+
+        /**
+         * @param format  输出格式，默认JPEG，带遮罩时默认PNG
+         * @param quality 压缩质量，默认90
+         * @return
+         */
+        public Variant setFormat(Bitmap.CompressFormat format, int quality) {
+            mFormat = format;
+            mQuality = Math.max(0, Math.min(quality, 100));
+            return this;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        private boolean hasMask() {
+            return mCircle || mRadius > 0;
+        }
+
+        @Override
+        public String toString() {
+            return mName + "[" + mWidth + "x" + mHeight + (mCircle ? ",circle" : "")
+                    + (mRadius > 0 ? ",radius=" + mRadius : "") + "]";
+        }
+    }
+
+    /**
+     * 一个输出的结果
+     */
+    public static class Result {
+        private final Variant mVariant;
+        private final File mFile;
+        private final long mRenderNanos;
+        private BitmapFileWriter.Result mWriteResult;
+        private Throwable mError;
+
+        Result(Variant variant, File file, long renderNanos) {
+            mVariant = variant;
+            mFile = file;
+            mRenderNanos = renderNanos;
+        }
+
+        public Variant getVariant() {
+            return mVariant;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return 是否写入成功
+         */
+        public boolean isSuccess() {
+            return mWriteResult != null;
+        }
+
+        /**
+         * @return 写入结果，失败时为null
+         */
+        public BitmapFileWriter.Result getWriteResult() {
+            return mWriteResult;
+        }
+
+        /**
+         * @return 失败原因，成功时为null
+         */
+        public Throwable getError() {
+            return mError;
+        }
+
+        /**
+         * @return 从上一级缩小、裁剪和绘制遮罩的耗时，单位纳秒
+         */
+        public long getRenderNanos() {
+            return mRenderNanos;
+        }
+
+        /**
+         * @return 编码和写入的耗时，单位纳秒，失败时为0
+         */
+        public long getEncodeNanos() {
+            return mWriteResult != null ? mWriteResult.getElapsedNanos() : 0;
+        }
+
+        @Override
+        public String toString() {
+            return mVariant + " -> " + (mWriteResult != null ? mWriteResult.toString() : String.valueOf(mError))
+                    + ",render=" + mRenderNanos / 1000 + "us";
+        }
+    }
+
+    /**
+     * 一次导出的结果
+     */
+    public static class Report {
+        private final List<Result> mResults;
+        private final long mDecodeNanos;
+        private final long mElapsedNanos;
+
+        Report(List<Result> results, long decodeNanos, long elapsedNanos) {
+            mResults = Collections.unmodifiableList(results);
+            mDecodeNanos = decodeNanos;
+            mElapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return 与add的顺序一致的结果
+         */
+        public List<Result> getResults() {
+            return mResults;
+        }
+
+        /**
+         * @return 共享区域的解码耗时，单位纳秒
+         */
+        public long getDecodeNanos() {
+            return mDecodeNanos;
+        }
+
+        /**
+         * @return 总耗时，单位纳秒
+         */
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+    }
+
+    /**
+     * @param filePath 原图路径
+     */
+    public VariantExporter(String filePath) {
+        mFilePath = filePath;
+    }
+
+    /**
+     * @param cropRect 共享的裁剪区域，坐标为相对于方向校正后图片宽高的比例(0~1)，默认整张图片
+     * @return
+     */
+    public VariantExporter setCropRect(RectF cropRect) {
+        mCropRect = cropRect != null ? new RectF(cropRect) : new RectF(0, 0, 1, 1);
+        return this;
+    }
+
+    /**
+     * @param sync 写入后是否同步到存储设备
+     * @return
+     */
+    public VariantExporter setSync(boolean sync) {
+        mSync = sync;
+        return this;
+    }
+
+    /**
+     * @param filter 缩小使用的过滤方式，默认BILINEAR
+     * @return
+     */
+    public VariantExporter setScaleFilter(ImageUtil.ScaleFilter filter) {
+        mScaleFilter = filter;
+        return this;
+    }
+
+    /**
+     * @param variant 输出规格
+     * @param file    输出文件
+     * @return
+     */
+    public VariantExporter add(Variant variant, File file) {
+        mVariants.add(variant);
+        mFiles.add(file);
+        return this;
+    }
+
+    /**
+     * 解码并导出所有规格，阻塞到全部写入完成，需要在后台线程调用
+     *
+     * @return
+     * @throws IOException 原图解码失败；单个输出的失败记录在对应的Result中
+     */
+    public Report export() throws IOException {
+        final long start = System.nanoTime();
+        if (mVariants.isEmpty()) {
+            return new Report(new ArrayList<Result>(), 0, 0);
+        }
+        int[] size = getOrientedSize(mFilePath);
+        if (size == null) {
+            throw new IOException("decode bounds failed: " + mFilePath);
+        }
+        final float regionWidth = mCropRect.width() * size[0];
+        final float regionHeight = mCropRect.height() * size[1];
+        if (regionWidth < 1 || regionHeight < 1) {
+            throw new IOException("empty crop rect: " + mCropRect);
+        }
+
+        // 解码尺寸刚好满足放大比例最大的输出，不超过原图
+        float scale = 0;
+        for (Variant variant : mVariants) {
+            RectF crop = centerCrop(regionWidth, regionHeight, variant);
+            scale = Math.max(scale, variant.mWidth / crop.width());
+        }
+        scale = Math.min(1, scale);
+        final int decodeWidth = Math.max(1, Math.round(regionWidth * scale));
+        final int decodeHeight = Math.max(1, Math.round(regionHeight * scale));
+        Bitmap shared = ImageUtil.decodeCropRegion(mFilePath, mCropRect, decodeWidth, decodeHeight,
+                mScaleFilter);
+        if (shared == null) {
+            throw new IOException("decode failed: " + mFilePath);
+        }
+        final long decodeNanos = System.nanoTime() - start;
+
+        Result[] results = new Result[mVariants.size()];
+        List<Future<?>> futures = new ArrayList<>();
+        List<Bitmap> bitmaps = new ArrayList<>();
+        try {
+            for (List<Integer> group : groupByAspect().values()) {
+                exportGroup(shared, group, results, futures, bitmaps);
+            }
+        } finally {
+            // 编码中的位图不能提前回收，出现异常时也要等待全部编码结束
+            awaitAll(futures);
+            for (Bitmap bitmap : bitmaps) {
+                ImageUtil.recycleBitmap(bitmap);
+            }
+            ImageUtil.recycleBitmap(shared);
+        }
+        List<Result> list = new ArrayList<>(results.length);
+        Collections.addAll(list, results);
+        return new Report(list, decodeNanos, System.nanoTime() - start);
+    }
+
+    private static void awaitAll(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (ExecutionException e) {
+                    // 编码任务内部已记录错误
+                    e.printStackTrace();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 同一宽高比的输出从大到小组成缩小链
+     */
+    private void exportGroup(Bitmap shared, List<Integer> group, Result[] results, List<Future<?>> futures,
+                             List<Bitmap> bitmaps) {
+        Collections.sort(group, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return mVariants.get(b).mWidth - mVariants.get(a).mWidth;
+            }
+        });
+        Variant first = mVariants.get(group.get(0));
+        RectF crop = centerCrop(shared.getWidth(), shared.getHeight(), first);
+        Rect cropRect = new Rect(Math.round(crop.left), Math.round(crop.top), Math.round(crop.right),
+                Math.round(crop.bottom));
+        // 上一级的位图及其在共享位图中的区域，第一级直接从共享位图裁出
+        Bitmap previous = shared;
+        Rect previousRect = cropRect;
+        for (int index : group) {
+            final Variant variant = mVariants.get(index);
+            final long renderStart = System.nanoTime();
+            Bitmap level;
+            if (previous != shared && previous.getWidth() == variant.mWidth
+                    && previous.getHeight() == variant.mHeight) {
+                // 同一尺寸的不同遮罩共用一级
+                level = previous;
+            } else if (mScaleFilter != ImageUtil.ScaleFilter.BILINEAR) {
+                // 卷积核按缩小比例取样，一步缩小不会产生锯齿，从共享位图缩小避免逐级累积模糊
+                level = new BitmapTransform().crop(cropRect).scale(variant.mWidth, variant.mHeight)
+                        .scaleFilter(mScaleFilter).apply(shared);
+                if (level != null) {
+                    bitmaps.add(level);
+                }
+            } else {
+                level = downscale(previous, previousRect, variant.mWidth, variant.mHeight, bitmaps);
+            }
+            if (level != null) {
+                previous = level;
+                previousRect = null;
+            }
+            Bitmap output = level;
+            if (level != null && variant.hasMask()) {
+                BitmapTransform transform = new BitmapTransform();
+                if (variant.mCircle) {
+                    transform.circle();
+                } else {
+                    transform.roundRect(variant.mRadius);
+                }
+                output = transform.apply(level);
+                if (output != null) {
+                    bitmaps.add(output);
+                }
+            }
+            final Result result = new Result(variant, mFiles.get(index), System.nanoTime() - renderStart);
+            results[index] = result;
+            if (output == null) {
+                result.mError = new IOException("render failed: " + variant);
+                continue;
+            }
+            futures.add(submit(output, result));
+        }
+    }
+
+    /**
+     * 缩小到指定尺寸，缩小超过2倍时先逐级减半，避免双线性过滤跳过像素产生锯齿；中间位图立即回收
+     *
+     * @param source 上一级位图
+     * @param rect   source中使用的区域，为null时使用整张位图
+     */
+    private static Bitmap downscale(Bitmap source, Rect rect, int width, int height, List<Bitmap> bitmaps) {
+        Bitmap current = source;
+        Rect currentRect = rect;
+        while (true) {
+            final int currentWidth = currentRect != null ? currentRect.width() : current.getWidth();
+            final int currentHeight = currentRect != null ? currentRect.height() : current.getHeight();
+            final boolean last = currentWidth <= width * 2 && currentHeight <= height * 2;
+            final int nextWidth = last ? width : Math.max(width, currentWidth / 2);
+            final int nextHeight = last ? height : Math.max(height, currentHeight / 2);
+            Bitmap next = new BitmapTransform().crop(currentRect).scale(nextWidth, nextHeight).apply(current);
+            if (current != source) {
+                ImageUtil.recycleBitmap(current);
+            }
+            if (next == null || last) {
+                if (next != null) {
+                    bitmaps.add(next);
+                }
+                return next;
+            }
+            current = next;
+            currentRect = null;
+        }
+    }
+
+    private Future<?> submit(final Bitmap bitmap, final Result result) {
+        final Variant variant = result.mVariant;
+        final boolean sync = mSync;
+        return getExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.mWriteResult = new BitmapFileWriter().setSync(sync)
+                            .write(bitmap, variant.mFormat, variant.mQuality, result.mFile);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    result.mError = e;
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    result.mError = e;
+                }
+            }
+        });
+    }
+
+    /**
+     * 按宽高比分组，保持add的顺序
+     */
+    private Map<String, List<Integer>> groupByAspect() {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < mVariants.size(); i++) {
+            Variant variant = mVariants.get(i);
+            int gcd = gcd(variant.mWidth, variant.mHeight);
+            String key = variant.mWidth / gcd + ":" + variant.mHeight / gcd;
+            List<Integer> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(i);
+        }
+        return groups;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * @return 宽高为width、height的区域中，与规格宽高比一致的最大居中区域
+     */
+    private static RectF centerCrop(float width, float height, Variant variant) {
+        final float aspect = (float) variant.mWidth / variant.mHeight;
+        float cropWidth = width;
+        float cropHeight = height;
+        if (width / height > aspect) {
+            cropWidth = height * aspect;
+        } else {
+            cropHeight = width / aspect;
+        }
+        return new RectF((width - cropWidth) / 2, (height - cropHeight) / 2,
+                (width + cropWidth) / 2, (height + cropHeight) / 2);
+    }
+
+    /**
+     * @return 方向校正后的宽高，无法读取时返回null
+     */
+    private static int[] getOrientedSize(String filePath) {
+        ImageHeader header = ImageHeader.probe(filePath);
+        if (header != null && header.getWidth() > 0 && header.getHeight() > 0) {
+            return new int[]{header.getOrientedWidth(), header.getOrientedHeight()};
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(filePath, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        return new int[]{options.outWidth, options.outHeight};
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            synchronized (VariantExporter.class) {
+                if (sExecutor == null) {
+                    sExecutor = ImageLoader.newExecutor("VariantExporter", THREAD_COUNT);
+                }
+            }
+        }
+        return sExecutor;
+    }
+}
@@ -18,19 +18,27 @@ package com.ljt.lib_crop_view.crop;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
-import android.graphics.PointF;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.animation.Interpolator;
 import android.widget.ImageView;
 
 import androidx.appcompat.widget.AppCompatImageView;
 
+import java.io.File;
+import java.util.concurrent.Future;
+
 /**
  * 可缩放ImageView
  *
@@ -71,6 +79,9 @@ public class ZoomImageView extends AppCompatImageView {
 
     private float mMaxZoom;
 
+    // 通过setMaxZoom指定的最大缩放，为0时根据图片尺寸计算
+    private float mMaxZoomOverride;
+
     private ZoomImageViewGestureDetector mTouchDetector;
 
     private boolean mInViewPager;
@@ -83,6 +94,34 @@ public class ZoomImageView extends AppCompatImageView {
 
     private boolean mZoomable = true;
 
+    // 分块显示大图时不为空，mBitmapDisplayed此时为预览图
+    private TiledImageRenderer mTileRenderer;
+
+    // 正在后台解码的图片，每次发起新的加载时递增，用于丢弃过期的结果
+    private int mLoadGeneration;
+
+    private Future<?> mLoadFuture;
+
+    // 正在后台解码预览图的图块数据源，加载被取消时由cancelImageLoad释放
+    private TileSource mLoadingTileSource;
+
+    // 最近一次由setImageSource加载的图片来源和结果，导出时用于重新解码为软件位图
+    private ImageSource mImageSource;
+
+    private int mImageSourceResolution;
+
+    private Bitmap mImageSourceBitmap;
+
+    // 重建后等待恢复的缩放和平移，同一来源的图片显示后应用
+    private SavedState mPendingState;
+
+    private final TransformAnimator mAnimator = new TransformAnimator(this);
+
+    // 动画的一帧中推迟setImageMatrix，帧结束时只提交一次
+    private boolean mMatrixBatch;
+
+    private boolean mMatrixDirty;
+
     /**
      * 当ImageView宽高为0时，先保存下操作，在layout时进行设置 com.baidu.netdisk.ui.widget.SetImageBitmapTask
      */
@@ -95,6 +134,38 @@ public class ZoomImageView extends AppCompatImageView {
         public void recycle(Bitmap b);
     }
 
+    /**
+     * 异步加载图片的回调，在主线程调用
+     */
+    public interface OnImageLoadListener {
+        /**
+         * @param source
+         * @param bitmap 解码失败时为null；像素可能未做方向校正，显示方向见getDisplayRotateBitmap()
+         */
+        public void onImageLoaded(ImageSource source, Bitmap bitmap);
+    }
+
+    /**
+     * 异步导出的回调，在主线程调用
+     */
+    public interface OnExportListener {
+        /**
+         * @param result 图片未加载或导出失败时为null；结果的位图与getDisplayBitmap()不是同一个时由调用方负责释放
+         */
+        public void onExported(RotateBitmap result);
+    }
+
+    /**
+     * 对可以读取像素的当前图片做进一步处理，见exportSoftwareRotateBitmap()
+     */
+    protected interface ExportTask {
+        /**
+         * @param software 可以读取像素的图片；其位图与显示的不是同一个时，返回其他结果前由task负责释放
+         * @return 交给OnExportListener的结果
+         */
+        public RotateBitmap run(RotateBitmap software);
+    }
+
     public void setRecycler(Recycler r) {
         mRecycler = r;
     }
@@ -118,10 +189,33 @@ public class ZoomImageView extends AppCompatImageView {
         }
     }
 
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        TiledImageRenderer renderer = mTileRenderer;
+        if (renderer != null && mBitmapDisplayed.getBitmap() != null) {
+            int count = canvas.save();
+            canvas.translate(getPaddingLeft(), getPaddingTop());
+            renderer.draw(canvas, getImageViewMatrix(), mBitmapDisplayed.getBitmap(), getWidth(), getHeight());
+            canvas.restoreToCount(count);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        cancelImageLoad();
+        mAnimator.cancel();
+        // 释放解码线程和数据源，被丢弃的view(如ViewPager移除的页面)不会再收到调用
+        setTileRenderer(null);
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         final int action = event.getActionMasked();
         if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_POINTER_DOWN) {
+            // 手势接管，停在动画的当前帧
+            mAnimator.cancel();
             boolean inZoom = event.getPointerCount() >= 2 || getScale() != 1;
             ((ViewGroup) getParent()).requestDisallowInterceptTouchEvent(inZoom);
         }
@@ -163,9 +257,103 @@ public class ZoomImageView extends AppCompatImageView {
 
     @Override
     public void setImageBitmap(Bitmap bitmap) {
+        cancelImageLoad();
+        mPendingState = null;
         setImageBitmapResetBase(bitmap, true);
     }
 
+    /**
+     * 在后台线程解码并显示图片，会取消之前未完成的加载；view从窗口移除后返回的结果会被丢弃
+     *
+     * @param source   图片来源
+     * @param listener 加载完成的回调，可以为null
+     */
+    public void setImageSource(final ImageSource source, final OnImageLoadListener listener) {
+        cancelImageLoad();
+        final int generation = mLoadGeneration;
+        final Context context = getContext().getApplicationContext();
+        DisplayMetrics dm = getResources().getDisplayMetrics();
+        final int maxResolution = Math.max(dm.widthPixels, dm.heightPixels);
+        mLoadFuture = ImageLoader.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                // 先显示一张很快就能得到的模糊预览图，清晰图解码完成后再替换
+                final Bitmap preview = source.decodePreview(context, maxResolution);
+                if (preview != null) {
+                    ImageLoader.postToMain(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != mLoadGeneration) {
+                                ImageUtil.recycleBitmap(preview);
+                                return;
+                            }
+                            setImageBitmapResetBase(preview, true);
+                        }
+                    });
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                // 只用于显示，Android 8.0以上为HARDWARE位图
+                final RotateBitmap rotateBitmap = source.decodeRotateBitmap(context, maxResolution,
+                        BitmapConfigPolicy.Usage.DISPLAY);
+                final Bitmap bitmap = rotateBitmap != null ? rotateBitmap.getBitmap() : null;
+                ImageLoader.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mLoadGeneration) {
+                            // 已被新的请求取代或view已从窗口移除
+                            ImageUtil.recycleBitmap(bitmap);
+                            return;
+                        }
+                        mLoadFuture = null;
+                        mImageSource = source;
+                        mImageSourceResolution = maxResolution;
+                        mImageSourceBitmap = bitmap;
+                        setTileRenderer(null);
+                        if (preview == null) {
+                            // 宽高为0时由SetImageTask推迟到layout后设置
+                            setImageRotateBitmapResetBase(bitmap != null ? rotateBitmap : new RotateBitmap(null), true);
+                        } else if (bitmap != null) {
+                            // 保留用户在预览图上的缩放和平移
+                            setImageRotateBitmapResetBase(rotateBitmap, false);
+                        }
+                        // 来源与保存时不同，不再恢复
+                        mPendingState = null;
+                        if (listener != null) {
+                            listener.onImageLoaded(source, bitmap);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 取消未完成的异步加载
+     */
+    public void cancelImageLoad() {
+        mLoadGeneration++;
+        if (mLoadFuture != null) {
+            mLoadFuture.cancel(true);
+            mLoadFuture = null;
+        }
+        final TileSource source = mLoadingTileSource;
+        if (source != null) {
+            mLoadingTileSource = null;
+            // 任务可能还没开始或正在解码，在后台释放，TileSource的decodeTile和recycle互斥
+            ImageLoader.submit(new Runnable() {
+                @Override
+                public void run() {
+                    source.recycle();
+                }
+            });
+        }
+    }
+
     /**
      * 为解决ImageLoader模块根据scaleType确定decode图片的大小，如果为Matrix，则返回更大的图片，并不影响真实ImageView 的scaleType
      *
@@ -179,10 +367,10 @@ public class ZoomImageView extends AppCompatImageView {
 
     @Override
     public void setImageResource(int resId) {
-        setImageBitmap(BitmapFactory.decodeResource(getResources(), resId));
+        setImageBitmap(ImageUtil.decodeResource(getResources(), resId));
     }
 
-    private void setImageBitmap(Bitmap bitmap, int rotation) {
+    private void setImageBitmap(Bitmap bitmap, int rotation, boolean flipped) {
         super.setImageBitmap(bitmap);
         Drawable d = getDrawable();
         if (d != null) {
@@ -192,6 +380,7 @@ public class ZoomImageView extends AppCompatImageView {
         Bitmap old = mBitmapDisplayed.getBitmap();
         mBitmapDisplayed.setBitmap(bitmap);
         mBitmapDisplayed.setRotation(rotation);
+        mBitmapDisplayed.setFlipped(flipped);
 
         if (old != null && old != bitmap && mRecycler != null) {
             mRecycler.recycle(old);
@@ -199,18 +388,232 @@ public class ZoomImageView extends AppCompatImageView {
     }
 
     public void clear() {
+        cancelImageLoad();
         setImageBitmapResetBase(null, true);
     }
 
+    /**
+     * 以分块模式显示大图：先显示一张不超过屏幕大小的预览图，放大后只解码可见区域的清晰图块
+     *
+     * @param filePath 图片路径
+     * @return 图片格式不支持分块解码时返回false
+     */
+    public boolean setImageTiled(String filePath) {
+        TileSource source = RegionTileSource.newInstance(filePath);
+        if (source == null) {
+            return false;
+        }
+        return setImageTileSource(source, ImageUtil.getExifOrientation(filePath));
+    }
+
+    /**
+     * 从TileContainer生成的容器以分块模式显示大图，预览图和图块都直接从映射的文件读取，不需要解码
+     *
+     * @param container 容器文件
+     * @param srcPath   原图路径，不为null时原图被修改后容器失效
+     * @return 容器不存在或已失效时返回false，此时可以改用setImageTiled
+     */
+    public boolean setImageContainer(File container, String srcPath) {
+        TileContainer source = TileContainer.open(container, srcPath);
+        if (source == null) {
+            return false;
+        }
+        return setImageTileSource(source, source.getRotation());
+    }
+
+    /**
+     * 以分块模式显示大图，预览图在后台线程解码，完成后显示
+     * <p>
+     * 预览图解码失败时释放数据源，显示为空。view从窗口移除时释放数据源。
+     *
+     * @param source   图块数据源，由ZoomImageView负责释放
+     * @param rotation 显示时需要顺时针旋转的角度
+     * @return source为null时返回false
+     */
+    public boolean setImageTileSource(final TileSource source, final int rotation) {
+        cancelImageLoad();
+        mPendingState = null;
+        if (source == null) {
+            return false;
+        }
+        final int generation = mLoadGeneration;
+        DisplayMetrics dm = getResources().getDisplayMetrics();
+        final int sampleSize = TiledImageRenderer.computePreviewSampleSize(source,
+                Math.max(dm.widthPixels, dm.heightPixels));
+        mLoadingTileSource = source;
+        mLoadFuture = ImageLoader.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                final Bitmap preview = source.decodeTile(new Rect(0, 0, source.getWidth(), source.getHeight()),
+                        sampleSize);
+                ImageLoader.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mLoadGeneration) {
+                            // 数据源已由cancelImageLoad释放
+                            ImageUtil.recycleBitmap(preview);
+                            return;
+                        }
+                        mLoadFuture = null;
+                        mLoadingTileSource = null;
+                        if (preview == null) {
+                            source.recycle();
+                            setTileRenderer(null);
+                            setImageRotateBitmapResetBase(new RotateBitmap(null), true);
+                            return;
+                        }
+                        setTileRenderer(new TiledImageRenderer(ZoomImageView.this, source));
+                        setImageRotateBitmapResetBase(new RotateBitmap(preview, rotation), true);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 取出当前显示的图片，用于Activity因配置变化重建时交给新的view，在onRetainCustomNonConfigurationInstance中调用
+     * <p>
+     * 分块显示时数据源一并交出，当前view此后只显示预览图。图片仍在后台加载时返回null，新的view需要重新加载。
+     *
+     * @return 没有图片或正在加载时返回null
+     * @see #restoreImage(RetainedImage)
+     */
+    public RetainedImage retainImage() {
+        if (mBitmapDisplayed.getBitmap() == null || mLoadFuture != null) {
+            return null;
+        }
+        TileSource tileSource = null;
+        if (mTileRenderer != null) {
+            tileSource = mTileRenderer.getSource();
+            // 解码线程停止，数据源不释放
+            mTileRenderer.detach();
+            mTileRenderer = null;
+        }
+        return new RetainedImage(getDisplayRotateBitmap(), tileSource, mImageSource, mImageSourceResolution,
+                mImageSourceBitmap);
+    }
+
+    /**
+     * 直接显示retainImage()取出的图片，不需要解码；保存的缩放和平移在onRestoreInstanceState后恢复
+     *
+     * @param image
+     * @return 图片已被回收时返回false，此时需要重新加载
+     */
+    public boolean restoreImage(RetainedImage image) {
+        if (image == null || image.mBitmap.getBitmap() == null || image.mBitmap.getBitmap().isRecycled()) {
+            return false;
+        }
+        cancelImageLoad();
+        mImageSource = image.mSource;
+        mImageSourceResolution = image.mSourceResolution;
+        mImageSourceBitmap = image.mSourceBitmap;
+        setTileRenderer(image.mTileSource != null ? new TiledImageRenderer(this, image.mTileSource) : null);
+        setImageRotateBitmapResetBase(image.mBitmap, true);
+        return true;
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        Parcelable superState = super.onSaveInstanceState();
+        String sourceId = getImageSourceId();
+        if (sourceId == null) {
+            return superState;
+        }
+        SavedState state = new SavedState(superState);
+        state.mSourceId = sourceId;
+        mSuppMatrix.getValues(state.mSuppValues);
+        state.mCropRect = getSavedCropRect();
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        mPendingState = savedState;
+        // 图片可能已经由restoreImage显示
+        restorePendingState();
+    }
+
+    /**
+     * @return 当前显示的图片由setImageSource加载时为来源的标识，否则为null
+     */
+    private String getImageSourceId() {
+        Bitmap bitmap = mBitmapDisplayed.getBitmap();
+        if (mImageSource == null || bitmap == null || bitmap != mImageSourceBitmap) {
+            return null;
+        }
+        return mImageSource.getId();
+    }
+
+    private void restorePendingState() {
+        SavedState state = mPendingState;
+        if (state == null || getWidth() <= 0 || !state.mSourceId.equals(getImageSourceId())) {
+            return;
+        }
+        mPendingState = null;
+        restoreTransform(state.mSuppValues, state.mCropRect);
+    }
+
+    /**
+     * 保存状态时记录的剪裁区域，恢复时优先于补充矩阵使用
+     *
+     * @return 相对于方向校正后图片宽高的比例(0~1)，不需要时返回null
+     */
+    protected RectF getSavedCropRect() {
+        return null;
+    }
+
+    /**
+     * 恢复保存的缩放和平移，view的尺寸可能已经改变
+     *
+     * @param suppValues 保存时补充矩阵的值
+     * @param cropRect   getSavedCropRect()的结果，可能为null
+     */
+    protected void restoreTransform(float[] suppValues, RectF cropRect) {
+        mSuppMatrix.setValues(suppValues);
+        setImageMatrix(getImageViewMatrix());
+        center(true, true);
+    }
+
+    private void setTileRenderer(TiledImageRenderer renderer) {
+        if (mTileRenderer != null) {
+            mTileRenderer.release();
+        }
+        mTileRenderer = renderer;
+    }
+
     /**
      * 重置ImageView
      */
     public void resetImageView() {
-        setImageBitmap(getDisplayBitmap());
+        setImageRotateBitmap(getDisplayRotateBitmap());
+    }
+
+    /**
+     * 显示一张带方向的图片，方向只合并到显示矩阵中，不旋转像素
+     *
+     * @param bitmap
+     * @see ImageUtil#decodeRotateBitmap(String, int)
+     */
+    public void setImageRotateBitmap(RotateBitmap bitmap) {
+        cancelImageLoad();
+        mPendingState = null;
+        setTileRenderer(null);
+        setImageRotateBitmapResetBase(bitmap != null ? bitmap : new RotateBitmap(null), true);
     }
 
     // 该函数改变位图，根据位图的大小重置基矩阵，并可选择重置补充矩阵。
     private void setImageBitmapResetBase(final Bitmap bitmap, final boolean resetSupp) {
+        setTileRenderer(null);
         setImageRotateBitmapResetBase(new RotateBitmap(bitmap), resetSupp);
     }
 
@@ -221,12 +624,15 @@ public class ZoomImageView extends AppCompatImageView {
             return;
         }
 
+        mAnimator.cancel();
         if (bitmap.getBitmap() != null) {
-            getProperBaseMatrix(bitmap, mBaseMatrix);
-            setImageBitmap(bitmap.getBitmap(), bitmap.getRotation());
+            if (resetSupp || !keepBaseGeometry(bitmap)) {
+                getProperBaseMatrix(bitmap, mBaseMatrix);
+            }
+            setImageBitmap(bitmap.getBitmap(), bitmap.getRotation(), bitmap.isFlipped());
         } else {
             mBaseMatrix.reset();
-            setImageBitmap(null, 0);
+            setImageBitmap(null, 0, false);
         }
 
         if (resetSupp) {
@@ -234,6 +640,31 @@ public class ZoomImageView extends AppCompatImageView {
         }
         setImageMatrix(getImageViewMatrix());
         mMaxZoom = maxZoom();
+        restorePendingState();
+    }
+
+    /**
+     * 替换为同一张图片的另一个分辨率时，调整基本矩阵使新图片与旧图片显示在完全相同的位置，
+     * 补充矩阵(用户的缩放和平移)因此可以保持不变
+     *
+     * @param bitmap 新图片
+     * @return 两张图片不是同一内容(方向或宽高比不同)时返回false
+     */
+    private boolean keepBaseGeometry(RotateBitmap bitmap) {
+        Bitmap old = mBitmapDisplayed.getBitmap();
+        if (old == null || mBitmapDisplayed.getRotation() != bitmap.getRotation()
+                || mBitmapDisplayed.isFlipped() != bitmap.isFlipped()) {
+            return false;
+        }
+        float oldAspect = (float) old.getWidth() / old.getHeight();
+        float newAspect = (float) bitmap.getBitmap().getWidth() / bitmap.getBitmap().getHeight();
+        // 降采样时宽高会被取整，允许少量误差
+        if (Math.abs(oldAspect - newAspect) > oldAspect * 0.02f) {
+            return false;
+        }
+        mBaseMatrix.preScale((float) old.getWidth() / bitmap.getBitmap().getWidth(),
+                (float) old.getHeight() / bitmap.getBitmap().getHeight());
+        return true;
     }
 
     private void createSetImageTask(final RotateBitmap bitmap, final boolean resetSupp) {
@@ -313,6 +744,7 @@ public class ZoomImageView extends AppCompatImageView {
         if (mBitmapDisplayed.getBitmap() == null) {
             return;
         }
+        finishZoomAnimation();
 
         Matrix m = getImageViewMatrix();
 
@@ -325,19 +757,14 @@ public class ZoomImageView extends AppCompatImageView {
 
         float deltaX = 0, deltaY = 0;
 
-        final PointF orig = new PointF();
-        final PointF old = new PointF();
         if (vertical) {
             int viewHeight = getHeight();
             if (height < viewHeight) {
                 deltaY = (viewHeight - height) / 2 - rect.top;
-                orig.y = rect.top;
             } else if (rect.top > 0) {
                 deltaY = -rect.top;
-                orig.y = rect.top;
             } else if (rect.bottom < viewHeight) {
                 deltaY = getHeight() - rect.bottom;
-                orig.y = rect.bottom;
             }
         }
 
@@ -345,42 +772,41 @@ public class ZoomImageView extends AppCompatImageView {
             int viewWidth = getWidth();
             if (width < viewWidth) {
                 deltaX = (viewWidth - width) / 2 - rect.left;
-                orig.x = rect.left;
             } else if (rect.left > 0) {
                 deltaX = -rect.left;
-                orig.x = rect.left;
             } else if (rect.right < viewWidth) {
                 deltaX = viewWidth - rect.right;
-                orig.x = rect.right;
             }
         }
 
-        old.set(orig);
-        final float incrementXPerMs = deltaX / durationMs;
-        final float incrementYPerMs = deltaY / durationMs;
+        animateTranslate(deltaX, deltaY, durationMs);
+    }
 
-        final long startTime = System.currentTimeMillis();
+    /**
+     * 以动画平移，进行中的缩放或平移动画会从当前状态转向新的目标
+     *
+     * @param deltaX
+     * @param deltaY
+     * @param durationMs
+     */
+    protected void animateTranslate(float deltaX, float deltaY, float durationMs) {
+        mAnimator.translateBy(deltaX, deltaY, durationMs);
+    }
 
-        post(new Runnable() {
-            @Override
-            public void run() {
-                long now = System.currentTimeMillis();
-                float currentMs = Math.min(durationMs, now - startTime);
-                float targetX = orig.x + (incrementXPerMs * currentMs) - old.x;
-                float targetY = orig.y + (incrementYPerMs * currentMs) - old.y;
-                postTranslate(targetX, targetY);
-                setImageMatrix(getImageViewMatrix());
-                // postTranslateCenter(targetX, targetY);
-
-                old.x += targetX;
-                old.y += targetY;
-
-                if (currentMs < durationMs) {
-                    post(this);
-                }
-            }
-        });
+    /**
+     * 进行中的缩放动画直接到达目标比例，按当前位置计算平移距离之前调用
+     */
+    protected void finishZoomAnimation() {
+        mAnimator.finishZoom();
+    }
 
+    /**
+     * 惯性滑动，由动画的帧回调推进
+     *
+     * @see TransformAnimator#fling(int, int, int, int, int, int)
+     */
+    void fling(int velocityX, int velocityY, int minX, int maxX, int minY, int maxY) {
+        mAnimator.fling(velocityX, velocityY, minX, maxX, minY, maxY);
     }
 
     public ZoomImageView(Context context) {
@@ -475,20 +901,21 @@ public class ZoomImageView extends AppCompatImageView {
     // 设置最大缩放，这是一个相对于基本矩阵的缩放比例。它的计算显示图像在400%缩放，无论屏幕或图像方向。
     // 如果我们在未来解码完整的300万像素图像，而不是目前的1024x768，这应该被修改为200%。
     protected float maxZoom() {
-        if (mMaxZoom > 0) {
-            return mMaxZoom;
+        if (mMaxZoomOverride > 0) {
+            return mMaxZoomOverride;
         }
         if (mBitmapDisplayed.getBitmap() == null) {
             return 1F;
         }
 
-        float fw = (float) mBitmapDisplayed.getWidth() / (float) mThisWidth;
-        float fh = (float) mBitmapDisplayed.getHeight() / (float) mThisHeight;
+        float fw = (float) getImageWidth() / (float) mThisWidth;
+        float fh = (float) getImageHeight() / (float) mThisHeight;
         float max = Math.max(fw, fh) * 4;
         return Math.max(max, 1.0f);
     }
 
     public void setMaxZoom(float maxZoom) {
+        mMaxZoomOverride = maxZoom;
         mMaxZoom = maxZoom;
     }
 
@@ -505,24 +932,50 @@ public class ZoomImageView extends AppCompatImageView {
         center(true, true);
     }
 
+    /**
+     * 以动画缩放，进行中的缩放或平移动画会从当前状态转向新的目标
+     *
+     * @param scale
+     * @param centerX
+     * @param centerY
+     * @param durationMs
+     */
     void zoomTo(final float scale, final float centerX, final float centerY, final float durationMs) {
-        final float incrementPerMs = (scale - getScale()) / durationMs;
-        final float oldScale = getScale();
-        final long startTime = System.currentTimeMillis();
+        mAnimator.zoomTo(scale, centerX, centerY, durationMs);
+    }
 
-        post(new Runnable() {
-            @Override
-            public void run() {
-                long now = System.currentTimeMillis();
-                float currentMs = Math.min(durationMs, now - startTime);
-                float target = oldScale + (incrementPerMs * currentMs);
-                zoomTo(target, centerX, centerY);
+    /**
+     * 设置缩放和平移动画的插值器，默认为DecelerateInterpolator
+     *
+     * @param interpolator 为null时为线性
+     */
+    public void setAnimationInterpolator(Interpolator interpolator) {
+        mAnimator.setInterpolator(interpolator);
+    }
 
-                if (currentMs < durationMs) {
-                    post(this);
-                }
-            }
-        });
+    @Override
+    public void setImageMatrix(Matrix matrix) {
+        if (mMatrixBatch) {
+            mMatrixDirty = true;
+            return;
+        }
+        super.setImageMatrix(matrix);
+    }
+
+    /**
+     * 开始合并矩阵修改，到endMatrixBatch()为止的setImageMatrix调用只在结束时提交一次
+     */
+    void beginMatrixBatch() {
+        mMatrixBatch = true;
+        mMatrixDirty = false;
+    }
+
+    void endMatrixBatch() {
+        mMatrixBatch = false;
+        if (mMatrixDirty) {
+            mMatrixDirty = false;
+            super.setImageMatrix(getImageViewMatrix());
+        }
     }
 
     public void zoomTo(float scale) {
@@ -602,10 +1055,164 @@ public class ZoomImageView extends AppCompatImageView {
         return mBitmapDisplayed.getBitmap();
     }
 
+    /**
+     * @return 当前显示的图片及其显示方向，getDisplayBitmap()的像素可能未做方向校正
+     */
+    public RotateBitmap getDisplayRotateBitmap() {
+        return new RotateBitmap(mBitmapDisplayed.getBitmap(), mBitmapDisplayed.getRotation(),
+                mBitmapDisplayed.isFlipped());
+    }
+
+    /**
+     * 返回可以读取像素的当前图片，用于剪裁和导出
+     * <p>
+     * 显示的HARDWARE位图不能读取像素：图片由setImageSource加载时从来源重新解码为软件位图，否则从显存复制一份。
+     * 重新解码在调用线程同步进行，不能在主线程调用，主线程请使用getSoftwareRotateBitmap(OnExportListener)。
+     *
+     * @return 图片未加载时getBitmap()为null；与getDisplayBitmap()不是同一个位图时由调用方负责释放
+     * @throws IllegalStateException 需要重新解码时在主线程调用
+     */
+    public RotateBitmap getSoftwareRotateBitmap() {
+        Bitmap bitmap = mBitmapDisplayed.getBitmap();
+        if (bitmap == null || !ImageUtil.isHardware(bitmap)) {
+            return getDisplayRotateBitmap();
+        }
+        Bitmap software = null;
+        if (mImageSource != null && mImageSourceBitmap == bitmap) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                throw new IllegalStateException("export decode on the main thread, use the OnExportListener variant");
+            }
+            software = decodeExportBitmap(mImageSource, getContext().getApplicationContext(),
+                    mImageSourceResolution, bitmap);
+        }
+        if (software == null) {
+            software = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        // 方向以显示的为准
+        return new RotateBitmap(software, mBitmapDisplayed.getRotation(), mBitmapDisplayed.isFlipped());
+    }
+
+    /**
+     * 异步返回可以读取像素的当前图片，从来源重新解码在后台线程进行
+     *
+     * @param listener 在主线程回调
+     * @see #getSoftwareRotateBitmap()
+     */
+    public void getSoftwareRotateBitmap(OnExportListener listener) {
+        exportSoftwareRotateBitmap(new ExportTask() {
+            @Override
+            public RotateBitmap run(RotateBitmap software) {
+                return software;
+            }
+        }, listener);
+    }
+
+    /**
+     * 在主线程调用，取得可以读取像素的当前图片后执行task，结果总是通过listener在主线程异步返回
+     * <p>
+     * 需要从来源重新解码时，解码和task都在后台线程执行；其他情况不需要解码，在主线程执行。
+     * 后台执行时task不能访问view的状态，需要的状态应在调用前取得。
+     *
+     * @param task
+     * @param listener
+     */
+    protected void exportSoftwareRotateBitmap(final ExportTask task, final OnExportListener listener) {
+        final Bitmap displayed = mBitmapDisplayed.getBitmap();
+        if (displayed == null || !ImageUtil.isHardware(displayed) || mImageSource == null
+                || mImageSourceBitmap != displayed) {
+            final RotateBitmap result = displayed != null ? task.run(getSoftwareRotateBitmap()) : null;
+            ImageLoader.postToMain(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onExported(result);
+                }
+            });
+            return;
+        }
+        final ImageSource source = mImageSource;
+        final Context context = getContext().getApplicationContext();
+        final int resolution = mImageSourceResolution;
+        final int rotation = mBitmapDisplayed.getRotation();
+        final boolean flipped = mBitmapDisplayed.isFlipped();
+        ImageLoader.submit(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap software = decodeExportBitmap(source, context, resolution, displayed);
+                if (software == null) {
+                    // 重新解码失败，回到主线程从显存复制；图片已经更换时放弃
+                    ImageLoader.postToMain(new Runnable() {
+                        @Override
+                        public void run() {
+                            RotateBitmap result = null;
+                            if (mBitmapDisplayed.getBitmap() == displayed) {
+                                Bitmap copy = displayed.copy(Bitmap.Config.ARGB_8888, false);
+                                if (copy != null) {
+                                    result = task.run(new RotateBitmap(copy, rotation, flipped));
+                                }
+                            }
+                            listener.onExported(result);
+                        }
+                    });
+                    return;
+                }
+                final RotateBitmap result = task.run(new RotateBitmap(software, rotation, flipped));
+                ImageLoader.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onExported(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 从来源按EXPORT用途重新解码，可以在任意线程调用
+     *
+     * @param displayed 当前显示的位图
+     * @return 解码失败，或来源返回的仍是HARDWARE位图时返回null
+     */
+    private static Bitmap decodeExportBitmap(ImageSource source, Context context, int resolution, Bitmap displayed) {
+        RotateBitmap decoded = source.decodeRotateBitmap(context, resolution, BitmapConfigPolicy.Usage.EXPORT);
+        Bitmap software = decoded != null ? decoded.getBitmap() : null;
+        if (software != null && ImageUtil.isHardware(software)) {
+            // 自定义的ImageSource没有区分用途，可能直接返回它缓存的、正在显示的位图，这时不能回收
+            if (software != displayed) {
+                ImageUtil.recycleBitmap(software);
+            }
+            software = null;
+        }
+        return software;
+    }
+
+    /**
+     * @return 方向校正后的图片宽度，分块显示时为原图宽度
+     */
+    protected int getImageWidth() {
+        if (mTileRenderer != null) {
+            TileSource source = mTileRenderer.getSource();
+            return mBitmapDisplayed.isOrientationChanged() ? source.getHeight() : source.getWidth();
+        }
+        return mBitmapDisplayed.getWidth();
+    }
+
+    /**
+     * @return 方向校正后的图片高度，分块显示时为原图高度
+     */
+    protected int getImageHeight() {
+        if (mTileRenderer != null) {
+            TileSource source = mTileRenderer.getSource();
+            return mBitmapDisplayed.isOrientationChanged() ? source.getWidth() : source.getHeight();
+        }
+        return mBitmapDisplayed.getHeight();
+    }
+
     public static class RotateBitmap {
         public static final String TAG = "RotateBitmap";
         private Bitmap mBitmap;
         private int mRotation;
+        // 是否在旋转前水平翻转，用于EXIF中的镜像方向
+        private boolean mFlipped;
 
         public RotateBitmap(Bitmap bitmap) {
             mBitmap = bitmap;
@@ -617,6 +1224,11 @@ public class ZoomImageView extends AppCompatImageView {
             mRotation = rotation % 360;
         }
 
+        public RotateBitmap(Bitmap bitmap, int rotation, boolean flipped) {
+            this(bitmap, rotation);
+            mFlipped = flipped;
+        }
+
         public void setRotation(int rotation) {
             mRotation = rotation;
         }
@@ -625,6 +1237,14 @@ public class ZoomImageView extends AppCompatImageView {
             return mRotation;
         }
 
+        public void setFlipped(boolean flipped) {
+            mFlipped = flipped;
+        }
+
+        public boolean isFlipped() {
+            return mFlipped;
+        }
+
         public Bitmap getBitmap() {
             return mBitmap;
         }
@@ -636,13 +1256,16 @@ public class ZoomImageView extends AppCompatImageView {
         public Matrix getRotateMatrix() {
             // 默认情况下，这是一个单位矩阵
             Matrix matrix = new Matrix();
-            if (mRotation != 0 && mBitmap != null) {
+            if ((mRotation != 0 || mFlipped) && mBitmap != null) {
                 //我们想在原点做旋转，但是因为边界
                 //矩形在旋转后会改变，所以值
                 //按新旧宽度/高度分别计算。
                 int cx = mBitmap.getWidth() / 2;
                 int cy = mBitmap.getHeight() / 2;
                 matrix.preTranslate(-cx, -cy);
+                if (mFlipped) {
+                    matrix.postScale(-1, 1);
+                }
                 matrix.postRotate(mRotation);
                 matrix.postTranslate(getWidth() / 2f, getHeight() / 2f);
             }
@@ -676,4 +1299,80 @@ public class ZoomImageView extends AppCompatImageView {
             }
         }
     }
+
+    /**
+     * 跨配置变化保留的图片，不能放入Bundle
+     *
+     * @see #retainImage()
+     */
+    public static class RetainedImage {
+        private final RotateBitmap mBitmap;
+        private final TileSource mTileSource;
+        private final ImageSource mSource;
+        private final int mSourceResolution;
+        private final Bitmap mSourceBitmap;
+
+        private RetainedImage(RotateBitmap bitmap, TileSource tileSource, ImageSource source, int sourceResolution,
+                              Bitmap sourceBitmap) {
+            mBitmap = bitmap;
+            mTileSource = tileSource;
+            mSource = source;
+            mSourceResolution = sourceResolution;
+            mSourceBitmap = sourceBitmap;
+        }
+
+        /**
+         * @return 图片由setImageSource加载时为其来源，否则可能为null
+         */
+        public ImageSource getSource() {
+            return mSource;
+        }
+    }
+
+    /**
+     * 保存的缩放、平移和剪裁区域，不包含位图；重建后由同一来源的图片恢复
+     */
+    static class SavedState extends BaseSavedState {
+        String mSourceId;
+        final float[] mSuppValues = new float[9];
+        RectF mCropRect;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            mSourceId = in.readString();
+            float[] values = in.createFloatArray();
+            if (values != null && values.length == mSuppValues.length) {
+                System.arraycopy(values, 0, mSuppValues, 0, values.length);
+            }
+            float[] crop = in.createFloatArray();
+            if (crop != null && crop.length == 4) {
+                mCropRect = new RectF(crop[0], crop[1], crop[2], crop[3]);
+            }
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeString(mSourceId);
+            out.writeFloatArray(mSuppValues);
+            out.writeFloatArray(mCropRect != null
+                    ? new float[]{mCropRect.left, mCropRect.top, mCropRect.right, mCropRect.bottom} : null);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
 }
@@ -7,27 +7,19 @@ import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.ViewGroup;
-import android.widget.Scroller;
 
 class ZoomImageViewGestureDetector {
 
-    private PointF mLastPoint = new PointF();
-
     private PointF mMid = new PointF();
 
     private float mLastScale = 1f;
 
-    private Scroller mScroller;
-
-    private Runnable mScrollRunnable;
-
     private ScaleGestureDetector mScaleDetector;
     private GestureDetector mGestureDetector;
     private ZoomImageView mImageView;
 
     public ZoomImageViewGestureDetector(Context context, ZoomImageView imageView) {
         mImageView = imageView;
-        mScroller = new Scroller(context);
         initGestureDetector(context);
     }
 
@@ -114,9 +106,9 @@ class ZoomImageViewGestureDetector {
     }
 
     private void fling(final ZoomImageView view, int xVelocity, int yVelocity) {
+        // 双击缩放进行中时先完成缩放，按最终的比例计算滑动范围
+        view.finishZoomAnimation();
         RectF r = view.getMapRect();
-        int initialX = 0;
-        int initialY = 0;
         // 当xVelocity >= 0时minX为0，当xVelocity < 0时minX为view宽-图片宽的负值(view宽<图片宽)
         int minX = xVelocity >= 0 ? 0 : -(int) Math.max(0, r.width() - view.getWidth());
         // 当xVelocity <= 0时maxX为0，当xVelocity > 0时minX为view宽-图片宽(view宽<图片宽)
@@ -125,32 +117,8 @@ class ZoomImageViewGestureDetector {
         int minY = yVelocity > 0 ? 0 : -(int) Math.max(0, r.height() - view.getHeight());
         // 同maxX
         int maxY = yVelocity > 0 ? (int) Math.max(0, r.height() - view.getHeight()) : 0;
-        mLastPoint.set(initialX, initialY);
-        mScroller.fling(initialX, initialY, xVelocity, yVelocity, minX, maxX, minY, maxY);
-        mScrollRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (mScroller.computeScrollOffset()) {
-                    final float transX = mScroller.getCurrX() - mLastPoint.x;
-                    final float transY = mScroller.getCurrY() - mLastPoint.y;
-                    mLastPoint.set(mScroller.getCurrX(), mScroller.getCurrY());
-                    view.postTranslateCenter(-transX, -transY);
-                    view.post(this);
-                } else {
-                    endFling(view);
-                }
-            }
-        };
-        view.post(mScrollRunnable);
-        view.invalidate();
-    }
-
-    private void endFling(final ZoomImageView view) {
-        mScroller.forceFinished(true);
-        if (mScrollRunnable != null) {
-            view.removeCallbacks(mScrollRunnable);
-            mScrollRunnable = null;
-        }
+        // 惯性滑动在Choreographer的帧回调中推进，与缩放、平移动画共用
+        view.fling(xVelocity, yVelocity, minX, maxX, minY, maxY);
     }
 
 }
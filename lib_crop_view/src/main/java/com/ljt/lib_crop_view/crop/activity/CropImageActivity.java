@@ -5,13 +5,28 @@ import android.os.Bundle;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.ljt.lib_crop_view.R;
+import com.ljt.lib_crop_view.crop.ZoomImageView;
+import com.ljt.lib_crop_view.crop.widget.CropClipView;
 
 public class CropImageActivity extends AppCompatActivity {
 
+    private CropClipView mCropClipView;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_crop_image);
 
+        mCropClipView = findViewById(R.id.v_crop_clip);
+        // 旋转屏幕等配置变化后直接使用已解码的图片，缩放和剪裁位置由view的onRestoreInstanceState恢复
+        Object retained = getLastCustomNonConfigurationInstance();
+        if (retained instanceof ZoomImageView.RetainedImage) {
+            mCropClipView.setRetainedImage((ZoomImageView.RetainedImage) retained);
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mCropClipView.retainImage();
     }
-}
\ No newline at end of file
+}
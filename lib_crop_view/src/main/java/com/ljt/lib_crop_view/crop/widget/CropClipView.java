@@ -7,6 +7,8 @@ import android.widget.RelativeLayout;
 import com.ljt.lib_crop_view.R;
 import com.ljt.lib_crop_view.crop.ClipView;
 import com.ljt.lib_crop_view.crop.CropImageView;
+import com.ljt.lib_crop_view.crop.ImageSource;
+import com.ljt.lib_crop_view.crop.ZoomImageView;
 
 /**
  * @author lijintao
@@ -15,6 +17,9 @@ public class CropClipView extends RelativeLayout {
 
     private CropImageView cropImageView;
     private ClipView clipView;
+    // Activity重建前保留的图片，第一次布局后直接显示
+    private ZoomImageView.RetainedImage retainedImage;
+    private boolean imageRestored;
 
     public CropClipView(Context context) {
         this(context, null, 0);
@@ -31,15 +36,50 @@ public class CropClipView extends RelativeLayout {
 
         cropImageView = findViewById(R.id.v_crop_iv);
         clipView = findViewById(R.id.v_clip_v);
+        cropImageView.setCropView(clipView);
 
         clipView.post(new Runnable() {
             @Override
             public void run() {
-                cropImageView.setCropView(clipView);
                 clipView.setClipBorderWidth(4);
-                cropImageView.setImageResource(R.mipmap.test);
+                restoreImage();
+                if (!imageRestored) {
+                    cropImageView.setImageSource(ImageSource.resource(R.mipmap.test), null);
+                }
             }
         });
     }
 
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        // 裁剪框已完成布局，在第一帧绘制前显示保留的图片
+        restoreImage();
+    }
+
+    private void restoreImage() {
+        if (retainedImage != null) {
+            imageRestored = cropImageView.restoreImage(retainedImage);
+            retainedImage = null;
+        }
+    }
+
+    /**
+     * 取出当前显示的图片，在Activity的onRetainCustomNonConfigurationInstance中调用
+     *
+     * @return
+     */
+    public ZoomImageView.RetainedImage retainImage() {
+        return cropImageView.retainImage();
+    }
+
+    /**
+     * 显示Activity重建前保留的图片，不需要重新解码，在onCreate中调用
+     *
+     * @param image getLastCustomNonConfigurationInstance()的结果
+     */
+    public void setRetainedImage(ZoomImageView.RetainedImage image) {
+        retainedImage = image;
+    }
+
 }
@@ -0,0 +1,228 @@
+package com.ljt.lib_crop_view.crop;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * ImageHeader的本地单元测试，图片数据在测试中按格式拼出
+ */
+public class ImageHeaderTest {
+
+    @Test
+    public void jpegOrientation() throws IOException {
+        ImageHeader header = ImageHeader.probe(new ByteArrayInputStream(jpeg(640, 480, 6)));
+        assertNotNull(header);
+        assertEquals(ImageHeader.MIME_JPEG, header.getMimeType());
+        assertEquals(640, header.getWidth());
+        assertEquals(480, header.getHeight());
+        assertEquals(ImageHeader.ORIENTATION_ROTATE_90, header.getOrientation());
+        assertEquals(480, header.getOrientedWidth());
+        assertEquals(640, header.getOrientedHeight());
+    }
+
+    @Test
+    public void pngSize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        out.writeInt(13);
+        out.writeBytes("IHDR");
+        out.writeInt(300);
+        out.writeInt(200);
+        out.write(new byte[9]);
+        ImageHeader header = ImageHeader.probe(new ByteArrayInputStream(bytes.toByteArray()));
+        assertNotNull(header);
+        assertEquals(ImageHeader.MIME_PNG, header.getMimeType());
+        assertEquals(300, header.getWidth());
+        assertEquals(200, header.getHeight());
+        assertEquals(ImageHeader.ORIENTATION_UNDEFINED, header.getOrientation());
+    }
+
+    @Test
+    public void heifPrimaryItemSize() throws IOException {
+        // 属性1为主图像的尺寸，属性2为更大的缩略图尺寸，只属于第2项
+        byte[] ipco = concat(ispe(4000, 3000), ispe(8000, 6000));
+        byte[] ipma = ipma(new int[]{1, 1}, new int[]{2, 2});
+        ImageHeader header = ImageHeader.probe(new ByteArrayInputStream(heif(1, ipco, ipma)));
+        assertNotNull(header);
+        assertEquals(ImageHeader.MIME_HEIF, header.getMimeType());
+        assertEquals(4000, header.getWidth());
+        assertEquals(3000, header.getHeight());
+    }
+
+    @Test
+    public void heifRotation() throws IOException {
+        // irot的角度为逆时针，逆时针90度即顺时针270度
+        byte[] ipco = concat(ispe(4000, 3000), box("irot", new byte[]{1}));
+        ImageHeader header = ImageHeader.probe(new ByteArrayInputStream(heif(1, ipco, ipma(new int[]{1, 1, 2}))));
+        assertNotNull(header);
+        assertEquals(ImageHeader.ORIENTATION_ROTATE_270, header.getOrientation());
+    }
+
+    @Test
+    public void heifTransformOrder() throws IOException {
+        byte[] ipco = concat(ispe(4000, 3000), box("irot", new byte[]{1}), box("imir", new byte[]{0}));
+        // 先逆时针旋转90度再左右翻转
+        ImageHeader rotateThenMirror = ImageHeader.probe(new ByteArrayInputStream(
+                heif(1, ipco, ipma(new int[]{1, 1, 2, 3}))));
+        // 先左右翻转再逆时针旋转90度
+        ImageHeader mirrorThenRotate = ImageHeader.probe(new ByteArrayInputStream(
+                heif(1, ipco, ipma(new int[]{1, 1, 3, 2}))));
+        assertNotNull(rotateThenMirror);
+        assertNotNull(mirrorThenRotate);
+        assertEquals(ImageHeader.ORIENTATION_TRANSVERSE, rotateThenMirror.getOrientation());
+        assertEquals(ImageHeader.ORIENTATION_TRANSPOSE, mirrorThenRotate.getOrientation());
+    }
+
+    @Test
+    public void heifTruncatedIpma() throws IOException {
+        // 声明了3个关联，实际只有1个
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(content);
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeShort(1);
+        out.writeByte(3);
+        out.writeByte(1);
+        byte[] ipco = concat(ispe(4000, 3000), box("irot", new byte[]{1}));
+        ImageHeader header = ImageHeader.probe(new ByteArrayInputStream(
+                heif(1, ipco, box("ipma", content.toByteArray()))));
+        // 关联未知时只取尺寸，不使用方向
+        assertNotNull(header);
+        assertEquals(4000, header.getWidth());
+        assertEquals(ImageHeader.ORIENTATION_UNDEFINED, header.getOrientation());
+    }
+
+    @Test
+    public void heifTruncatedIpmaCount() throws IOException {
+        // ipma只有version和flags，没有条目数
+        byte[] ipco = ispe(4000, 3000);
+        ImageHeader header = ImageHeader.probe(new ByteArrayInputStream(
+                heif(1, ipco, box("ipma", new byte[]{0, 0, 0, 0, 0}))));
+        assertNotNull(header);
+        assertEquals(3000, header.getHeight());
+    }
+
+    @Test
+    public void heifTruncatedFile() throws IOException {
+        byte[] data = heif(1, ispe(4000, 3000), ipma(new int[]{1, 1}));
+        byte[] truncated = new byte[data.length - 6];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertNull(ImageHeader.probe(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    public void unknownFormat() {
+        assertNull(ImageHeader.probe(new ByteArrayInputStream(new byte[32])));
+    }
+
+    @Test
+    public void toOrientationRoundTrip() {
+        for (int orientation = ImageHeader.ORIENTATION_NORMAL; orientation <= ImageHeader.ORIENTATION_ROTATE_270;
+             orientation++) {
+            assertEquals(orientation, ImageHeader.toOrientation(ImageHeader.getRotationDegrees(orientation),
+                    ImageHeader.isFlipped(orientation)));
+        }
+    }
+
+    /**
+     * 只有APP1(EXIF，大端，IFD0中只有方向)和SOF0的JPEG头
+     */
+    static byte[] jpeg(int width, int height, int orientation) throws IOException {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        DataOutputStream t = new DataOutputStream(tiff);
+        t.writeBytes("MM");
+        t.writeShort(42);
+        t.writeInt(8);
+        t.writeShort(1);
+        t.writeShort(0x0112);
+        t.writeShort(3);
+        t.writeInt(1);
+        t.writeShort(orientation);
+        t.writeShort(0);
+        t.writeInt(0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(0xFFD8);
+        out.writeShort(0xFFE1);
+        out.writeShort(2 + 6 + tiff.size());
+        out.writeBytes("Exif");
+        out.writeShort(0);
+        out.write(tiff.toByteArray());
+        out.writeShort(0xFFC0);
+        out.writeShort(11);
+        out.writeByte(8);
+        out.writeShort(height);
+        out.writeShort(width);
+        out.writeByte(1);
+        out.write(new byte[3]);
+        out.writeShort(0xFFD9);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] heif(int primaryItem, byte[] ipco, byte[] ipma) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(box("ftyp", concat("heic".getBytes("US-ASCII"), new byte[4])));
+        ByteArrayOutputStream pitm = new ByteArrayOutputStream();
+        DataOutputStream p = new DataOutputStream(pitm);
+        p.writeInt(0);
+        p.writeShort(primaryItem);
+        byte[] iprp = box("iprp", concat(box("ipco", ipco), ipma));
+        out.write(box("meta", concat(new byte[4], box("pitm", pitm.toByteArray()), iprp)));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] ispe(int width, int height) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(content);
+        out.writeInt(0);
+        out.writeInt(width);
+        out.writeInt(height);
+        return box("ispe", content.toByteArray());
+    }
+
+    /**
+     * @param entries 每项为{项目id, 属性序号...}
+     */
+    private static byte[] ipma(int[]... entries) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(content);
+        out.writeInt(0);
+        out.writeInt(entries.length);
+        for (int[] entry : entries) {
+            out.writeShort(entry[0]);
+            out.writeByte(entry.length - 1);
+            for (int i = 1; i < entry.length; i++) {
+                out.writeByte(entry[i]);
+            }
+        }
+        return box("ipma", content.toByteArray());
+    }
+
+    private static byte[] box(String type, byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(8 + content.length);
+        out.writeBytes(type);
+        out.write(content);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part, 0, part.length);
+        }
+        return bytes.toByteArray();
+    }
+}
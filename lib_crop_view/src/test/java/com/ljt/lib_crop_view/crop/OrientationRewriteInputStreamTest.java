@@ -0,0 +1,102 @@
+package com.ljt.lib_crop_view.crop;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * OrientationRewriteInputStream的本地单元测试
+ */
+public class OrientationRewriteInputStreamTest {
+
+    @Test
+    public void rewriteJpegOrientation() throws IOException {
+        byte[] source = jpeg(ImageHeader.ORIENTATION_ROTATE_90);
+        ImageHeader header = ImageHeader.probe(new ByteArrayInputStream(source));
+        assertNotNull(header);
+        final long offset = header.getOrientationOffset();
+
+        // 每次读3个字节，方向值会跨越两次读取
+        byte[] rewritten = readAll(new OrientationRewriteInputStream(new ByteArrayInputStream(source), offset,
+                header.isOrientationLittleEndian(), ImageHeader.ORIENTATION_ROTATE_180), 3);
+        ImageHeader result = ImageHeader.probe(new ByteArrayInputStream(rewritten));
+        assertNotNull(result);
+        assertEquals(ImageHeader.ORIENTATION_ROTATE_180, result.getOrientation());
+        assertEquals(source.length, rewritten.length);
+        for (int i = 0; i < source.length; i++) {
+            if (i != offset && i != offset + 1) {
+                assertEquals("byte " + i, source[i], rewritten[i]);
+            }
+        }
+    }
+
+    @Test
+    public void singleByteRead() throws IOException {
+        byte[] source = new byte[8];
+        InputStream is = new OrientationRewriteInputStream(new ByteArrayInputStream(source), 3, false, 0x0102);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) >= 0) {
+            out.write(b);
+        }
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 2, 0, 0, 0}, out.toByteArray());
+    }
+
+    @Test
+    public void littleEndian() throws IOException {
+        byte[] rewritten = readAll(new OrientationRewriteInputStream(new ByteArrayInputStream(new byte[6]), 2,
+                true, ImageHeader.ORIENTATION_ROTATE_270), 64);
+        assertArrayEquals(new byte[]{0, 0, 8, 0, 0, 0}, rewritten);
+    }
+
+    @Test
+    public void valueAtEndOfRead() throws IOException {
+        // 读取在方向值的第一个字节处结束
+        byte[] source = new byte[]{9, 9, 9, 9, 9, 9};
+        InputStream is = new OrientationRewriteInputStream(new ByteArrayInputStream(source), 3, false, 0x0506);
+        byte[] first = new byte[4];
+        assertEquals(4, is.read(first, 0, 4));
+        assertArrayEquals(new byte[]{9, 9, 9, 5}, first);
+        byte[] rest = new byte[4];
+        assertEquals(2, is.read(rest, 1, 3));
+        assertArrayEquals(new byte[]{0, 6, 9, 0}, rest);
+    }
+
+    @Test
+    public void skipKeepsPosition() throws IOException {
+        byte[] source = new byte[]{1, 2, 3, 4, 5, 6};
+        InputStream is = new OrientationRewriteInputStream(new ByteArrayInputStream(source), 2, false, 0x0A0B);
+        assertEquals(3, is.skip(3));
+        // 跳过了方向值的第一个字节，第二个字节仍被替换
+        assertEquals(0x0B, is.read());
+        assertEquals(5, is.read());
+    }
+
+    @Test
+    public void markNotSupported() {
+        InputStream is = new OrientationRewriteInputStream(new ByteArrayInputStream(new byte[4]), 0, false, 1);
+        assertFalse(is.markSupported());
+    }
+
+    private static byte[] jpeg(int orientation) throws IOException {
+        return ImageHeaderTest.jpeg(640, 480, orientation);
+    }
+
+    private static byte[] readAll(InputStream is, int chunk) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk];
+        int count;
+        while ((count = is.read(buffer, 0, buffer.length)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}